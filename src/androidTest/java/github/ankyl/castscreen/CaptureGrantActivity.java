@@ -0,0 +1,72 @@
+package github.ankyl.castscreen;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.media.projection.MediaProjectionManager;
+import android.os.Bundle;
+import android.view.View;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CaptureGrantActivity asks for the screen capture permission and stores it in
+ * {@link ScreenCaptureGrant}, then keeps a bar moving across the screen so the capture produces a
+ * steady stream of frames. With the PROJECT_MEDIA app op allowed, the system grants the
+ * permission without showing its dialog.
+ */
+public class CaptureGrantActivity extends Activity {
+    private static final int REQUEST_CAPTURE = 1;
+
+    private final CountDownLatch mAnswered = new CountDownLatch(1);
+    private volatile boolean mGranted;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(new MovingBarView(this));
+        MediaProjectionManager manager = (MediaProjectionManager) getSystemService(MEDIA_PROJECTION_SERVICE);
+        startActivityForResult(manager.createScreenCaptureIntent(), REQUEST_CAPTURE);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode != REQUEST_CAPTURE) return;
+        if (resultCode == RESULT_OK) {
+            ScreenCaptureGrant.store(resultCode, data);
+            mGranted = true;
+        }
+        mAnswered.countDown();
+    }
+
+    /**
+     * wait up to {@param timeoutMs} for the answer to the permission request
+     * @return whether the permission was granted
+     */
+    public boolean awaitGrant(long timeoutMs) throws InterruptedException {
+        return mAnswered.await(timeoutMs, TimeUnit.MILLISECONDS) && mGranted;
+    }
+
+    private static class MovingBarView extends View {
+        private static final long PERIOD_MS = 2000;
+        private final Paint mPaint = new Paint();
+
+        MovingBarView(Context context) {
+            super(context);
+            mPaint.setColor(Color.WHITE);
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas) {
+            canvas.drawColor(Color.BLACK);
+            float x = (float) (System.currentTimeMillis() % PERIOD_MS) / PERIOD_MS * getWidth();
+            canvas.drawRect(x, 0, x + getWidth() / 10f, getHeight(), mPaint);
+            postInvalidateOnAnimation();
+        }
+    }
+
+}
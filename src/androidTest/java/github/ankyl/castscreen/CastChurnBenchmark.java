@@ -0,0 +1,168 @@
+package github.ankyl.castscreen;
+
+import android.app.Instrumentation;
+import android.app.Notification;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.media.MediaRouter;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CastChurnBenchmark starts and stops casts through a {@link LoopbackCastTransport} over and
+ * over, to catch lifecycle latency regressions and leaks in the service and connection stack.
+ * Each cycle starts the service, waits for the first frame to reach the loopback display, and
+ * stops it again. At the end, the heap is collected and the {@link CastResourceTracker} counts are
+ * reported along with the cycle latencies; a cast that leaks leaves open or retained objects
+ * behind. Casts show a {@link TestPatternSource}, so no screen capture permission is needed.
+ * Results are logged and sent to the instrumentation, one line per run tagged with the build.
+ * CastChurnTest asserts that the same cycle leaks nothing on the JVM; this measures it on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CastChurnBenchmark {
+    private static final String TAG = "CastChurnBenchmark";
+    private static final int CYCLES = 200;
+    private static final long POLL_INTERVAL_MS = 10;
+    private static final long FIRST_FRAME_TIMEOUT_MS = 10 * 1000;
+    private static final long STOP_TIMEOUT_MS = 5 * 1000;
+
+    private Context mContext;
+    private DisplayMetrics mMetrics;
+    private MediaRouter mRouter;
+    private Notification mNotification;
+    private LoopbackCastTransport mTransport;
+
+    interface Condition {
+        boolean isMet();
+    }
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mMetrics = mContext.getResources().getDisplayMetrics();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRouter = MediaRouter.getInstance(mContext);
+            }
+        });
+        mNotification = new Notification.Builder(mContext)
+                .setContentTitle(TAG)
+                .setSmallIcon(android.R.drawable.ic_media_play)
+                .build();
+        mTransport = new LoopbackCastTransport(mContext, mMetrics.widthPixels, mMetrics.heightPixels,
+                mMetrics.densityDpi);
+        CastScreenService.setTestPattern(new TestPatternSource.Config(TestPatternSource.Pattern.SCROLLING_TEXT,
+                mMetrics.widthPixels, mMetrics.heightPixels, 30, false));
+    }
+
+    @After
+    public void tearDown() {
+        CastScreenService.stop();
+        waitFor(STOP_TIMEOUT_MS, sIdle);
+        CastScreenService.setTestPattern(null);
+        mTransport.release();
+    }
+
+    @Test
+    public void churn() {
+        LatencyHistogram firstFrameLatencies = new LatencyHistogram();
+        LatencyHistogram cycleLatencies = new LatencyHistogram();
+        int failures = 0;
+        long heapBefore = usedHeap();
+        for (int cycle = 0; cycle < CYCLES; cycle++) {
+            long startNanos = System.nanoTime();
+            final long framesAtStart = mTransport.getFrameCount();
+            CastScreenService.start(mContext, TAG, mMetrics, CaptureProfile.NATIVE_RECEIVER, mTransport, mRouter,
+                    mNotification);
+            boolean presented = waitFor(FIRST_FRAME_TIMEOUT_MS, new Condition() {
+                @Override
+                public boolean isMet() {
+                    return mTransport.getFrameCount() > framesAtStart;
+                }
+            });
+            if (presented) {
+                firstFrameLatencies.record((System.nanoTime() - startNanos) / 1000);
+            } else {
+                Log.w(TAG, "No frame after " + FIRST_FRAME_TIMEOUT_MS + "ms in cycle " + cycle);
+                failures++;
+            }
+            CastScreenService.stop();
+            assertTrue("Cast did not stop in cycle " + cycle, waitFor(STOP_TIMEOUT_MS, sIdle));
+            cycleLatencies.record((System.nanoTime() - startNanos) / 1000);
+        }
+        long heapGrowth = usedHeap() - heapBefore;
+
+        report(TAG, "build=" + buildTag() + " sdk=" + Build.VERSION.SDK_INT + " device=" + Build.MODEL
+                + " cycles=" + CYCLES + " failures=" + failures + " heapGrowth=" + heapGrowth
+                + " firstFrame={" + firstFrameLatencies.snapshot() + "} cycle={" + cycleLatencies.snapshot()
+                + "} resources={" + CastResourceTracker.summary() + "}");
+        assertEquals("Casts without a first frame", 0, failures);
+        for (CastResourceTracker.Kind kind : CastResourceTracker.Kind.values()) {
+            assertEquals(kind + " left open", 0, CastResourceTracker.getOpenCount(kind));
+        }
+    }
+
+    static final Condition sIdle = new Condition() {
+        @Override
+        public boolean isMet() {
+            return !CastScreenService.getSessionState().isActive();
+        }
+    };
+
+    /**
+     * poll {@param condition} until it is met or {@param timeoutMs} passed
+     * @return whether it was met
+     */
+    static boolean waitFor(long timeoutMs, Condition condition) {
+        long deadline = System.nanoTime() + timeoutMs * 1000000L;
+        while (!condition.isMet()) {
+            if (System.nanoTime() > deadline) return false;
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * the version and commit the library was built from, so results can be compared per build
+     */
+    static String buildTag() {
+        return BuildConfig.VERSION_NAME + "-" + BuildConfig.GIT_COMMIT;
+    }
+
+    /**
+     * log {@param line} and send it to the instrumentation, where `am instrument -r` prints it
+     */
+    static void report(String tag, String line) {
+        Log.i(tag, line);
+        Bundle results = new Bundle();
+        results.putString(Instrumentation.REPORT_KEY_STREAMRESULT, line + "\n");
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        // twice, so objects only released by finalizers are collected as well
+        runtime.gc();
+        runtime.runFinalization();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,152 @@
+package github.ankyl.castscreen;
+
+import android.app.Instrumentation;
+import android.app.Notification;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.media.MediaRouter;
+import android.util.DisplayMetrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ResizeGapBenchmark measures how long the receiver goes without frames when the virtual display
+ * changes size, resizing it in place against releasing and recreating it. The screen is captured
+ * onto a {@link LoopbackCastTransport} at half its size while {@link CaptureGrantActivity} keeps it
+ * animating; toggling a region of interest of a quarter of the screen then switches the virtual
+ * display between the size of the loopback display and that of the screen, through the same
+ * relayout a rotation takes. After each change, the longest interval between frames reaching the
+ * loopback display is counted as its gap.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ResizeGapBenchmark {
+    private static final String TAG = "ResizeGapBenchmark";
+    private static final int RESIZES = 20;
+    private static final long GRANT_TIMEOUT_MS = 10 * 1000;
+    private static final long FIRST_FRAME_TIMEOUT_MS = 10 * 1000;
+    private static final long STOP_TIMEOUT_MS = 5 * 1000;
+    // long enough for a recreated display to deliver frames again
+    private static final long SETTLE_MS = 1000;
+
+    private Instrumentation mInstrumentation;
+    private Context mContext;
+    private DisplayMetrics mMetrics;
+    private MediaRouter mRouter;
+    private LoopbackCastTransport mTransport;
+    private CaptureGrantActivity mActivity;
+
+    @Before
+    public void setUp() throws Exception {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mContext = InstrumentationRegistry.getTargetContext();
+        mMetrics = mContext.getResources().getDisplayMetrics();
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRouter = MediaRouter.getInstance(mContext);
+            }
+        });
+
+        // lets the system grant screen capture without asking
+        runShellCommand("appops set " + mContext.getPackageName() + " PROJECT_MEDIA allow");
+        mActivity = (CaptureGrantActivity) mInstrumentation.startActivitySync(
+                new Intent(mContext, CaptureGrantActivity.class).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
+        assertTrue("Screen capture was not granted", mActivity.awaitGrant(GRANT_TIMEOUT_MS));
+
+        mTransport = new LoopbackCastTransport(mContext, mMetrics.widthPixels / 2, mMetrics.heightPixels / 2,
+                mMetrics.densityDpi);
+        Notification notification = new Notification.Builder(mContext)
+                .setContentTitle(TAG)
+                .setSmallIcon(android.R.drawable.ic_media_play)
+                .build();
+        CastScreenService.start(mContext, TAG, mMetrics, CaptureProfile.NATIVE_RECEIVER, mTransport, mRouter,
+                notification);
+        assertTrue("No frame reached the loopback display",
+                CastChurnBenchmark.waitFor(FIRST_FRAME_TIMEOUT_MS, new CastChurnBenchmark.Condition() {
+                    @Override
+                    public boolean isMet() {
+                        return mTransport.getFrameCount() > 0;
+                    }
+                }));
+    }
+
+    @After
+    public void tearDown() {
+        CastScreenService.stop();
+        CastChurnBenchmark.waitFor(STOP_TIMEOUT_MS, CastChurnBenchmark.sIdle);
+        if (mTransport != null) mTransport.release();
+        if (mActivity != null) mActivity.finish();
+    }
+
+    @Test
+    public void resizeGap() {
+        LatencyHistogram.Snapshot inPlace = measureGaps(false);
+        LatencyHistogram.Snapshot recreated = measureGaps(true);
+        CastChurnBenchmark.report(TAG, "build=" + CastChurnBenchmark.buildTag() + " sdk=" + Build.VERSION.SDK_INT
+                + " device=" + Build.MODEL + " resizes=" + RESIZES
+                + " inPlaceGap={" + inPlace + "} recreateGap={" + recreated + "}");
+    }
+
+    /**
+     * resize the virtual display {@link #RESIZES} times
+     * @param recreate whether to release and recreate the display instead of resizing it
+     * @return the longest interval between frames after each resize
+     */
+    private LatencyHistogram.Snapshot measureGaps(final boolean recreate) {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                CastScreenService.getProjectionManager().setRecreateOnResize(recreate);
+            }
+        });
+        LatencyHistogram gaps = new LatencyHistogram();
+        final Rect quarter = new Rect(0, 0, mMetrics.widthPixels / 2, mMetrics.heightPixels / 2);
+        SystemClock.sleep(SETTLE_MS);
+        for (int i = 0; i < RESIZES; i++) {
+            final Rect region = i % 2 == 0 ? quarter : null;
+            long framesBefore = mTransport.getFrameCount();
+            mTransport.resetFrameIntervals();
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    CastScreenService.setRegionOfInterest(region);
+                }
+            });
+            SystemClock.sleep(SETTLE_MS);
+            assertTrue("No frames after resize " + i, mTransport.getFrameCount() > framesBefore);
+            gaps.record(mTransport.getFrameIntervals().getMaxMicros());
+        }
+        return gaps.snapshot();
+    }
+
+    private void runShellCommand(String command) throws IOException {
+        ParcelFileDescriptor output = mInstrumentation.getUiAutomation().executeShellCommand(command);
+        // the command has finished once its output is closed
+        InputStream in = new FileInputStream(output.getFileDescriptor());
+        try {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                // discard
+            }
+        } finally {
+            in.close();
+            output.close();
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package github.ankyl.castscreen;
+
+import android.graphics.Point;
+
+/**
+ * CaptureProfile decides the resolution and density of the {@link android.hardware.display.VirtualDisplay}
+ * independently of the size of the presentation surface. The captured frames are scaled onto the
+ * presentation surface by the compositor, so rendering at a lower resolution than the receiver
+ * saves GPU and encoder time on the phone.
+ */
+public class CaptureProfile {
+    /** density value meaning the sender's density is scaled along with the capture resolution */
+    public static final int DENSITY_SCALED = 0;
+
+    /** capture at most 1280x720 */
+    public static final CaptureProfile HD_720 = new CaptureProfile(1280, 720, DENSITY_SCALED, 0);
+    /** capture at most 1920x1080 */
+    public static final CaptureProfile HD_1080 = new CaptureProfile(1920, 1080, DENSITY_SCALED, 0);
+    /** capture at the resolution of the receiver's presentation surface */
+    public static final CaptureProfile NATIVE_RECEIVER = new CaptureProfile(0, 0, DENSITY_SCALED, 0);
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mDensityDpi;
+    private final int mMaxPixels;
+
+    private CaptureProfile(int width, int height, int densityDpi, int maxPixels) {
+        mWidth = width;
+        mHeight = height;
+        mDensityDpi = densityDpi;
+        mMaxPixels = maxPixels;
+    }
+
+    /**
+     * @param width maximum capture width, or 0 to use the receiver's width
+     * @param height maximum capture height, or 0 to use the receiver's height
+     * @param densityDpi fixed density of the virtual display, or {@link #DENSITY_SCALED}
+     * @param maxPixels upper bound on width * height, or 0 for no bound
+     */
+    public static CaptureProfile custom(int width, int height, int densityDpi, int maxPixels) {
+        if (width < 0 || height < 0 || densityDpi < 0 || maxPixels < 0) {
+            throw new IllegalArgumentException("CaptureProfile values must not be negative");
+        }
+        return new CaptureProfile(width, height, densityDpi, maxPixels);
+    }
+
+    /**
+     * @param surfaceWidth width of the presentation surface the capture will be scaled onto
+     * @param surfaceHeight height of the presentation surface the capture will be scaled onto
+     * @return the capture resolution; keeps the surface's aspect ratio and never exceeds its size
+     */
+    public Point getCaptureSize(int surfaceWidth, int surfaceHeight) {
+        double scale = 1.0;
+        if (mWidth > 0 && mHeight > 0) {
+            // The target is a bounding box, so it applies to portrait and landscape surfaces alike
+            int boxLong = Math.max(mWidth, mHeight);
+            int boxShort = Math.min(mWidth, mHeight);
+            boolean landscape = surfaceWidth >= surfaceHeight;
+            scale = Math.min(scale, (double) (landscape ? boxLong : boxShort) / surfaceWidth);
+            scale = Math.min(scale, (double) (landscape ? boxShort : boxLong) / surfaceHeight);
+        }
+        if (mMaxPixels > 0) {
+            double pixels = scale * surfaceWidth * scale * surfaceHeight;
+            if (pixels > mMaxPixels) scale *= Math.sqrt(mMaxPixels / pixels);
+        }
+        // encoders prefer even dimensions
+        int width = Math.max(2, (int) (surfaceWidth * scale) & ~1);
+        int height = Math.max(2, (int) (surfaceHeight * scale) & ~1);
+        return new Point(width, height);
+    }
+
+    /**
+     * @param senderDensityDpi density of the user's screen
+     * @param sourceSize size of the user's screen
+     * @param captureSize value returned by {@link #getCaptureSize(int, int)}
+     * @return the density for the virtual display
+     */
+    public int getDensityDpi(int senderDensityDpi, Point sourceSize, Point captureSize) {
+        if (mDensityDpi != DENSITY_SCALED) return mDensityDpi;
+
+        int sourceShort = Math.min(sourceSize.x, sourceSize.y);
+        int captureShort = Math.min(captureSize.x, captureSize.y);
+        if (sourceShort <= 0) return senderDensityDpi;
+        return Math.max(1, (int) ((long) senderDensityDpi * captureShort / sourceShort));
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureProfile{" + mWidth + "x" + mHeight + ", densityDpi=" + mDensityDpi
+                + ", maxPixels=" + mMaxPixels + "}";
+    }
+
+}
@@ -0,0 +1,268 @@
+package github.ankyl.castscreen;
+
+import android.app.KeyguardManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * CaptureSuspender suspends the {@link FrameSource} while the sender's screen is off or locked,
+ * as there is nothing worth casting then. The receivers keep showing the last frame, and nothing
+ * is recreated: the source resumes drawing into the same relay, presentations and Cast sessions
+ * as soon as the user unlocks the device. Time spent suspended is recorded, along with an estimate
+ * of the frames and battery charge saved, from the relay's frame rate and the battery current
+ * while casting and while suspended. Runs on the session thread of {@link CastScreenThreads}.
+ */
+public class CaptureSuspender {
+    private static final String TAG = "CaptureSuspender";
+    private static final long CURRENT_POLL_INTERVAL_MS = 10 * 1000;
+    // microampere-milliseconds per milliampere-hour
+    private static final double UA_MS_PER_MAH = 1000.0 * 3600 * 1000;
+
+    /**
+     * what suspending saved so far
+     */
+    public static class Snapshot {
+        public final boolean suspended;
+        /** number of times the capture was suspended */
+        public final int suspensions;
+        public final long suspendedMillis;
+        /** frames the relay would have drawn at its frame rate before suspending */
+        public final long avoidedFrames;
+        /** battery charge saved, from the current drawn while casting and while suspended, or -1 if
+         * the battery does not report its current */
+        public final double savedMilliampHours;
+
+        Snapshot(boolean suspended, int suspensions, long suspendedMillis, long avoidedFrames,
+                 double savedMilliampHours) {
+            this.suspended = suspended;
+            this.suspensions = suspensions;
+            this.suspendedMillis = suspendedMillis;
+            this.avoidedFrames = avoidedFrames;
+            this.savedMilliampHours = savedMilliampHours;
+        }
+
+        @Override
+        public String toString() {
+            return "suspended=" + suspended + " suspensions=" + suspensions
+                    + " suspendedMillis=" + suspendedMillis + " avoidedFrames=" + avoidedFrames
+                    + " savedMilliampHours=" + (savedMilliampHours < 0 ? "unknown" : String.valueOf(savedMilliampHours));
+        }
+    }
+
+    /**
+     * where the number of frames presented so far comes from
+     */
+    interface FrameCounter {
+        long getPresentedFrames();
+    }
+
+    private final Context mAppContext;
+    private final FrameSource mSource;
+    private final FrameCounter mFrameCounter;
+    private final PowerManager mPowerManager;
+    private final KeyguardManager mKeyguardManager;
+    private final BatteryManager mBatteryManager;
+    private final Handler mSessionHandler;
+
+    // only accessed on the session thread
+    private boolean mStarted;
+    private boolean mSuspended;
+    private long mStartMillis;
+    private long mSuspendStartMillis;
+    private long mSuspendedMillis;
+    private int mSuspensions;
+    private long mAvoidedFrames;
+    private long mActiveMillis;
+    private long mActiveStartMillis;
+    private long mActiveStartFrames;
+    private long mActiveFrames;
+    // battery current samples in microamperes, while casting and while suspended
+    private long mActiveCurrentSum;
+    private int mActiveCurrentSamples;
+    private long mSuspendedCurrentSum;
+    private int mSuspendedCurrentSamples;
+    // a copy of the above as of the latest change, for snapshots taken on other threads
+    private volatile Accounting mAccounting;
+
+    /**
+     * what suspending saved up to the latest suspend, resume or current sample
+     */
+    private static class Accounting {
+        final boolean suspended;
+        final int suspensions;
+        final long suspendStartMillis;
+        final long suspendedMillis;
+        final long avoidedFrames;
+        final long activeMillis;
+        final long activeFrames;
+        // average battery currents in microamperes, or -1 before the first sample
+        final double activeCurrent;
+        final double suspendedCurrent;
+
+        Accounting(boolean suspended, int suspensions, long suspendStartMillis, long suspendedMillis,
+                   long avoidedFrames, long activeMillis, long activeFrames, double activeCurrent,
+                   double suspendedCurrent) {
+            this.suspended = suspended;
+            this.suspensions = suspensions;
+            this.suspendStartMillis = suspendStartMillis;
+            this.suspendedMillis = suspendedMillis;
+            this.avoidedFrames = avoidedFrames;
+            this.activeMillis = activeMillis;
+            this.activeFrames = activeFrames;
+            this.activeCurrent = activeCurrent;
+            this.suspendedCurrent = suspendedCurrent;
+        }
+    }
+
+    private final BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            update();
+        }
+    };
+
+    private final Runnable mPollCurrentRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sampleCurrent();
+            mSessionHandler.postDelayed(this, CURRENT_POLL_INTERVAL_MS);
+        }
+    };
+
+    public CaptureSuspender(Context context, final FrameSource source) {
+        this(context, source, new FrameCounter() {
+            @Override
+            public long getPresentedFrames() {
+                return source.getFrameRelay().getPresentedFrames();
+            }
+        });
+    }
+
+    CaptureSuspender(Context context, FrameSource source, FrameCounter frameCounter) {
+        mAppContext = context.getApplicationContext();
+        mSource = source;
+        mFrameCounter = frameCounter;
+        mPowerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mKeyguardManager = (KeyguardManager) context.getSystemService(Context.KEYGUARD_SERVICE);
+        mBatteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+        mSessionHandler = CastScreenThreads.getSessionHandler();
+        publish();
+    }
+
+    /**
+     * start following the screen and keyguard; must be called on the session thread
+     */
+    public void start() {
+        if (mStarted) return;
+        mStarted = true;
+        mStartMillis = SystemClock.elapsedRealtime();
+        mActiveStartMillis = mStartMillis;
+        mActiveStartFrames = mFrameCounter.getPresentedFrames();
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_USER_PRESENT);
+        mAppContext.registerReceiver(mScreenReceiver, filter, null, mSessionHandler);
+        mSessionHandler.postDelayed(mPollCurrentRunnable, CURRENT_POLL_INTERVAL_MS);
+        update();
+    }
+
+    /**
+     * stop following the screen and keyguard, resuming the source if it is suspended; must be
+     * called on the session thread
+     */
+    public void stop() {
+        if (!mStarted) return;
+        mAppContext.unregisterReceiver(mScreenReceiver);
+        mSessionHandler.removeCallbacks(mPollCurrentRunnable);
+        setSuspended(false);
+        mStarted = false;
+        Log.i(TAG, getSnapshot().toString());
+    }
+
+    private void update() {
+        // a screen turned on behind the keyguard is only resumed once the user unlocks it
+        setSuspended(!mPowerManager.isInteractive() || mKeyguardManager.inKeyguardRestrictedInputMode());
+    }
+
+    private void setSuspended(boolean suspended) {
+        if (suspended == mSuspended) return;
+        mSuspended = suspended;
+        long now = SystemClock.elapsedRealtime();
+        if (suspended) {
+            mActiveMillis += now - mActiveStartMillis;
+            mActiveFrames += mFrameCounter.getPresentedFrames() - mActiveStartFrames;
+            mSuspendStartMillis = now;
+            mSuspensions++;
+            Log.i(TAG, "Screen off or locked; suspending capture");
+        } else {
+            long millis = now - mSuspendStartMillis;
+            mSuspendedMillis += millis;
+            mAvoidedFrames += estimateFrames(mActiveFrames, mActiveMillis, millis);
+            mActiveStartMillis = now;
+            mActiveStartFrames = mFrameCounter.getPresentedFrames();
+            Log.i(TAG, "Resuming capture after " + millis + "ms");
+        }
+        mSource.setSuspended(suspended);
+        publish();
+    }
+
+    /**
+     * @return frames the relay would have drawn in {@param millis} at the frame rate it had while
+     * active, {@param activeFrames} in {@param activeMillis}
+     */
+    private static long estimateFrames(long activeFrames, long activeMillis, long millis) {
+        return activeMillis == 0 ? 0 : activeFrames * millis / activeMillis;
+    }
+
+    private void sampleCurrent() {
+        int current = mBatteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CURRENT_NOW);
+        // devices without a fuel gauge report 0 or Integer.MIN_VALUE
+        if (current == 0 || current == Integer.MIN_VALUE) return;
+        // some devices report the current drawn as negative
+        current = Math.abs(current);
+        if (mSuspended) {
+            mSuspendedCurrentSum += current;
+            mSuspendedCurrentSamples++;
+        } else {
+            mActiveCurrentSum += current;
+            mActiveCurrentSamples++;
+        }
+        publish();
+    }
+
+    private void publish() {
+        mAccounting = new Accounting(mSuspended, mSuspensions, mSuspendStartMillis, mSuspendedMillis,
+                mAvoidedFrames, mActiveMillis, mActiveFrames,
+                mActiveCurrentSamples == 0 ? -1 : (double) mActiveCurrentSum / mActiveCurrentSamples,
+                mSuspendedCurrentSamples == 0 ? -1 : (double) mSuspendedCurrentSum / mSuspendedCurrentSamples);
+    }
+
+    /**
+     * @return what suspending saved so far; may be called on any thread
+     */
+    public Snapshot getSnapshot() {
+        Accounting accounting = mAccounting;
+        long suspendedMillis = accounting.suspendedMillis;
+        long avoidedFrames = accounting.avoidedFrames;
+        if (accounting.suspended) {
+            long millis = SystemClock.elapsedRealtime() - accounting.suspendStartMillis;
+            suspendedMillis += millis;
+            avoidedFrames += estimateFrames(accounting.activeFrames, accounting.activeMillis, millis);
+        }
+        double saved = -1;
+        if (accounting.activeCurrent >= 0 && accounting.suspendedCurrent >= 0) {
+            double difference = accounting.activeCurrent - accounting.suspendedCurrent;
+            saved = Math.max(0, difference) * suspendedMillis / UA_MS_PER_MAH;
+        }
+        return new Snapshot(accounting.suspended, accounting.suspensions, suspendedMillis, avoidedFrames, saved);
+    }
+
+}
@@ -0,0 +1,320 @@
+package github.ankyl.castscreen;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.media.MediaRouteSelector;
+import android.support.v7.media.MediaRouter;
+import android.util.Log;
+
+import com.google.android.gms.cast.ApplicationMetadata;
+import com.google.android.gms.cast.Cast;
+import com.google.android.gms.cast.CastDevice;
+import com.google.android.gms.cast.CastRemoteDisplay;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.Status;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * CastApiClientPool keeps connected {@link GoogleApiClient}s per {@link CastDevice}, so a cast can
+ * skip the connect phase. Clients are connected speculatively while the user is choosing a route,
+ * and kept connected for a while after a session ends in case the user casts to the same device
+ * again; idle clients are disconnected after a timeout. Clients are warmed with the interactive
+ * remote display preset; a session asking for another preset gets a new client, and the old one is
+ * only disconnected once any remote display it was stopping has stopped. Client callbacks are
+ * delivered on the session thread of {@link CastScreenThreads}; the pool itself may be used from
+ * any thread.
+ */
+public class CastApiClientPool {
+    private static final String TAG = "CastApiClientPool";
+    // how long a speculatively connected client is kept if it is never used
+    private static final long WARM_TIMEOUT_MS = 30 * 1000;
+    // how long a client is kept after its session ended
+    private static final long IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+    // how many visible devices to pre-connect to when the user opens the route chooser
+    private static final int MAX_WARM_DEVICES = 2;
+    // how long an evicted client waits for its remote display to stop before disconnecting anyway
+    private static final long STOP_TIMEOUT_MS = 5 * 1000;
+
+    private static CastApiClientPool sInstance;
+
+    private final Context mAppContext;
+    private final Handler mSessionHandler;
+    private final HashMap<String, PooledClient> mClients = new HashMap<>();
+    private String mLastDeviceId;
+
+    /**
+     * receives the events of a pooled client while it is acquired by a session
+     */
+    interface SessionCallbacks {
+        void onConnected();
+
+        void onConnectionSuspended(int cause);
+
+        void onConnectionFailed(ConnectionResult result);
+
+        void onApplicationDisconnected(int statusCode);
+
+        void onApplicationMetadataChanged(ApplicationMetadata metadata);
+
+        void onRemoteDisplayEnded(Status status);
+    }
+
+    private CastApiClientPool(Context context) {
+        mAppContext = context.getApplicationContext();
+        mSessionHandler = CastScreenThreads.getSessionHandler();
+    }
+
+    public static synchronized CastApiClientPool getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CastApiClientPool(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * speculatively connect to the devices the user is most likely to choose among the routes
+     * matching {@param selector}: the last device cast to, or else the first few visible ones
+     */
+    public synchronized void warmRoutes(MediaRouter router, MediaRouteSelector selector) {
+        List<MediaRouter.RouteInfo> routes = router.getRoutes();
+        int warmed = 0;
+        for (MediaRouter.RouteInfo route : routes) {
+            CastDevice device = deviceFor(route, selector);
+            if (device != null && device.getDeviceId().equals(mLastDeviceId)) {
+                warm(device);
+                return;
+            }
+        }
+        for (MediaRouter.RouteInfo route : routes) {
+            CastDevice device = deviceFor(route, selector);
+            if (device != null && warmed++ < MAX_WARM_DEVICES) warm(device);
+        }
+    }
+
+    private static CastDevice deviceFor(MediaRouter.RouteInfo route, MediaRouteSelector selector) {
+        if (route.isDefault() || !route.matchesSelector(selector)) return null;
+        return CastDevice.getFromBundle(route.getExtras());
+    }
+
+    /**
+     * start connecting to {@param device} if there is no client for it yet
+     */
+    public synchronized void warm(CastDevice device) {
+        PooledClient pooled = mClients.get(device.getDeviceId());
+        if (pooled == null) {
+            Log.d(TAG, "Pre-connecting to " + device.getFriendlyName());
+            pooled = createClient(device, CastRemoteDisplay.CONFIGURATION_INTERACTIVE_REALTIME);
+            pooled.scheduleEviction(WARM_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * @param callbacks receive the client's events until {@link #release(PooledClient)}; if the
+     *                  client is already connected, onConnected is posted right away
+     * @param configPreset the {@link CastRemoteDisplay} configuration preset of the session
+     * @return the pooled client for {@param device}, connected or connecting
+     */
+    synchronized PooledClient acquire(CastDevice device, int configPreset, SessionCallbacks callbacks) {
+        PooledClient pooled = mClients.get(device.getDeviceId());
+        if (pooled != null && pooled.mCallbacks != null) {
+            Log.w(TAG, "Client for " + device.getFriendlyName() + " already in use; creating another");
+            pooled = null;
+        } else if (pooled != null && pooled.mConfigPreset != configPreset) {
+            Log.d(TAG, "Idle client for " + device.getFriendlyName() + " has another preset; replacing it");
+            evict(pooled);
+            pooled = null;
+        }
+        if (pooled == null) {
+            pooled = createClient(device, configPreset);
+        } else {
+            Log.d(TAG, "Reusing " + (pooled.mClient.isConnected() ? "connected" : "connecting")
+                    + " client for " + device.getFriendlyName());
+        }
+        mLastDeviceId = device.getDeviceId();
+        pooled.attach(callbacks);
+        return pooled;
+    }
+
+    /**
+     * return {@param pooled} to the pool once its session no longer needs it
+     */
+    synchronized void release(PooledClient pooled) {
+        pooled.mCallbacks = null;
+        if (pooled.mClient.isConnected() && mClients.get(pooled.mDeviceId) == pooled) {
+            pooled.scheduleEviction(IDLE_TIMEOUT_MS);
+        } else {
+            evict(pooled);
+        }
+    }
+
+    /**
+     * disconnect and forget all idle clients
+     */
+    public synchronized void clear() {
+        for (PooledClient pooled : mClients.values().toArray(new PooledClient[mClients.size()])) {
+            if (pooled.mCallbacks == null) evict(pooled);
+        }
+    }
+
+    private PooledClient createClient(CastDevice device, int configPreset) {
+        PooledClient pooled = new PooledClient(device, configPreset);
+        mClients.put(device.getDeviceId(), pooled);
+        pooled.mClient.connect();
+        return pooled;
+    }
+
+    private synchronized void evict(PooledClient pooled) {
+        mSessionHandler.removeCallbacks(pooled.mEvictRunnable);
+        if (mClients.get(pooled.mDeviceId) == pooled) mClients.remove(pooled.mDeviceId);
+        if (pooled.mPendingStops > 0) {
+            // disconnecting now would drop the stop, and the receiver could keep the old display
+            Log.d(TAG, "Disconnecting evicted client once its remote display has stopped");
+            pooled.mEvicted = true;
+            mSessionHandler.postDelayed(pooled.mDisconnectRunnable, STOP_TIMEOUT_MS);
+            return;
+        }
+        pooled.disconnect();
+    }
+
+    /**
+     * a GoogleApiClient whose callbacks are forwarded to whichever session currently holds it
+     */
+    class PooledClient {
+        private final String mDeviceId;
+        private final int mConfigPreset;
+        private final GoogleApiClient mClient;
+        private volatile SessionCallbacks mCallbacks;
+        // remote display stops issued on the client whose result has not arrived yet
+        private int mPendingStops;
+        // whether the client left the pool while stopping, and disconnects once stopped
+        private boolean mEvicted;
+
+        private final Runnable mEvictRunnable = new Runnable() {
+            @Override
+            public void run() {
+                Log.d(TAG, "Disconnecting idle client");
+                evict(PooledClient.this);
+            }
+        };
+
+        private final Runnable mDisconnectRunnable = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (CastApiClientPool.this) {
+                    Log.w(TAG, "Remote display did not stop in time; disconnecting evicted client");
+                    mPendingStops = 0;
+                    disconnect();
+                }
+            }
+        };
+
+        private PooledClient(CastDevice device, int configPreset) {
+            mDeviceId = device.getDeviceId();
+            mConfigPreset = configPreset;
+
+            // Cast API callbacks
+            Cast.CastOptions.Builder castBuilder = new Cast.CastOptions.Builder(device, new Cast.Listener() {
+                @Override
+                public void onApplicationDisconnected(int statusCode) {
+                    if (mCallbacks != null) mCallbacks.onApplicationDisconnected(statusCode);
+                }
+
+                @Override
+                public void onApplicationMetadataChanged(ApplicationMetadata metadata) {
+                    if (mCallbacks != null) mCallbacks.onApplicationMetadataChanged(metadata);
+                }
+            });
+
+            // Cast Remote Display API callbacks
+            CastRemoteDisplay.CastRemoteDisplayOptions.Builder remoteDisplayBuilder = new
+                    CastRemoteDisplay.CastRemoteDisplayOptions.Builder(device, new CastRemoteDisplay.CastRemoteDisplaySessionCallbacks() {
+                @Override
+                public void onRemoteDisplayEnded(Status status) {
+                    if (mCallbacks != null) mCallbacks.onRemoteDisplayEnded(status);
+                }
+            });
+            remoteDisplayBuilder.setConfigPreset(configPreset);
+
+            // Google API callbacks
+            GoogleApiClient.OnConnectionFailedListener apiFailListener = new GoogleApiClient.OnConnectionFailedListener() {
+                @Override
+                public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
+                    SessionCallbacks callbacks = mCallbacks;
+                    evict(PooledClient.this);
+                    if (callbacks != null) callbacks.onConnectionFailed(connectionResult);
+                }
+            };
+            GoogleApiClient.ConnectionCallbacks apiCallbacks = new GoogleApiClient.ConnectionCallbacks() {
+                @Override
+                public void onConnected(@Nullable Bundle bundle) {
+                    if (mCallbacks != null) mCallbacks.onConnected();
+                }
+
+                @Override
+                public void onConnectionSuspended(int cause) {
+                    SessionCallbacks callbacks = mCallbacks;
+                    evict(PooledClient.this);
+                    if (callbacks != null) callbacks.onConnectionSuspended(cause);
+                }
+            };
+
+            mClient = new GoogleApiClient.Builder(mAppContext, apiCallbacks, apiFailListener)
+                    .addApi(Cast.API, castBuilder.build())
+                    .addApi(CastRemoteDisplay.API, remoteDisplayBuilder.build())
+                    .setHandler(mSessionHandler)
+                    .build();
+        }
+
+        GoogleApiClient getClient() {
+            return mClient;
+        }
+
+        /**
+         * call before stopping the remote display on the client, and {@link #onStopFinished()}
+         * once the result arrives, so the client is not disconnected in between
+         */
+        void onStopStarted() {
+            synchronized (CastApiClientPool.this) {
+                mPendingStops++;
+            }
+        }
+
+        void onStopFinished() {
+            synchronized (CastApiClientPool.this) {
+                if (mPendingStops > 0) mPendingStops--;
+                if (mPendingStops == 0 && mEvicted) disconnect();
+            }
+        }
+
+        private void disconnect() {
+            mSessionHandler.removeCallbacks(mDisconnectRunnable);
+            if (mClient.isConnected() || mClient.isConnecting()) mClient.disconnect();
+        }
+
+        private void attach(SessionCallbacks callbacks) {
+            mSessionHandler.removeCallbacks(mEvictRunnable);
+            mCallbacks = callbacks;
+            if (mClient.isConnected()) {
+                // post, so the session sees the same ordering as with a fresh connection
+                mSessionHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCallbacks != null && mClient.isConnected()) mCallbacks.onConnected();
+                    }
+                });
+            }
+        }
+
+        private void scheduleEviction(long delayMs) {
+            mSessionHandler.removeCallbacks(mEvictRunnable);
+            mSessionHandler.postDelayed(mEvictRunnable, delayMs);
+        }
+    }
+
+}
@@ -0,0 +1,300 @@
+package github.ankyl.castscreen;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CastRecorder records the cast to an MP4 file while it is shown on the receivers. The
+ * {@link FrameRelay} draws each frame onto the input surface of a hardware H.264 encoder as one
+ * more output, so the recording needs neither a second screen capture nor any pixel copies on the
+ * CPU. The encoder is drained on its own thread at all times, and the encoded samples are written
+ * by a {@link MediaMuxer} on another; if the disk falls behind, samples are dropped up to the next
+ * keyframe instead of blocking the encoder, and with it the live cast.
+ */
+public class CastRecorder {
+    private static final String TAG = "CastRecorder";
+    private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private static final int I_FRAME_INTERVAL_S = 2;
+    private static final long DEQUEUE_TIMEOUT_US = 10 * 1000;
+    // encoded data waiting for the disk beyond which samples are dropped, and below which writing resumes
+    private static final long MAX_PENDING_BYTES = 8 * 1024 * 1024;
+    private static final long RESUME_PENDING_BYTES = MAX_PENDING_BYTES / 2;
+
+    private final File mFile;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mBitRate;
+    private final int mFrameRate;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong mPendingBytes = new AtomicLong();
+    private MediaMuxer mMuxer;
+    private Thread mDrainThread;
+    private HandlerThread mWriterThread;
+    private Handler mWriterHandler;
+
+    // guards the encoder and its surface, which stop() and the recorder's threads both touch
+    private final Object mLock = new Object();
+    private MediaCodec mEncoder;
+    private Surface mInputSurface;
+    private FrameRelay mRelay;
+    private Listener mListener;
+    private boolean mStopped;
+    // the encoder is done, at the end of the stream or because it failed
+    private boolean mDrained;
+    // the file is complete and the encoder released
+    private boolean mFinished;
+
+    // only accessed on the drain thread, and read under mLock once finished
+    private boolean mDropping;
+    private long mDroppedSamples;
+    // only accessed on the writer thread, and read under mLock once finished
+    private int mTrack = -1;
+    private long mWrittenSamples;
+
+    public interface Listener {
+        /**
+         * the file is complete; called on the main thread
+         * @param droppedSamples encoded frames left out because the disk could not keep up
+         */
+        void onRecordingFinished(File file, long writtenSamples, long droppedSamples);
+    }
+
+    /**
+     * @param width width of the recording, in pixels; rounded down to an even number
+     * @param height height of the recording, in pixels; rounded down to an even number
+     * @param bitRate target bit rate of the recording, in bits per second
+     * @param frameRate nominal frame rate; frames are recorded as the relay presents them
+     */
+    public CastRecorder(File file, int width, int height, int bitRate, int frameRate) {
+        mFile = file;
+        mWidth = width & ~1;
+        mHeight = height & ~1;
+        mBitRate = bitRate;
+        mFrameRate = frameRate;
+    }
+
+    /**
+     * start recording the frames of {@param relay}, e.g. {@link CastScreenService#getFrameRelay()};
+     * a recorder records once
+     * @throws IOException if the encoder or the file could not be set up
+     */
+    public void start(FrameRelay relay) throws IOException {
+        if (mDrainThread != null) throw new IllegalStateException("Recorder already started");
+
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, mWidth, mHeight);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, mBitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, mFrameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_S);
+
+        mEncoder = MediaCodec.createEncoderByType(MIME_TYPE);
+        try {
+            mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mInputSurface = mEncoder.createInputSurface();
+            mMuxer = new MediaMuxer(mFile.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        } catch (IOException | RuntimeException e) {
+            synchronized (mLock) {
+                releaseEncoder();
+            }
+            throw e;
+        }
+        mEncoder.start();
+
+        mWriterThread = new HandlerThread("CastScreenRecorderWriter", Process.THREAD_PRIORITY_BACKGROUND);
+        mWriterThread.start();
+        mWriterHandler = new Handler(mWriterThread.getLooper());
+        mDrainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                drain();
+            }
+        }, "CastScreenRecorderDrain");
+        mDrainThread.start();
+
+        synchronized (mLock) {
+            if (mDrained) return;
+            mRelay = relay;
+            relay.setEncoderSurface(mInputSurface, mWidth, mHeight);
+        }
+        Log.i(TAG, "Recording " + mWidth + "x" + mHeight + " to " + mFile);
+    }
+
+    /**
+     * stop recording; the file is finished in the background. Does nothing if the recorder was not
+     * started or is already stopped.
+     * @param listener notified once the file is complete, or null; also if the recording already
+     * ended early because the encoder failed
+     */
+    public void stop(Listener listener) {
+        synchronized (mLock) {
+            if (mDrainThread == null || mStopped) return;
+            mStopped = true;
+            mListener = listener;
+            if (mFinished) {
+                notifyFinished(listener, mWrittenSamples, mDroppedSamples);
+                return;
+            }
+            detachRelay();
+            if (mDrained) return;
+            try {
+                // the drain thread hands over to the writer thread once the encoder is done
+                mEncoder.signalEndOfInputStream();
+            } catch (IllegalStateException e) {
+                // the encoder failed, which the drain thread notices as well
+                Log.w(TAG, "Could not end the stream", e);
+            }
+        }
+    }
+
+    /**
+     * stop the relay from drawing onto the encoder; blocks until it no longer does. Called with
+     * {@link #mLock} held.
+     */
+    private void detachRelay() {
+        if (mRelay == null) return;
+        mRelay.removeOutputSurface(mInputSurface);
+        mRelay = null;
+    }
+
+    /**
+     * move encoded samples from the encoder to the writer thread until the end of the stream,
+     * never waiting for the disk
+     */
+    private void drain() {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        while (true) {
+            int index;
+            try {
+                index = mEncoder.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Encoder failed", e);
+                break;
+            }
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                final MediaFormat format = mEncoder.getOutputFormat();
+                mWriterHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mTrack = mMuxer.addTrack(format);
+                        mMuxer.start();
+                    }
+                });
+            } else if (index >= 0) {
+                boolean config = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                if (!config && info.size > 0) queueSample(mEncoder.getOutputBuffer(index), info);
+                mEncoder.releaseOutputBuffer(index, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) break;
+            }
+        }
+        synchronized (mLock) {
+            mDrained = true;
+            // if the encoder failed, the relay still draws onto its surface
+            detachRelay();
+        }
+        mWriterHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                finish();
+            }
+        });
+        mWriterThread.quitSafely();
+    }
+
+    private void queueSample(ByteBuffer buffer, MediaCodec.BufferInfo info) {
+        boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        long pending = mPendingBytes.get();
+        if (!mDropping && pending > MAX_PENDING_BYTES) {
+            Log.w(TAG, "Disk is falling behind with " + pending + " bytes pending; dropping until the next keyframe");
+            mDropping = true;
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            mEncoder.setParameters(params);
+        } else if (mDropping && keyFrame && pending < RESUME_PENDING_BYTES) {
+            mDropping = false;
+        }
+        if (mDropping) {
+            mDroppedSamples++;
+            return;
+        }
+
+        // copy the encoded sample, so the encoder gets its buffer back right away
+        final ByteBuffer sample = ByteBuffer.allocate(info.size);
+        buffer.position(info.offset);
+        buffer.limit(info.offset + info.size);
+        sample.put(buffer);
+        sample.flip();
+        final MediaCodec.BufferInfo sampleInfo = new MediaCodec.BufferInfo();
+        sampleInfo.set(0, info.size, info.presentationTimeUs, info.flags);
+        mPendingBytes.addAndGet(info.size);
+        mWriterHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mMuxer.writeSampleData(mTrack, sample, sampleInfo);
+                mWrittenSamples++;
+                mPendingBytes.addAndGet(-sampleInfo.size);
+            }
+        });
+    }
+
+    /**
+     * close the file and release the encoder; called on the writer thread
+     */
+    private void finish() {
+        try {
+            if (mTrack >= 0) mMuxer.stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Could not finish " + mFile, e);
+        }
+        Log.i(TAG, "Recorded " + mWrittenSamples + " frames to " + mFile + ", dropped " + mDroppedSamples);
+        synchronized (mLock) {
+            releaseEncoder();
+            mFinished = true;
+            // a recorder that failed before it was stopped notifies in stop()
+            if (mStopped) notifyFinished(mListener, mWrittenSamples, mDroppedSamples);
+        }
+    }
+
+    private void notifyFinished(final Listener listener, final long written, final long dropped) {
+        if (listener == null) return;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onRecordingFinished(mFile, written, dropped);
+            }
+        });
+    }
+
+    /**
+     * called with {@link #mLock} held
+     */
+    private void releaseEncoder() {
+        if (mMuxer != null) {
+            mMuxer.release();
+            mMuxer = null;
+        }
+        if (mEncoder != null) {
+            mEncoder.release();
+            mEncoder = null;
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+    }
+
+}
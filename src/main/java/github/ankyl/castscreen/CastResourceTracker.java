@@ -0,0 +1,105 @@
+package github.ankyl.castscreen;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+
+/**
+ * CastResourceTracker counts the objects each cast creates, to catch leaks when casts are started
+ * and stopped many times. An object is open from {@link #open(Kind)} until {@link
+ * #close(Kind, Object)}, and retained if it is still reachable after being closed; both should
+ * drop back to zero after a cast stops and the heap has been collected.
+ */
+public class CastResourceTracker {
+
+    /**
+     * the kinds of objects tracked
+     */
+    public enum Kind {
+        SERVICE,
+        CONNECTION_MANAGER,
+        PRESENTATION,
+        VIRTUAL_DISPLAY,
+        FRAME_RELAY,
+        ROUTER_CALLBACK
+    }
+
+    private static final EnumMap<Kind, Integer> sOpenCounts = new EnumMap<>(Kind.class);
+    private static final ArrayList<KindReference> sClosed = new ArrayList<>();
+    private static final ReferenceQueue<Object> sCollected = new ReferenceQueue<>();
+
+    private CastResourceTracker() {
+    }
+
+    static synchronized void open(Kind kind) {
+        Integer count = sOpenCounts.get(kind);
+        sOpenCounts.put(kind, count == null ? 1 : count + 1);
+    }
+
+    static synchronized void close(Kind kind, Object object) {
+        Integer count = sOpenCounts.get(kind);
+        sOpenCounts.put(kind, count == null ? -1 : count - 1);
+        // forget collected objects as casts go, so only the retained ones are kept
+        drainCollected();
+        sClosed.add(new KindReference(kind, object, sCollected));
+    }
+
+    /**
+     * @return number of {@param kind} objects created and not yet released
+     */
+    public static synchronized int getOpenCount(Kind kind) {
+        Integer count = sOpenCounts.get(kind);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @return number of {@param kind} objects released but still reachable; call after a garbage
+     * collection, or recently released objects are counted too
+     */
+    public static synchronized int getRetainedCount(Kind kind) {
+        drainCollected();
+        int retained = 0;
+        for (int i = 0; i < sClosed.size(); i++) {
+            if (sClosed.get(i).kind == kind) retained++;
+        }
+        return retained;
+    }
+
+    private static void drainCollected() {
+        boolean collected = false;
+        while (sCollected.poll() != null) {
+            collected = true;
+        }
+        if (!collected) return;
+
+        Iterator<KindReference> it = sClosed.iterator();
+        while (it.hasNext()) {
+            if (it.next().get() == null) it.remove();
+        }
+    }
+
+    /**
+     * @return "KIND=open/retained" for every kind, e.g. for logging
+     */
+    public static synchronized String summary() {
+        StringBuilder builder = new StringBuilder();
+        for (Kind kind : Kind.values()) {
+            if (builder.length() > 0) builder.append(' ');
+            builder.append(kind).append("=").append(getOpenCount(kind))
+                    .append('/').append(getRetainedCount(kind));
+        }
+        return builder.toString();
+    }
+
+    private static class KindReference extends WeakReference<Object> {
+        final Kind kind;
+
+        KindReference(Kind kind, Object referent, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.kind = kind;
+        }
+    }
+
+}
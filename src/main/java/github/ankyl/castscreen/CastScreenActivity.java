@@ -46,8 +46,7 @@ public abstract class CastScreenActivity extends AppCompatActivity {
     private MediaRouterCallback mCallback;
     private MediaRouter mRouter;
     private CastScreenMediaRouteActionProvider mProvider;
-    private int mPermissionsResultCode;
-    private Intent mPermissionsData;
+    private CaptureProfile mCaptureProfile = CaptureProfile.NATIVE_RECEIVER;
 
     /**
      * called after the user finishes the screen capture permissions activity
@@ -62,8 +61,8 @@ public abstract class CastScreenActivity extends AppCompatActivity {
         } else if (resultCode != AppCompatActivity.RESULT_OK) {
             Toast.makeText(this, "Screen casting won't work without capture permission", Toast.LENGTH_LONG).show();
         } else {
-            mPermissionsResultCode = resultCode;
-            mPermissionsData = data;
+            // Remember the grant for the whole process, so other activities and later casts reuse it
+            ScreenCaptureGrant.store(resultCode, data);
 
             if (mProvider != null && mProvider.getMediaRouteButton() != null) {
                 MediaRouteDialogFactory factory = mProvider.getMediaRouteButton().getDialogFactory();
@@ -86,7 +85,8 @@ public abstract class CastScreenActivity extends AppCompatActivity {
     protected void onPause() {
         super.onPause();
         if (mRouter != null && mCallback != null) {
-            mRouter.removeCallback(mCallback);
+            // stop discovering routes unless another activity still shows a Cast button
+            RouteDiscoveryCoordinator.getInstance(this).removeCallback(mCallback);
         }
     }
 
@@ -94,7 +94,7 @@ public abstract class CastScreenActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
         if (mRouter != null && mCallback != null && mSelector != null) {
-            mRouter.addCallback(mSelector, mCallback, MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY);
+            RouteDiscoveryCoordinator.getInstance(this).addCallback(mSelector, mCallback, true);
         }
     }
 
@@ -116,11 +116,20 @@ public abstract class CastScreenActivity extends AppCompatActivity {
         mRouter = MediaRouter.getInstance(getApplicationContext());
 
         // Remove existing callback if present
+        RouteDiscoveryCoordinator coordinator = RouteDiscoveryCoordinator.getInstance(this);
         if(mCallback != null)
-            mRouter.removeCallback(mCallback);
+            coordinator.removeCallback(mCallback);
 
         mCallback = new MediaRouterCallback();
-        mRouter.addCallback(mSelector, mCallback, MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY);
+        coordinator.addCallback(mSelector, mCallback, true);
+    }
+
+    /**
+     * sets the resolution and density used to capture the screen for subsequent casts
+     * @param captureProfile e.g. {@link CaptureProfile#HD_720}; defaults to {@link CaptureProfile#NATIVE_RECEIVER}
+     */
+    protected void setCaptureProfile(CaptureProfile captureProfile) {
+        mCaptureProfile = captureProfile;
     }
 
     private class MediaRouterCallback extends MediaRouter.Callback {
@@ -134,8 +143,7 @@ public abstract class CastScreenActivity extends AppCompatActivity {
             CastScreenService.start(getApplicationContext(),
                 mAppId,
                 metrics,
-                mPermissionsResultCode,
-                mPermissionsData,
+                mCaptureProfile,
                 device,
                 mRouter,
                 CastScreenService.makeNotification(CastScreenActivity.this, device)
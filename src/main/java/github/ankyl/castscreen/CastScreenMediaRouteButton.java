@@ -8,6 +8,7 @@ import android.media.projection.MediaProjectionManager;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentManager;
 import android.support.v7.app.MediaRouteButton;
+import android.support.v7.app.MediaRouteChooserDialogFragment;
 import android.support.v7.media.MediaRouteSelector;
 import android.support.v7.media.MediaRouter;
 import android.util.AttributeSet;
@@ -54,6 +55,19 @@ public class CastScreenMediaRouteButton extends MediaRouteButton {
 
             MediaRouter.RouteInfo route = getMediaRouter().getSelectedRoute();
             if (route.isDefault() || !route.matchesSelector(mSelector)) { // route chooser
+                // Connect to likely devices while the user grants permission and picks a route,
+                // and look for more in the meantime
+                CastApiClientPool.getInstance(currentActivity).warmRoutes(getMediaRouter(), mSelector);
+                RouteDiscoveryCoordinator.getInstance(currentActivity).requestActiveScan();
+
+                if (ScreenCaptureGrant.isAvailable()) {
+                    // Permission was already granted in this process, so go straight to the chooser
+                    MediaRouteChooserDialogFragment chooser = getDialogFactory().onCreateChooserDialogFragment();
+                    chooser.setRouteSelector(mSelector);
+                    chooser.show(fm, CHOOSER_TAG);
+                    return true;
+                }
+
                 Intent intent = ((MediaProjectionManager)
                         currentActivity.getSystemService(Context.MEDIA_PROJECTION_SERVICE)).createScreenCaptureIntent();
                 currentActivity.startActivityForResult(intent, CastScreenActivity.SCREEN_CAPTURE_REQUEST);
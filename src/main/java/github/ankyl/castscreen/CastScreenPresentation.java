@@ -1,23 +1,52 @@
 package github.ankyl.castscreen;
 
 import android.content.Context;
+import android.graphics.Point;
 import android.os.Bundle;
 import android.view.Display;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
+import android.view.View;
+import android.view.ViewGroup;
 
 import com.google.android.gms.cast.CastPresentation;
 
 /**
  * A {@link CastPresentation} is a {@link Dialog} used to show media on a remote display
- * CastScreenPresentation uses {@link ProjectionManager} to draw on the presentation surface
+ * CastScreenPresentation uses a {@link FrameSource} to draw on the presentation surface
  */
 public class CastScreenPresentation extends CastPresentation {
-    private ProjectionManager mProjectionManager;
+    private FrameSource mFrameSource;
+    private final boolean mRecordMetrics;
+    private View mRoot;
+    private SurfaceView mSurfaceView;
+    private boolean mFirstSurfaceChanged;
 
-    public CastScreenPresentation(Context context, Display display, ProjectionManager projectionManager) {
+    private final ProjectionManager.SourceSizeListener mSourceSizeListener = new ProjectionManager.SourceSizeListener() {
+        @Override
+        public void onSourceSizeChanged(int width, int height) {
+            // post, because the scale mode can be changed from any thread
+            mRoot.post(new Runnable() {
+                @Override
+                public void run() {
+                    updateSurfaceLayout();
+                }
+            });
+        }
+    };
+
+    public CastScreenPresentation(Context context, Display display, FrameSource frameSource) {
+        this(context, display, frameSource, true);
+    }
+
+    /**
+     * @param recordMetrics whether to record the phases of the cast in {@link CastSessionMetrics},
+     *                      false for receivers other than the one of the selected route
+     */
+    public CastScreenPresentation(Context context, Display display, FrameSource frameSource, boolean recordMetrics) {
         super(context, display);
-        mProjectionManager = projectionManager;
+        mFrameSource = frameSource;
+        mRecordMetrics = recordMetrics;
     }
 
     @Override
@@ -25,7 +54,9 @@ public class CastScreenPresentation extends CastPresentation {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.cast_screen_presentation);
 
-        final SurfaceView mSurfaceView = (SurfaceView) findViewById(R.id.castScreenPresentationSurface);
+        mFirstSurfaceChanged = true;
+        mRoot = findViewById(R.id.castScreenPresentationRoot);
+        mSurfaceView = (SurfaceView) findViewById(R.id.castScreenPresentationSurface);
         mSurfaceView.getHolder().addCallback(new SurfaceHolder.Callback() {
             @Override
             public void surfaceCreated(SurfaceHolder holder) {
@@ -33,15 +64,82 @@ public class CastScreenPresentation extends CastPresentation {
 
             @Override
             public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-                if (width > 0 && height > 0)
-                    mProjectionManager.drawOnSurfaceView(mSurfaceView);
+                if (width > 0 && height > 0) {
+                    if (mFirstSurfaceChanged) {
+                        if (mRecordMetrics) CastSessionMetrics.end(CastSessionMetrics.Phase.FIRST_SURFACE_CHANGED);
+                        mFirstSurfaceChanged = false;
+                    }
+                    mFrameSource.drawOnSurface(holder.getSurface(), width, height);
+                }
             }
 
             @Override
             public void surfaceDestroyed(SurfaceHolder holder) {
+                mFrameSource.detachSurface(holder.getSurface());
+            }
+        });
 
+        mRoot.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+            @Override
+            public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                       int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                if (right - left != oldRight - oldLeft || bottom - top != oldBottom - oldTop) {
+                    // post, because layout params shouldn't be changed during a layout pass
+                    mRoot.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            updateSurfaceLayout();
+                        }
+                    });
+                }
             }
         });
+        mFrameSource.addSourceSizeListener(mSourceSizeListener);
+
+        if (mRecordMetrics) {
+            CastSessionMetrics.end(CastSessionMetrics.Phase.PRESENTATION_CREATE);
+            CastSessionMetrics.begin(CastSessionMetrics.Phase.FIRST_SURFACE_CHANGED);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        mFrameSource.removeSourceSizeListener(mSourceSizeListener);
+        super.onStop();
+    }
+
+    /**
+     * size the surface to the aspect ratio of the sender's screen or region of interest, so the
+     * letterbox bars are left to the compositor instead of being rendered and encoded as part of
+     * the virtual display, and size its buffers from the {@link CaptureProfile} so the compositor
+     * scales them up to the receiver
+     */
+    private void updateSurfaceLayout() {
+        int containerWidth = mRoot.getWidth();
+        int containerHeight = mRoot.getHeight();
+        if (containerWidth == 0 || containerHeight == 0) return;
+
+        int width = containerWidth;
+        int height = containerHeight;
+        Point source = mFrameSource.getContentSize();
+        if (mFrameSource.getScaleMode() == ProjectionManager.ScaleMode.LETTERBOX
+                && source.x > 0 && source.y > 0) {
+            if ((long) source.x * containerHeight > (long) source.y * containerWidth) {
+                height = (int) ((long) containerWidth * source.y / source.x);
+            } else {
+                width = (int) ((long) containerHeight * source.x / source.y);
+            }
+        }
+
+        ViewGroup.LayoutParams params = mSurfaceView.getLayoutParams();
+        if (params.width != width || params.height != height) {
+            params.width = width;
+            params.height = height;
+            mSurfaceView.setLayoutParams(params);
+        }
+
+        Point capture = mFrameSource.getCaptureSize(width, height);
+        mSurfaceView.getHolder().setFixedSize(capture.x, capture.y);
     }
 
 }
@@ -8,52 +8,199 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.graphics.Rect;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.support.v7.media.MediaRouter;
 import android.util.DisplayMetrics;
 import android.util.Log;
 
 import com.google.android.gms.cast.CastDevice;
 
+import java.util.ArrayList;
+
 /**
- * CastScreenService is responsible for the {@link ConnectionManager} and {@link Notification}
- * displayed while casting
+ * CastScreenService is responsible for the {@link FrameSource}, usually a
+ * {@link ProjectionManager} capturing the screen, the {@link Notification}
+ * displayed while casting, and a {@link ConnectionManager} for each receiver. All receivers show
+ * the same capture: the one of the selected route, and any added with
+ * {@link #addReceiver(CastTransport)}. In extended-display mode, the receivers show an
+ * {@link ExtendedContent} instead, and there is no frame source. The lifecycle of the cast is
+ * tracked by a {@link CastSessionState}; starts and stops are handled in order on the main thread, and
+ * coalesced with any still in progress: the latest start while binding wins, and a start right
+ * after a stop, as when the user picks another route, switches the receiver of the selected route
+ * while keeping the capture running.
  */
 public class CastScreenService extends Service {
     private static final String TAG = "CastScreenService";
-    private static CastScreenService sCastScreenService;
-    private ConnectionManager mConnectionManager;
+    private static final CastSessionState sState = new CastSessionState();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    // the latest start while binding; only accessed on the main thread
+    private static StartRequest sPendingStart;
+    private static volatile boolean sRecoveryEnabled = true;
+    private static final ContentClassifier sContentClassifier = new ContentClassifier();
+    private static volatile boolean sThermalGovernorEnabled = true;
+    private static volatile ThermalGovernor.Listener sThermalListener;
+    private static volatile LinkMonitor.Listener sLinkMonitorListener;
+    private static volatile TestPatternSource.Config sTestPattern;
+    private static volatile boolean sAutoSuspendEnabled = true;
+    private static volatile ExtendedContent sExtendedContent;
+    // null in extended-display mode
+    private FrameSource mFrameSource;
+    // shown instead of mirroring in extended-display mode, or null
+    private ExtendedContent mExtendedContent;
+    // kept to create the capture when switching from extended-display mode to mirroring
+    private StartRequest mStartRequest;
+    // the source when capturing the screen, or null when showing a test pattern
+    private ProjectionManager mProjectionManager;
+    private ThermalGovernor mThermalGovernor;
+    private CaptureSuspender mCaptureSuspender;
+    // the session of the selected route first, then any additional receivers
+    private final ArrayList<ConnectionManager> mSessions = new ArrayList<>();
+    private String mAppId;
     private Binder mBinder;
+
+    private final ContentClassifier.Listener mContentModeListener = new ContentClassifier.Listener() {
+        @Override
+        public void onModeChanged(ContentClassifier.Mode mode, boolean pinned) {
+            if (!pinned && !sContentClassifier.isRenegotiationEnabled()) return;
+            for (int i = 0; i < mSessions.size(); i++) {
+                mSessions.get(i).setContentMode(mode);
+            }
+        }
+    };
     private Context mAppContext;
     private ServiceConnection mServiceConnection;
 
+    /**
+     * attempt to bind to the service and initialize service if successful, capturing at the
+     * receiver's native resolution
+     */
+    public static void start(Context context,
+                             String appId,
+                             DisplayMetrics metrics,
+                             int permissionsResultCode,
+                             Intent permissionsData,
+                             CastDevice device,
+                             MediaRouter router,
+                             Notification notification) {
+        start(context, appId, metrics, CaptureProfile.NATIVE_RECEIVER, permissionsResultCode,
+                permissionsData, device, router, notification);
+    }
+
     /**
      * attempt to bind to the service and initialize service if successful
+     * @param captureProfile resolution and density of the captured screen
      */
-    public static void start(final Context context,
-                             final String appId,
-                             final DisplayMetrics metrics,
-                             final int permissionsResultCode,
-                             final Intent permissionsData,
-                             final CastDevice device,
-                             final MediaRouter router,
-                             final Notification notification) {
-
-        if (sCastScreenService != null) {
-            Log.w(TAG, "Tried to start CastScreenService without stopping prior instance; will stop and return");
-            router.selectRoute(router.getDefaultRoute());
+    public static void start(Context context,
+                             String appId,
+                             DisplayMetrics metrics,
+                             CaptureProfile captureProfile,
+                             int permissionsResultCode,
+                             Intent permissionsData,
+                             CastDevice device,
+                             MediaRouter router,
+                             Notification notification) {
+        ScreenCaptureGrant.store(permissionsResultCode, permissionsData);
+        start(context, appId, metrics, captureProfile, device, router, notification);
+    }
+
+    /**
+     * attempt to bind to the service and initialize service if successful, using the permission
+     * held by {@link ScreenCaptureGrant}
+     * @param captureProfile resolution and density of the captured screen
+     */
+    public static void start(Context context,
+                             String appId,
+                             DisplayMetrics metrics,
+                             CaptureProfile captureProfile,
+                             CastDevice device,
+                             MediaRouter router,
+                             Notification notification) {
+        start(context, appId, metrics, captureProfile, new PlayServicesCastTransport(context, device, appId),
+                router, notification);
+    }
+
+    /**
+     * attempt to bind to the service and initialize service if successful, using the permission
+     * held by {@link ScreenCaptureGrant}. If a cast is already running, the receiver is mirrored to
+     * as well, as with {@link #addReceiver(CastTransport)}; if it is stopping, the receiver replaces
+     * the one of the stopped route instead. May be called on any thread.
+     * @param captureProfile resolution and density of the captured screen
+     * @param transport how to reach the receiver, e.g. a {@link LoopbackCastTransport} to cast
+     *                  without a Cast device
+     */
+    public static void start(Context context,
+                             String appId,
+                             DisplayMetrics metrics,
+                             CaptureProfile captureProfile,
+                             CastTransport transport,
+                             MediaRouter router,
+                             Notification notification) {
+        final StartRequest request = new StartRequest(context, appId, metrics, captureProfile, transport,
+                router, notification);
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    start(request);
+                }
+            });
             return;
         }
+        start(request);
+    }
 
+    /**
+     * start casting, coalesced with the start or stop in progress; called on the main thread
+     */
+    private static void start(StartRequest request) {
+        switch (sState.get()) {
+            case BINDING:
+                Log.i(TAG, "Service is still binding; it will start the latest request");
+                sPendingStart = request;
+                return;
+            case CONNECTING:
+            case PRESENTING:
+                Log.i(TAG, "CastScreenService already running; mirroring to the new receiver as well");
+                addReceiver(request.transport);
+                return;
+            case STOPPING:
+                CastScreenService service = sState.getService();
+                if (service == null) {
+                    // stopped while binding; the bound service starts this request instead
+                    sPendingStart = request;
+                    sState.moveTo(CastSessionState.State.STOPPING, CastSessionState.State.BINDING);
+                } else {
+                    // the route was unselected for another one
+                    sMainHandler.removeCallbacks(sTeardownRunnable);
+                    service.switchRouteSession(request);
+                }
+                return;
+            default:
+                break;
+        }
+        if (request.testPattern == null && request.extendedContent == null && !ScreenCaptureGrant.isAvailable()) {
+            Log.w(TAG, "Tried to start CastScreenService without screen capture permission; will stop and return");
+            request.router.selectRoute(request.router.getDefaultRoute());
+            return;
+        }
+
+        sPendingStart = request;
+        sState.moveTo(CastSessionState.State.IDLE, CastSessionState.State.BINDING);
+        CastSessionMetrics.begin(CastSessionMetrics.Phase.TIME_TO_FIRST_FRAME);
+        CastSessionMetrics.begin(CastSessionMetrics.Phase.SERVICE_BIND);
+        final Context context = request.context;
         Intent intent = new Intent(context, CastScreenService.class);
         context.startService(intent);
         context.bindService(intent, new ServiceConnection() {
             @Override
             public void onServiceConnected(ComponentName name, IBinder binder) {
+                CastSessionMetrics.end(CastSessionMetrics.Phase.SERVICE_BIND);
                 CastScreenService service = ((CastScreenBinder) binder).get();
-                service.initialize(context, appId, this, metrics, permissionsResultCode,
-                        permissionsData, device, router, notification);
+                service.onBound(context, this);
             }
 
             @Override
@@ -65,25 +212,131 @@ public class CastScreenService extends Service {
     }
 
     /**
-     * connect to the cast device and start showing the notification controller
+     * start the latest request, or stop again if the cast was stopped while binding
      */
-    private void initialize(Context context,
-                            String appId,
-                            ServiceConnection connection,
-                            DisplayMetrics metrics,
-                            int permissionsResultCode,
-                            Intent permissionsData,
-                            CastDevice device,
-                            MediaRouter router,
-                            Notification notification) {
-        mConnectionManager = new ConnectionManager(context, metrics, permissionsResultCode,
-                permissionsData, device, this, router, appId);
-        mConnectionManager.connect();
+    private void onBound(Context context, ServiceConnection connection) {
         mAppContext = context;
         mServiceConnection = connection;
+        StartRequest request = sPendingStart;
+        sPendingStart = null;
+        if (!sState.moveTo(CastSessionState.State.BINDING, CastSessionState.State.CONNECTING)) {
+            Log.i(TAG, "Cast was stopped while binding the service");
+            CastSessionMetrics.failInProgress("stopped");
+            stopSelf();
+            unbind(mAppContext, mServiceConnection);
+            sState.moveTo(CastSessionState.State.STOPPING, CastSessionState.State.IDLE);
+            return;
+        }
+        initialize(request);
+    }
+
+    /**
+     * connect to the cast device and start showing the notification controller
+     */
+    private void initialize(StartRequest request) {
+        MediaRouter router = request.router;
+        mAppId = request.appId;
+        mStartRequest = request;
+        mExtendedContent = request.extendedContent;
+        if (mExtendedContent == null && !startFrameSource(request)) {
+            CastSessionMetrics.failInProgress("screen capture unavailable");
+            stopSelf();
+            unbind(mAppContext, mServiceConnection);
+            sState.moveTo(CastSessionState.State.CONNECTING, CastSessionState.State.IDLE);
+            router.selectRoute(router.getDefaultRoute());
+            return;
+        }
+        sContentClassifier.addListener(mContentModeListener);
+        sState.setService(this);
+        addSession(request.transport, router);
+
+        startForeground(com.google.android.gms.R.id.cast_notification_id, request.notification);
+        CastResourceTracker.open(CastResourceTracker.Kind.SERVICE);
+    }
+
+    /**
+     * create the source of the mirrored frames, and what adjusts it while casting
+     * @return false if the screen could not be captured
+     */
+    private boolean startFrameSource(StartRequest request) {
+        if (request.testPattern != null) {
+            mFrameSource = new TestPatternSource(request.testPattern);
+        } else {
+            try {
+                mProjectionManager = new ProjectionManager(mAppContext, request.metrics, request.captureProfile,
+                        request.router);
+            } catch (IllegalStateException e) {
+                // The stored permission turned out to be stale; the next cast will ask the user again
+                Log.w(TAG, "Could not start screen capture", e);
+                ScreenCaptureGrant.invalidate();
+                return false;
+            }
+            mFrameSource = mProjectionManager;
+        }
+        if (sContentClassifier.isEnabled()) mFrameSource.getFrameRelay().setContentClassifier(sContentClassifier);
+        if (sThermalGovernorEnabled && mProjectionManager != null) {
+            mThermalGovernor = new ThermalGovernor(mProjectionManager, new DeviceThermalSource(mAppContext),
+                    sThermalListener);
+            CastScreenThreads.getSessionHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    mThermalGovernor.start();
+                }
+            });
+        }
+        if (sAutoSuspendEnabled) {
+            mCaptureSuspender = new CaptureSuspender(mAppContext, mFrameSource);
+            CastScreenThreads.getSessionHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    mCaptureSuspender.start();
+                }
+            });
+        }
+        return true;
+    }
 
-        startForeground(com.google.android.gms.R.id.cast_notification_id, notification);
-        sCastScreenService = this;
+    /**
+     * release the source of the mirrored frames and what adjusts it on the session thread, after
+     * the presentations showing it were dismissed there
+     */
+    private void stopFrameSource() {
+        final FrameSource source = mFrameSource;
+        final ThermalGovernor governor = mThermalGovernor;
+        final CaptureSuspender suspender = mCaptureSuspender;
+        mFrameSource = null;
+        mProjectionManager = null;
+        mThermalGovernor = null;
+        mCaptureSuspender = null;
+        CastScreenThreads.getSessionHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (governor != null) governor.stop();
+                if (suspender != null) suspender.stop();
+                CastSessionMetrics.begin(CastSessionMetrics.Phase.RELEASE_PROJECTION);
+                source.release();
+                CastSessionMetrics.end(CastSessionMetrics.Phase.RELEASE_PROJECTION);
+            }
+        });
+    }
+
+    /**
+     * cast to the receiver of {@param request} instead of the one of the selected route, keeping
+     * the capture and any additional receivers
+     */
+    private void switchRouteSession(StartRequest request) {
+        Log.i(TAG, "Switching receivers; the capture keeps running");
+        // once disconnected, the previous session no longer changes the state
+        mSessions.remove(0).disconnect();
+        CastSessionState.State state = sState.get();
+        if (state != CastSessionState.State.CONNECTING) sState.moveTo(state, CastSessionState.State.CONNECTING);
+
+        ConnectionManager session = new ConnectionManager(mAppContext, mFrameSource, mExtendedContent,
+                request.transport, this, request.router, request.appId);
+        mSessions.add(0, session);
+        session.connect();
+        // name the new receiver in the notification
+        startForeground(com.google.android.gms.R.id.cast_notification_id, request.notification);
     }
 
     /**
@@ -114,14 +367,278 @@ public class CastScreenService extends Service {
     }
 
     /**
-     * called by MediaRouter.Callback.onRouteUnselected to stop the service if it is running
+     * called by MediaRouter.Callback.onRouteUnselected to stop the service if it is running. The
+     * cast is torn down once the current main thread message is handled, so a route selected right
+     * after switches receivers instead. May be called on any thread.
      */
     public static void stop() {
-        if (sCastScreenService == null) {
-            Log.i(TAG, "Tried to stop a dead service; ignoring request");
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            sMainHandler.post(sStopRunnable);
+            return;
+        }
+        CastSessionState.State state;
+        do {
+            state = sState.get();
+            if (state == CastSessionState.State.IDLE || state == CastSessionState.State.STOPPING) {
+                Log.i(TAG, "Tried to stop a dead service; ignoring request");
+                return;
+            }
+            // the session thread may have moved between connecting and presenting meanwhile
+        } while (!sState.moveTo(state, CastSessionState.State.STOPPING));
+
+        if (state == CastSessionState.State.BINDING) {
+            // the service stops again once bound
+            sPendingStart = null;
         } else {
-            sCastScreenService.stopInstance();
+            sMainHandler.post(sTeardownRunnable);
+        }
+    }
+
+    private static final Runnable sStopRunnable = new Runnable() {
+        @Override
+        public void run() {
+            stop();
+        }
+    };
+
+    private static final Runnable sTeardownRunnable = new Runnable() {
+        @Override
+        public void run() {
+            CastScreenService service = sState.getService();
+            if (sState.get() != CastSessionState.State.STOPPING || service == null) return;
+            service.stopInstance();
+            sState.moveTo(CastSessionState.State.STOPPING, CastSessionState.State.IDLE);
+        }
+    };
+
+    /**
+     * @return the lifecycle of the cast, e.g. to be notified of its transitions
+     */
+    public static CastSessionState getSessionState() {
+        return sState;
+    }
+
+    /**
+     * @return the service while a cast is connecting or presenting, or null
+     */
+    private static CastScreenService getRunningService() {
+        CastSessionState.State state = sState.get();
+        if (state != CastSessionState.State.CONNECTING && state != CastSessionState.State.PRESENTING) return null;
+        return sState.getService();
+    }
+
+    /**
+     * @return the {@link FrameRelay} of the active cast, e.g. to lower its target frame rate when
+     * the link is congested, or null when not mirroring
+     */
+    public static FrameRelay getFrameRelay() {
+        CastScreenService service = getRunningService();
+        FrameSource source = service == null ? null : service.mFrameSource;
+        return source == null ? null : source.getFrameRelay();
+    }
+
+    /**
+     * show only part of the user's screen on the receivers of the running cast, scaled up to fill
+     * them; the next cast shows the whole screen again. See {@link ViewRegionTracker} to follow a
+     * view's bounds.
+     * @param region in screen pixels from the top left, or null to show the whole screen
+     * @return false if no cast is running, or it shows a test pattern
+     */
+    public static boolean setRegionOfInterest(Rect region) {
+        CastScreenService service = getRunningService();
+        if (service == null || service.mProjectionManager == null) return false;
+        service.mProjectionManager.setRegionOfInterest(region);
+        return true;
+    }
+
+    /**
+     * @return the screen capture of the running cast, or null if no cast is running or it shows a
+     * test pattern or extended content; for benchmarks
+     */
+    static ProjectionManager getProjectionManager() {
+        CastScreenService service = getRunningService();
+        return service == null ? null : service.mProjectionManager;
+    }
+
+    /**
+     * mirror the running cast to another receiver as well, sharing its screen capture. The
+     * receiver is not bound to a MediaRouter route: if its session fails, only it stops. Must be
+     * called on the main thread.
+     * @param transport how to reach the additional receiver
+     * @return false if no cast is running
+     */
+    public static boolean addReceiver(CastTransport transport) {
+        CastScreenService service = getRunningService();
+        if (service == null) {
+            Log.w(TAG, "Tried to add a receiver without a running cast; ignoring request");
+            return false;
+        }
+        service.addSession(transport, null);
+        return true;
+    }
+
+    /**
+     * stop mirroring to a receiver added with {@link #addReceiver(CastTransport)}; the other
+     * receivers keep casting. Must be called on the main thread.
+     */
+    public static void removeReceiver(CastTransport transport) {
+        CastScreenService service = getRunningService();
+        if (service == null) return;
+        for (int i = 1; i < service.mSessions.size(); i++) {
+            if (service.mSessions.get(i).getTransport() == transport) {
+                service.removeSession(service.mSessions.get(i));
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of receivers currently being cast to, including any still connecting
+     */
+    public static int getReceiverCount() {
+        CastScreenService service = getRunningService();
+        return service == null ? 0 : service.mSessions.size();
+    }
+
+    private void addSession(CastTransport transport, MediaRouter router) {
+        ConnectionManager session = new ConnectionManager(mAppContext, mFrameSource, mExtendedContent, transport,
+                this, router, mAppId);
+        mSessions.add(session);
+        session.connect();
+    }
+
+    /**
+     * stop the session of an additional receiver; stopping the session of the selected route
+     * stops the whole cast
+     */
+    void removeSession(ConnectionManager session) {
+        int index = mSessions.indexOf(session);
+        if (index < 0) return;
+        if (index == 0) {
+            stop();
+            return;
+        }
+        mSessions.remove(index);
+        session.disconnect();
+    }
+
+    /**
+     * @param enabled whether a cast whose connection is lost should be restarted in the background,
+     *                keeping the screen capture running, instead of being stopped right away
+     */
+    public static void setRecoveryEnabled(boolean enabled) {
+        sRecoveryEnabled = enabled;
+    }
+
+    public static boolean isRecoveryEnabled() {
+        return sRecoveryEnabled;
+    }
+
+    /**
+     * @param enabled whether to lower the capture resolution and frame rate of casts started from
+     *                now on while the device runs hot or its battery is low; see {@link ThermalGovernor}
+     */
+    public static void setThermalGovernorEnabled(boolean enabled) {
+        sThermalGovernorEnabled = enabled;
+    }
+
+    public static boolean isThermalGovernorEnabled() {
+        return sThermalGovernorEnabled;
+    }
+
+    /**
+     * @param enabled whether casts started from now on stop capturing while the sender's screen is
+     *                off or locked; see {@link CaptureSuspender}
+     */
+    public static void setAutoSuspendEnabled(boolean enabled) {
+        sAutoSuspendEnabled = enabled;
+    }
+
+    public static boolean isAutoSuspendEnabled() {
+        return sAutoSuspendEnabled;
+    }
+
+    /**
+     * @return the time the running cast spent suspended and what that saved, or null when not
+     * casting or suspending is disabled
+     */
+    public static CaptureSuspender.Snapshot getSuspendStats() {
+        CastScreenService service = getRunningService();
+        CaptureSuspender suspender = service == null ? null : service.mCaptureSuspender;
+        return suspender == null ? null : suspender.getSnapshot();
+    }
+
+    /**
+     * @param listener notified of every step of the {@link ThermalGovernor} of casts started from
+     *                 now on, e.g. for telemetry, or null
+     */
+    public static void setThermalGovernorListener(ThermalGovernor.Listener listener) {
+        sThermalListener = listener;
+    }
+
+    /**
+     * @param listener notified of the link estimates of every receiver whose remote display starts
+     *                 from now on, e.g. to adapt the stream to the link, or null
+     */
+    public static void setLinkMonitorListener(LinkMonitor.Listener listener) {
+        sLinkMonitorListener = listener;
+    }
+
+    static LinkMonitor.Listener getLinkMonitorListener() {
+        return sLinkMonitorListener;
+    }
+
+    /**
+     * @param config a generated pattern for casts started from now on to show instead of the
+     *               user's screen, e.g. for repeatable benchmarks, or null to capture the screen.
+     *               Casting a pattern needs no screen capture permission.
+     */
+    public static void setTestPattern(TestPatternSource.Config config) {
+        sTestPattern = config;
+    }
+
+    public static TestPatternSource.Config getTestPattern() {
+        return sTestPattern;
+    }
+
+    /**
+     * show {@param content} on the receivers instead of mirroring the user's screen, drawn natively
+     * at each receiver's resolution and density without capturing the screen at all, or mirror
+     * again if null. Applies to the running cast, whose sessions are kept and only get a new
+     * presentation, and to casts started from now on. Must be called on the main thread.
+     * @return false if the running cast could not switch back to mirroring because there is no
+     * screen capture permission; it then keeps showing the content
+     */
+    public static boolean setExtendedContent(ExtendedContent content) {
+        CastScreenService service = getRunningService();
+        if (service != null && !service.setContent(content)) return false;
+        sExtendedContent = content;
+        return true;
+    }
+
+    public static ExtendedContent getExtendedContent() {
+        return sExtendedContent;
+    }
+
+    private boolean setContent(ExtendedContent content) {
+        if (content == null && mExtendedContent == null) return true;
+        if (content == null && mFrameSource == null && !startFrameSource(mStartRequest)) return false;
+        Log.i(TAG, content == null ? "Switching to mirroring" : "Switching to extended display");
+        mExtendedContent = content;
+        for (int i = 0; i < mSessions.size(); i++) {
+            mSessions.get(i).setContent(mFrameSource, content);
         }
+        // no presentation shows the capture anymore
+        if (content != null && mFrameSource != null) stopFrameSource();
+        return true;
+    }
+
+    /**
+     * @return the classifier choosing the remote display preset of each session from the content
+     * being cast, e.g. to pin a mode or be notified of switches; it is kept across casts
+     */
+    public static ContentClassifier getContentClassifier() {
+        return sContentClassifier;
     }
 
     /**
@@ -131,8 +648,13 @@ public class CastScreenService extends Service {
         stopForeground(true); // remove notification
         stopSelf();
         unbind(mAppContext, mServiceConnection);
-        mConnectionManager.disconnect();
-        sCastScreenService = null;
+        sContentClassifier.removeListener(mContentModeListener);
+        for (int i = mSessions.size() - 1; i >= 0; i--) {
+            mSessions.get(i).disconnect();
+        }
+        mSessions.clear();
+        if (mFrameSource != null) stopFrameSource();
+        CastResourceTracker.close(CastResourceTracker.Kind.SERVICE, this);
     }
 
     private static void unbind(Context context, ServiceConnection connection) {
@@ -154,4 +676,35 @@ public class CastScreenService extends Service {
         }
     }
 
+    /**
+     * the arguments of {@link #start}, kept until the service is bound
+     */
+    private static class StartRequest {
+        final Context context;
+        final String appId;
+        final DisplayMetrics metrics;
+        final CaptureProfile captureProfile;
+        final CastTransport transport;
+        final MediaRouter router;
+        final Notification notification;
+        final TestPatternSource.Config testPattern = sTestPattern;
+        final ExtendedContent extendedContent = sExtendedContent;
+
+        StartRequest(Context context,
+                     String appId,
+                     DisplayMetrics metrics,
+                     CaptureProfile captureProfile,
+                     CastTransport transport,
+                     MediaRouter router,
+                     Notification notification) {
+            this.context = context;
+            this.appId = appId;
+            this.metrics = metrics;
+            this.captureProfile = captureProfile;
+            this.transport = transport;
+            this.router = router;
+            this.notification = notification;
+        }
+    }
+
 }
@@ -0,0 +1,105 @@
+package github.ankyl.castscreen;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * CastScreenThreads owns the threads the casting pipeline runs on, so jank on the host app's main
+ * thread does not stall capture reconfiguration or session control:
+ * <ul>
+ * <li>projection: {@link android.media.projection.MediaProjection} callbacks</li>
+ * <li>display: {@link android.hardware.display.VirtualDisplay} callbacks</li>
+ * <li>session: Cast API callbacks, the presentation and its surface, and capture reconfiguration</li>
+ * </ul>
+ * Frames themselves are drawn on the {@link FrameRelay}'s thread. Only {@link
+ * android.support.v7.media.MediaRouter} calls are left to the main thread. The threads are started
+ * on first use and kept for the lifetime of the process.
+ */
+class CastScreenThreads {
+    private static final String TAG = "CastScreenThreads";
+
+    private static Handler sProjectionHandler;
+    private static Handler sDisplayHandler;
+    private static Handler sSessionHandler;
+
+    private CastScreenThreads() {
+    }
+
+    static synchronized Handler getProjectionHandler() {
+        if (sProjectionHandler == null) {
+            sProjectionHandler = start("CastScreenProjection", Process.THREAD_PRIORITY_FOREGROUND);
+        }
+        return sProjectionHandler;
+    }
+
+    static synchronized Handler getDisplayHandler() {
+        if (sDisplayHandler == null) {
+            sDisplayHandler = start("CastScreenDisplay", Process.THREAD_PRIORITY_DISPLAY);
+        }
+        return sDisplayHandler;
+    }
+
+    static synchronized Handler getSessionHandler() {
+        if (sSessionHandler == null) {
+            // above the host app's background work, below the frame path
+            sSessionHandler = start("CastScreenSession", Process.THREAD_PRIORITY_FOREGROUND);
+        }
+        return sSessionHandler;
+    }
+
+    /**
+     * run the work of the session thread on {@param handler} instead, e.g. on the main thread in
+     * tests that control its clock; null starts the session thread again on next use
+     */
+    static synchronized void setSessionHandler(Handler handler) {
+        sSessionHandler = handler;
+    }
+
+    private static Handler start(String name, int priority) {
+        HandlerThread thread = new HandlerThread(name, priority);
+        thread.start();
+        return new Handler(thread.getLooper());
+    }
+
+    /**
+     * run {@param runnable} on the thread of {@param handler} and wait for it to finish
+     */
+    static void runAndWait(Handler handler, final Runnable runnable) {
+        if (Looper.myLooper() == handler.getLooper()) {
+            runnable.run();
+            return;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final RuntimeException[] error = new RuntimeException[1];
+        boolean posted = handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (RuntimeException e) {
+                    error[0] = e;
+                } finally {
+                    latch.countDown();
+                }
+            }
+        });
+        if (!posted) {
+            Log.w(TAG, "Thread " + handler.getLooper().getThread().getName() + " already stopped");
+            return;
+        }
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (error[0] != null) throw error[0];
+    }
+
+}
@@ -0,0 +1,181 @@
+package github.ankyl.castscreen;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * CastSessionMetrics times the phases of starting and stopping a cast, and reports a
+ * {@link Record} for each to the registered {@link Listener}s. Phases are also emitted as async
+ * {@link Trace} sections, so they show up in systrace and Perfetto.
+ */
+public class CastSessionMetrics {
+    private static final String TAG = "CastSessionMetrics";
+    // Trace.TRACE_TAG_APP, hidden before API 29
+    private static final long TRACE_TAG_APP = 1L << 12;
+
+    /**
+     * a step of starting or stopping a cast
+     */
+    public enum Phase {
+        /** binding to {@link CastScreenService} */
+        SERVICE_BIND,
+        /** connecting the GoogleApiClient, skipped when a pooled client is already connected */
+        API_CLIENT_CONNECT,
+        /** starting the remote display session on the receiver */
+        START_REMOTE_DISPLAY,
+        /** creating and showing the {@link CastScreenPresentation} */
+        PRESENTATION_CREATE,
+        /** waiting for the presentation surface to be sized */
+        FIRST_SURFACE_CHANGED,
+        /** creating the virtual display capturing the screen */
+        CREATE_VIRTUAL_DISPLAY,
+        /** from the start of the cast until its first frame is drawn onto the presentation */
+        TIME_TO_FIRST_FRAME,
+        /** stopping the remote display session */
+        STOP_REMOTE_DISPLAY,
+        /** dismissing the presentation */
+        DISMISS_PRESENTATION,
+        /** releasing the virtual display and the frame relay */
+        RELEASE_PROJECTION,
+        /** from losing an established session until its remote display is restarted */
+        RECOVERY
+    }
+
+    /**
+     * the outcome of a phase; times are in {@link SystemClock#elapsedRealtimeNanos()} base
+     */
+    public static class Record {
+        public final Phase phase;
+        public final long startNanos;
+        public final long durationNanos;
+        /** null if the phase succeeded */
+        public final String failureReason;
+
+        Record(Phase phase, long startNanos, long durationNanos, String failureReason) {
+            this.phase = phase;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.failureReason = failureReason;
+        }
+
+        public boolean isSuccess() {
+            return failureReason == null;
+        }
+
+        @Override
+        public String toString() {
+            return phase + (isSuccess() ? " took " : " failed (" + failureReason + ") after ")
+                    + durationNanos / 1000000f + "ms";
+        }
+    }
+
+    public interface Listener {
+        /**
+         * called on the thread that finished the phase
+         */
+        void onPhaseFinished(Record record);
+    }
+
+    private static final CopyOnWriteArrayList<Listener> sListeners = new CopyOnWriteArrayList<>();
+    private static final EnumMap<Phase, Long> sStartTimes = new EnumMap<>(Phase.class);
+    private static Method sBeginAsyncSection;
+    private static Method sEndAsyncSection;
+
+    static {
+        try {
+            if (Build.VERSION.SDK_INT >= 29) {
+                sBeginAsyncSection = Trace.class.getMethod("beginAsyncSection", String.class, int.class);
+                sEndAsyncSection = Trace.class.getMethod("endAsyncSection", String.class, int.class);
+            } else {
+                sBeginAsyncSection = Trace.class.getMethod("asyncTraceBegin", long.class, String.class, int.class);
+                sEndAsyncSection = Trace.class.getMethod("asyncTraceEnd", long.class, String.class, int.class);
+            }
+        } catch (NoSuchMethodException e) {
+            Log.i(TAG, "Async trace sections unavailable; phases will only be reported to listeners");
+        }
+    }
+
+    private CastSessionMetrics() {
+    }
+
+    public static void addListener(Listener listener) {
+        sListeners.addIfAbsent(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * mark the start of {@param phase}, restarting it if it was already in progress
+     */
+    static void begin(Phase phase) {
+        synchronized (sStartTimes) {
+            sStartTimes.put(phase, SystemClock.elapsedRealtimeNanos());
+        }
+        trace(sBeginAsyncSection, phase);
+    }
+
+    /**
+     * mark the successful end of {@param phase}; ignored if it is not in progress
+     */
+    static void end(Phase phase) {
+        finish(phase, null);
+    }
+
+    /**
+     * mark the failed end of {@param phase}; ignored if it is not in progress
+     */
+    static void fail(Phase phase, String reason) {
+        finish(phase, reason);
+    }
+
+    /**
+     * fail every phase in progress, e.g. when the cast is stopped because of an error
+     */
+    static void failInProgress(String reason) {
+        Phase[] inProgress;
+        synchronized (sStartTimes) {
+            inProgress = sStartTimes.keySet().toArray(new Phase[sStartTimes.size()]);
+        }
+        for (Phase phase : inProgress) {
+            finish(phase, reason);
+        }
+    }
+
+    private static void finish(Phase phase, String failureReason) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        Long start;
+        synchronized (sStartTimes) {
+            start = sStartTimes.remove(phase);
+        }
+        if (start == null) return;
+
+        trace(sEndAsyncSection, phase);
+        Record record = new Record(phase, start, now - start, failureReason);
+        Log.d(TAG, record.toString());
+        for (Listener listener : sListeners) {
+            listener.onPhaseFinished(record);
+        }
+    }
+
+    private static void trace(Method method, Phase phase) {
+        if (method == null) return;
+        try {
+            if (Build.VERSION.SDK_INT >= 29) {
+                method.invoke(null, phase.name(), phase.ordinal());
+            } else {
+                method.invoke(null, TRACE_TAG_APP, phase.name(), phase.ordinal());
+            }
+        } catch (ReflectiveOperationException e) {
+            Log.w(TAG, "Could not emit trace section for " + phase, e);
+        }
+    }
+
+}
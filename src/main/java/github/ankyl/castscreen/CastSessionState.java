@@ -0,0 +1,120 @@
+package github.ankyl.castscreen;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * CastSessionState is the lifecycle of the cast run by {@link CastScreenService}, as a state
+ * machine whose transitions are atomic: a transition only happens if the state is still the one
+ * it was decided from, so late callbacks of a session that is already stopping cannot move it
+ * back. Along with the state, it holds the running service once it is bound. Listeners are called
+ * on the main thread, in the order of the transitions.
+ */
+public class CastSessionState {
+    private static final String TAG = "CastSessionState";
+
+    public enum State {
+        /** no cast */
+        IDLE,
+        /** waiting for the service to be bound */
+        BINDING,
+        /** connecting to the receiver of the selected route, or recovering its session */
+        CONNECTING,
+        /** the receiver of the selected route shows the capture */
+        PRESENTING,
+        /** stop requested; a start arriving meanwhile switches the receiver instead */
+        STOPPING
+    }
+
+    /**
+     * notified of every transition
+     */
+    public interface Listener {
+        void onStateChanged(State from, State to);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+    private State mState = State.IDLE;
+    private CastScreenService mService;
+
+    public synchronized State get() {
+        return mState;
+    }
+
+    /**
+     * @return whether a cast is starting, running or stopping
+     */
+    public synchronized boolean isActive() {
+        return mState != State.IDLE;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * move from {@param from} to {@param to}, if the state is still {@param from}
+     * @return false if the state changed in the meantime
+     * @throws IllegalStateException if the machine has no such transition
+     */
+    boolean moveTo(final State from, final State to) {
+        if (!isAllowed(from, to)) throw new IllegalStateException("No transition from " + from + " to " + to);
+        synchronized (this) {
+            if (mState != from) return false;
+            mState = to;
+            if (to == State.IDLE) mService = null;
+            // posted while holding the lock, so listeners see the transitions in order
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Listener listener : mListeners) {
+                        listener.onStateChanged(from, to);
+                    }
+                }
+            });
+        }
+        Log.d(TAG, from + " -> " + to);
+        return true;
+    }
+
+    /**
+     * @return the bound service, or null before it is bound and once the cast has stopped
+     */
+    synchronized CastScreenService getService() {
+        return mService;
+    }
+
+    synchronized void setService(CastScreenService service) {
+        mService = service;
+    }
+
+    private static boolean isAllowed(State from, State to) {
+        switch (from) {
+            case IDLE:
+                return to == State.BINDING;
+            case BINDING:
+                // stopping before the service is bound cancels the cast once it is
+                return to == State.CONNECTING || to == State.STOPPING;
+            case CONNECTING:
+                // idle right away if the capture could not be started
+                return to == State.PRESENTING || to == State.STOPPING || to == State.IDLE;
+            case PRESENTING:
+                // back to connecting while recovering or switching receivers
+                return to == State.CONNECTING || to == State.STOPPING;
+            case STOPPING:
+                // a start coalesced with the stop switches the receiver, or rebinds the service
+                return to == State.IDLE || to == State.CONNECTING || to == State.BINDING;
+            default:
+                return false;
+        }
+    }
+
+}
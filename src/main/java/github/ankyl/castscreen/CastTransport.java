@@ -0,0 +1,74 @@
+package github.ankyl.castscreen;
+
+import android.view.Display;
+
+/**
+ * CastTransport is how {@link ConnectionManager} reaches a receiver: it connects, starts and stops
+ * a remote display session, and provides the {@link Display} the presentation is shown on.
+ * {@link PlayServicesCastTransport} casts to a Cast device; {@link LoopbackCastTransport} keeps
+ * everything in-process, for testing and benchmarking without a device. All callbacks are
+ * delivered on the session thread of {@link CastScreenThreads}.
+ */
+public interface CastTransport {
+
+    /**
+     * lifecycle events of the connection
+     */
+    interface Listener {
+        void onConnected();
+
+        /**
+         * the connection, the receiver application or the remote display was lost; connecting
+         * again may recover the session
+         */
+        void onConnectionLost(String reason);
+
+        /**
+         * another application took over the receiver, so the session should not be recovered
+         */
+        void onReceiverTakenOver();
+    }
+
+    /**
+     * the outcome of starting or stopping the remote display
+     */
+    interface ResultCallback<T> {
+        void onSuccess(T result);
+
+        void onFailure(String reason);
+    }
+
+    /**
+     * start connecting to the receiver; {@param listener} receives the connection's events until
+     * {@link #disconnect()}
+     */
+    void connect(Listener listener);
+
+    boolean isConnected();
+
+    /**
+     * @param mode the kind of content to configure the remote display for, from the next
+     *             {@link #connect(Listener)} on
+     * @return true if the transport must reconnect for a running session to use the new mode
+     */
+    boolean setContentMode(ContentClassifier.Mode mode);
+
+    /**
+     * start a remote display session on the connected receiver
+     * @param callback receives the display to show the presentation on
+     */
+    void startRemoteDisplay(ResultCallback<Display> callback);
+
+    void stopRemoteDisplay(ResultCallback<Void> callback);
+
+    /**
+     * @return the channel to exchange messages with the receiver application on
+     * {@link LinkMonitor#NAMESPACE}, or null if the transport has none
+     */
+    MessageChannel getMessageChannel();
+
+    /**
+     * stop delivering events and release the connection
+     */
+    void disconnect();
+}
@@ -0,0 +1,66 @@
+package github.ankyl.castscreen;
+
+import android.opengl.GLES20;
+
+/**
+ * Converts the frame's colors with a 4x4 matrix and an offset, e.g. to grayscale
+ */
+public class ColorMatrixFrameProcessor extends ShaderFrameProcessor {
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform sampler2D sTexture;\n" +
+            "uniform mat4 uColorMatrix;\n" +
+            "uniform vec4 uColorOffset;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = clamp(uColorMatrix * texture2D(sTexture, vTextureCoord) + uColorOffset, 0.0, 1.0);\n" +
+            "}\n";
+    private static final float[] GRAYSCALE = {
+            0.299f, 0.299f, 0.299f, 0f,
+            0.587f, 0.587f, 0.587f, 0f,
+            0.114f, 0.114f, 0.114f, 0f,
+            0f, 0f, 0f, 1f
+    };
+
+    private volatile float[] mMatrix;
+    private volatile float[] mOffset;
+    private int mMatrixLocation;
+    private int mOffsetLocation;
+
+    /**
+     * @param matrix column-major 4x4 matrix applied to RGBA
+     * @param offset RGBA added after the matrix
+     */
+    public ColorMatrixFrameProcessor(float[] matrix, float[] offset) {
+        super(FRAGMENT_SHADER);
+        setColorMatrix(matrix, offset);
+    }
+
+    /**
+     * @return a processor converting the frame to grayscale using Rec. 601 luma weights
+     */
+    public static ColorMatrixFrameProcessor grayscale() {
+        return new ColorMatrixFrameProcessor(GRAYSCALE, new float[4]);
+    }
+
+    public void setColorMatrix(float[] matrix, float[] offset) {
+        if (matrix.length != 16 || offset.length != 4) {
+            throw new IllegalArgumentException("Color matrix must have 16 values and offset 4");
+        }
+        mOffset = offset.clone();
+        mMatrix = matrix.clone();
+    }
+
+    @Override
+    protected void onProgramCreated(int program) {
+        mMatrixLocation = GLES20.glGetUniformLocation(program, "uColorMatrix");
+        mOffsetLocation = GLES20.glGetUniformLocation(program, "uColorOffset");
+    }
+
+    @Override
+    protected void onSetUniforms(float[] texMatrix) {
+        GLES20.glUniformMatrix4fv(mMatrixLocation, 1, false, mMatrix, 0);
+        GLES20.glUniform4fv(mOffsetLocation, 1, mOffset, 0);
+    }
+
+}
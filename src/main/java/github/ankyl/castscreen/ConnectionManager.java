@@ -2,40 +2,42 @@ package github.ankyl.castscreen;
 
 import android.app.Presentation;
 import android.content.Context;
-import android.content.Intent;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.os.SystemClock;
 import android.support.v7.media.MediaRouteSelector;
 import android.support.v7.media.MediaRouter;
-import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.Display;
 
-import com.google.android.gms.cast.ApplicationMetadata;
-import com.google.android.gms.cast.Cast;
-import com.google.android.gms.cast.CastDevice;
 import com.google.android.gms.cast.CastMediaControlIntent;
-import com.google.android.gms.cast.CastRemoteDisplay;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
-import com.google.android.gms.common.api.ResultCallbacks;
-import com.google.android.gms.common.api.Status;
 
 /**
- * ConnectionManager performs all the heavy lifting: connecting to the {@link GoogleApiClient},
- * starting the {@link ProjectionManager}, initiating the {@link CastRemoteDisplay} session, and
- * creating the {@link CastScreenPresentation}
+ * ConnectionManager performs all the heavy lifting for one receiver: connecting to it through a
+ * {@link CastTransport}, initiating the remote display session, and creating the
+ * {@link CastScreenPresentation} that shows the shared {@link FrameSource}, or, in extended-display
+ * mode, the {@link ExtendedPresentation} of the host app's views; the two are swapped on the same
+ * remote display without restarting the session. The session of the selected route stops the cast
+ * when it fails; any further receivers only remove their own session. If an established session is
+ * interrupted, the capture is kept running while the transport reconnects and the remote display is
+ * restarted with exponential backoff; the existing capture is then shown on the new presentation
+ * display. The session is configured for the {@link ContentClassifier}'s mode, and restarted the
+ * same way when the mode changes. While the remote display runs, a {@link LinkMonitor} probes the
+ * link over the transport's {@link MessageChannel}, if it has one. Transport callbacks, the
+ * presentation and recovery all run on the session thread of {@link CastScreenThreads}.
  */
 public class ConnectionManager {
     private static final String TAG = "ConnectionManager";
+    private static final int MAX_RECOVERY_ATTEMPTS = 5;
+    private static final long INITIAL_RECOVERY_DELAY_MS = 500;
+    private static final long MAX_RECOVERY_DELAY_MS = 8000;
 
-    private ProjectionManager mProjectionManager;
+    private FrameSource mFrameSource;
+    private ExtendedContent mExtendedContent;
     private Presentation mPresentation;
-    private GoogleApiClient mApiClient;
+    private CastTransport mTransport;
+    private volatile LinkMonitor mLinkMonitor;
+    private long mConnectStartMillis;
     private boolean mPresentationShowing = false;
     private CastScreenService mService;
     private MediaRouter mRouter;
@@ -43,172 +45,414 @@ public class ConnectionManager {
     private Context mAppContext;
     private String mAppId;
     private Handler mMainHandler;
+    private Handler mSessionHandler;
+    // whether a presentation has been shown, so a lost connection is worth recovering
+    private boolean mSessionEstablished;
+    private int mRecoveryAttempts;
+    private long mRecoveryStartMillis;
+    private boolean mDisconnected;
+    // whether the session is being restarted for a new content mode
+    private boolean mRestarting;
 
+    private final Runnable mReconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mDisconnected) return;
+            Log.i(TAG, "Recovery attempt " + mRecoveryAttempts);
+            if (mTransport.isConnected()) {
+                startRemoteDisplay();
+            } else {
+                mTransport.disconnect();
+                mTransport.connect(mTransportListener);
+            }
+        }
+    };
+
+    /**
+     * @param frameSource the frames to show, shared with the other sessions and released by the
+     *                    service, or null in extended-display mode
+     * @param extendedContent the views to show instead of mirroring, or null
+     * @param router the router of the selected route, or null for an additional receiver that is
+     *               not bound to a route
+     */
     public ConnectionManager(Context context,
-                              DisplayMetrics metrics,
-                              int permissionsResultCode,
-                              Intent permissionsData,
-                              CastDevice device,
+                              FrameSource frameSource,
+                              ExtendedContent extendedContent,
+                              CastTransport transport,
                               CastScreenService service,
                               MediaRouter router,
                               String appId) {
-        mProjectionManager = new ProjectionManager(context, metrics, permissionsResultCode, permissionsData, router);
+        mFrameSource = frameSource;
+        mExtendedContent = extendedContent;
         mRouter = router;
         mStopCallback = new StopCallback();
 
         mService = service;
         mMainHandler = new Handler(service.getMainLooper());
+        mSessionHandler = CastScreenThreads.getSessionHandler();
         mAppContext = context;
         mAppId = appId;
-
-        mApiClient = createApiClient(device);
+        mTransport = transport;
+        CastResourceTracker.open(CastResourceTracker.Kind.CONNECTION_MANAGER);
     }
 
     /**
-     * connect to the GoogleApiClient and start casting
+     * connect to the receiver and start casting
      */
     public void connect() {
-        MediaRouteSelector selector = new MediaRouteSelector.Builder().addControlCategory(
-                CastMediaControlIntent.categoryForCast(mAppId)
-        ).build();
-        // Listen on MediaRouter so we can stop casting when route is unselected
-        mRouter.addCallback(selector, mStopCallback, MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY);
-        mApiClient.connect();
+        if (mRouter != null) {
+            MediaRouteSelector selector = new MediaRouteSelector.Builder().addControlCategory(
+                    CastMediaControlIntent.categoryForCast(mAppId)
+            ).build();
+            // Listen on MediaRouter so we can stop casting when route is unselected; that needs
+            // no discovery, so the session does not keep scanning for routes
+            RouteDiscoveryCoordinator.getInstance(mAppContext).addCallback(selector, mStopCallback, false);
+            CastResourceTracker.open(CastResourceTracker.Kind.ROUTER_CALLBACK);
+        }
+
+        mConnectStartMillis = SystemClock.elapsedRealtime();
+        beginPhase(CastSessionMetrics.Phase.API_CLIENT_CONNECT);
+        mTransport.setContentMode(CastScreenService.getContentClassifier().getMode());
+        mTransport.connect(mTransportListener);
     }
 
     /**
-     * starts remote display when the GoogleApiClient is connected
-     * @return a GoogleApiClient with Cast.API and CastRemoteDisplay.API attached
+     * reconfigure the session for {@param mode}, restarting the remote display if the transport
+     * needs to; the capture keeps running meanwhile
      */
-    private GoogleApiClient createApiClient(CastDevice device) {
-        // Cast API callbacks
-        Cast.CastOptions.Builder castBuilder = new Cast.CastOptions.Builder(device, new Cast.Listener() {
+    public void setContentMode(final ContentClassifier.Mode mode) {
+        mSessionHandler.post(new Runnable() {
             @Override
-            public void onApplicationDisconnected(int statusCode) {
-                Log.i(TAG, "Stop Casting because application disconnected");
-                deselectRoute();
-            }
+            public void run() {
+                if (mDisconnected || !mTransport.setContentMode(mode)) return;
+                // a session that is not showing yet, or recovering, connects with the new mode anyway
+                if (!mPresentationShowing || mRestarting) return;
 
-            @Override
-            public void onApplicationMetadataChanged(ApplicationMetadata metadata) {
-                if (metadata != null && !(metadata.getApplicationId().equals(mAppId)) && mPresentationShowing) {
-                    Log.i(TAG, "Stop Casting because another app started casting");
-                    deselectRoute();
-                }
-            }
-        });
+                Log.i(TAG, "Restarting session for " + mode + " content");
+                mRestarting = true;
+                mRecoveryStartMillis = SystemClock.elapsedRealtime();
+                stopLinkMonitor();
+                dismissPresentation();
+                mTransport.stopRemoteDisplay(new CastTransport.ResultCallback<Void>() {
+                    @Override
+                    public void onSuccess(Void result) {
+                    }
 
-        // Cast Remote Display API callbacks
-        CastRemoteDisplay.CastRemoteDisplayOptions.Builder remoteDisplayBuilder = new
-                CastRemoteDisplay.CastRemoteDisplayOptions.Builder(device, new CastRemoteDisplay.CastRemoteDisplaySessionCallbacks() {
-            @Override
-            public void onRemoteDisplayEnded(Status status) {
-                Log.i(TAG, "Stop Casting because Remote Display session ended");
-                deselectRoute();
+                    @Override
+                    public void onFailure(String reason) {
+                        Log.d(TAG, "Failed stopping remote display before restart: " + reason);
+                    }
+                });
+                mTransport.disconnect();
+                mTransport.connect(mTransportListener);
             }
         });
-        remoteDisplayBuilder.setConfigPreset(CastRemoteDisplay.CONFIGURATION_INTERACTIVE_REALTIME);
+    }
 
-        // Google API callbacks
-        GoogleApiClient.OnConnectionFailedListener apiFailListener = new GoogleApiClient.OnConnectionFailedListener() {
-            @Override
-            public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
-                Log.i(TAG, "Stop Casting because GoogleApiClient connection failed");
-                deselectRoute();
-            }
-        };
-        GoogleApiClient.ConnectionCallbacks apiCallbacks = new GoogleApiClient.ConnectionCallbacks() {
-            @Override
-            public void onConnected(@Nullable Bundle bundle) {
-                Log.i(TAG, "Connected to GoogleApiClient");
-                connectToRemoteDisplayApi();
+    /**
+     * events of the transport: starts remote display once connected, and recovers from or stops
+     * casting on failures
+     */
+    private final CastTransport.Listener mTransportListener = new CastTransport.Listener() {
+        @Override
+        public void onConnected() {
+            if (mRecoveryAttempts == 0 && !mRestarting) {
+                Log.i(TAG, "Connected to receiver after "
+                        + (SystemClock.elapsedRealtime() - mConnectStartMillis) + "ms");
+                endPhase(CastSessionMetrics.Phase.API_CLIENT_CONNECT);
             }
+            startRemoteDisplay();
+        }
 
-            @Override
-            public void onConnectionSuspended(int i) {
-                Log.i(TAG, "Stop Casting because GoogleApiClient connection suspended");
-                deselectRoute();
-            }
-        };
+        @Override
+        public void onConnectionLost(String reason) {
+            recoverOrStop(reason);
+        }
 
-        return new GoogleApiClient.Builder(mAppContext, apiCallbacks, apiFailListener)
-                .addApi(Cast.API, castBuilder.build())
-                .addApi(CastRemoteDisplay.API, remoteDisplayBuilder.build())
-                .build();
-    }
+        @Override
+        public void onReceiverTakenOver() {
+            if (mPresentationShowing) deselectRoute("another app started casting");
+        }
+    };
 
     /**
-     * connect to the remote display, and show the {@link CastScreenPresentation} if successful
+     * start the remote display, and show the {@link CastScreenPresentation} if successful
      */
-    private void connectToRemoteDisplayApi() {
-        PendingResult<CastRemoteDisplay.CastRemoteDisplaySessionResult> result =
-                CastRemoteDisplay.CastRemoteDisplayApi.startRemoteDisplay(mApiClient, mAppId);
-        result.setResultCallback(new ResultCallbacks<CastRemoteDisplay.CastRemoteDisplaySessionResult>() {
+    private void startRemoteDisplay() {
+        if (mRecoveryAttempts == 0 && !mRestarting) {
+            beginPhase(CastSessionMetrics.Phase.START_REMOTE_DISPLAY);
+        }
+        mTransport.startRemoteDisplay(new CastTransport.ResultCallback<Display>() {
             @Override
-            public void onSuccess(@NonNull CastRemoteDisplay.CastRemoteDisplaySessionResult castRemoteDisplaySessionResult) {
-                Display remoteDisplay = castRemoteDisplaySessionResult.getPresentationDisplay();
-                mPresentation = new CastScreenPresentation(mService, remoteDisplay, mProjectionManager);
-                mPresentation.show();
-                mPresentationShowing = true;
-                Log.d(TAG, "Created presentation");
+            public void onSuccess(Display remoteDisplay) {
+                if (mDisconnected) return;
+                startLinkMonitor();
+                if (mRecoveryAttempts > 0) {
+                    // the capture kept running; show it on the new display
+                    showPresentation(remoteDisplay);
+                    Log.i(TAG, "Recovered session after " + mRecoveryAttempts + " attempts, "
+                            + (SystemClock.elapsedRealtime() - mRecoveryStartMillis) + "ms");
+                    endPhase(CastSessionMetrics.Phase.RECOVERY);
+                    mRecoveryAttempts = 0;
+                    return;
+                }
+                if (mRestarting) {
+                    showPresentation(remoteDisplay);
+                    Log.i(TAG, "Restarted session after "
+                            + (SystemClock.elapsedRealtime() - mRecoveryStartMillis) + "ms");
+                    mRestarting = false;
+                    return;
+                }
+
+                endPhase(CastSessionMetrics.Phase.START_REMOTE_DISPLAY);
+                beginPhase(CastSessionMetrics.Phase.PRESENTATION_CREATE);
+                showPresentation(remoteDisplay);
+                mSessionEstablished = true;
+                Log.d(TAG, "Created presentation after "
+                        + (SystemClock.elapsedRealtime() - mConnectStartMillis) + "ms");
             }
 
             @Override
-            public void onFailure(@NonNull Status status) {
-                Log.i(TAG, "Stop Casting because startRemoteDisplay failed");
-                deselectRoute();
+            public void onFailure(String reason) {
+                recoverOrStop(reason);
             }
         });
     }
 
     /**
-     * disconnect and cleanup all resources
+     * disconnect and cleanup all resources but the shared capture. Must be called on the main
+     * thread; the presentation is dismissed on the session thread, before anything the service
+     * releases there afterwards.
      */
     public void disconnect() {
-        if (apiClientConnected()) {
+        if (mRouter != null) {
+            // Stop listening for routes
+            RouteDiscoveryCoordinator.getInstance(mAppContext).removeCallback(mStopCallback);
+            CastResourceTracker.close(CastResourceTracker.Kind.ROUTER_CALLBACK, mStopCallback);
+        }
+
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                release();
+            }
+        });
+    }
+
+    private void release() {
+        mDisconnected = true;
+        mSessionHandler.removeCallbacks(mReconnectRunnable);
+        // A cast stopped before it got going, or while recovering, fails whatever phase it was in
+        failPhasesInProgress("stopped");
+        stopLinkMonitor();
+
+        if (mTransport.isConnected()) {
             // Disconnect from remote display
-            PendingResult<CastRemoteDisplay.CastRemoteDisplaySessionResult> result =
-                    CastRemoteDisplay.CastRemoteDisplayApi.stopRemoteDisplay(mApiClient);
-            result.setResultCallback(new ResultCallbacks<CastRemoteDisplay.CastRemoteDisplaySessionResult>() {
+            beginPhase(CastSessionMetrics.Phase.STOP_REMOTE_DISPLAY);
+            mTransport.stopRemoteDisplay(new CastTransport.ResultCallback<Void>() {
                 @Override
-                public void onSuccess(@NonNull CastRemoteDisplay.CastRemoteDisplaySessionResult castRemoteDisplaySessionResult) {
-                    Log.i(TAG, "Success disconnecting from CastRemoteDisplayApi");
+                public void onSuccess(Void result) {
+                    Log.i(TAG, "Success stopping remote display");
+                    endPhase(CastSessionMetrics.Phase.STOP_REMOTE_DISPLAY);
                 }
 
                 @Override
-                public void onFailure(@NonNull Status status) {
-                    Log.w(TAG, "Failed disconnecting from CastRemoteDisplayApi");
+                public void onFailure(String reason) {
+                    Log.w(TAG, "Failed stopping remote display");
+                    failPhase(CastSessionMetrics.Phase.STOP_REMOTE_DISPLAY, reason);
                 }
             });
+        }
+        mTransport.disconnect();
 
-            // Disconnect from Google API
-            mApiClient.disconnect();
+        // Detach from the capture; the service releases it once every session is gone
+        if (mPresentation != null) {
+            beginPhase(CastSessionMetrics.Phase.DISMISS_PRESENTATION);
+            dismissPresentation();
+            endPhase(CastSessionMetrics.Phase.DISMISS_PRESENTATION);
         }
+        CastResourceTracker.close(CastResourceTracker.Kind.CONNECTION_MANAGER, this);
+    }
+
+    private void showPresentation(Display display) {
+        if (mExtendedContent != null) {
+            mPresentation = new ExtendedPresentation(mService, display, mExtendedContent, mRouter != null);
+        } else {
+            mPresentation = new CastScreenPresentation(mService, display, mFrameSource, mRouter != null);
+        }
+        CastResourceTracker.open(CastResourceTracker.Kind.PRESENTATION);
+        mPresentation.show();
+        mPresentationShowing = true;
+        if (mRouter != null) {
+            // only the session of the selected route drives the state of the cast
+            CastScreenService.getSessionState().moveTo(CastSessionState.State.CONNECTING,
+                    CastSessionState.State.PRESENTING);
+        }
+    }
+
+    private void dismissPresentation() {
+        mPresentation.dismiss();
+        CastResourceTracker.close(CastResourceTracker.Kind.PRESENTATION, mPresentation);
+        mPresentation = null;
+        mPresentationShowing = false;
+    }
+
+    /**
+     * show {@param extendedContent} on the receiver, or mirror {@param frameSource} if it is null,
+     * by replacing the presentation on the same remote display; the session is not restarted. The
+     * presentation is replaced on the session thread, so a source released there afterwards is
+     * no longer shown.
+     */
+    public void setContent(final FrameSource frameSource, final ExtendedContent extendedContent) {
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mFrameSource = frameSource;
+                mExtendedContent = extendedContent;
+                // a session still connecting or recovering shows the new content once it can
+                if (mDisconnected || !mPresentationShowing) return;
+                Display display = mPresentation.getDisplay();
+                dismissPresentation();
+                showPresentation(display);
+            }
+        });
+    }
+
+    /**
+     * @return the transport this session casts through
+     */
+    public CastTransport getTransport() {
+        return mTransport;
+    }
+
+    /**
+     * @return the latest estimate of the link to the receiver, or null while the remote display
+     * is not running or the transport has no message channel
+     */
+    public LinkMonitor.Estimate getLinkEstimate() {
+        LinkMonitor monitor = mLinkMonitor;
+        return monitor == null ? null : monitor.getEstimate();
+    }
 
-        // Stop listening for routes
-        mRouter.removeCallback(mStopCallback);
+    /**
+     * probe the link over a channel opened on the connection the remote display runs on
+     */
+    private void startLinkMonitor() {
+        if (mLinkMonitor != null) return;
+        MessageChannel channel = mTransport.getMessageChannel();
+        if (channel == null) return;
+        mLinkMonitor = new LinkMonitor(mTransport, channel, CastScreenService.getLinkMonitorListener());
+        mLinkMonitor.start();
+    }
 
-        // Clean up MediaProjection resources
-        if (mPresentation != null) mPresentation.dismiss();
-        if (mProjectionManager != null) mProjectionManager.release();
+    private void stopLinkMonitor() {
+        if (mLinkMonitor == null) return;
+        mLinkMonitor.stop();
+        mLinkMonitor = null;
     }
 
-    private boolean apiClientConnected() {
-        return (mApiClient != null && mApiClient.isConnected());
+    /**
+     * keep the capture running and try to restart the session after a delay, or stop casting if
+     * the session was never established, recovery is disabled, or it failed too often
+     */
+    private void recoverOrStop(final String reason) {
+        if (Looper.myLooper() != mSessionHandler.getLooper()) {
+            mSessionHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    recoverOrStop(reason);
+                }
+            });
+            return;
+        }
+        if (mDisconnected) return;
+        mRestarting = false;
+        if (!mSessionEstablished || !CastScreenService.isRecoveryEnabled()) {
+            deselectRoute(reason);
+            return;
+        }
+        if (mRecoveryAttempts >= MAX_RECOVERY_ATTEMPTS) {
+            failPhase(CastSessionMetrics.Phase.RECOVERY, reason);
+            deselectRoute("recovery failed after " + mRecoveryAttempts + " attempts; " + reason);
+            return;
+        }
+
+        if (mRecoveryAttempts == 0) {
+            Log.i(TAG, "Recovering session because " + reason);
+            mRecoveryStartMillis = SystemClock.elapsedRealtime();
+            beginPhase(CastSessionMetrics.Phase.RECOVERY);
+            if (mRouter != null) {
+                CastScreenService.getSessionState().moveTo(CastSessionState.State.PRESENTING,
+                        CastSessionState.State.CONNECTING);
+            }
+        } else {
+            Log.i(TAG, "Recovery attempt " + mRecoveryAttempts + " failed because " + reason);
+        }
+        stopLinkMonitor();
+        if (mPresentation != null) {
+            // the presentation's display is gone; detaching its surface leaves the virtual display
+            // rendering into the frame relay until a new presentation is shown
+            dismissPresentation();
+        }
+
+        long delay = Math.min(INITIAL_RECOVERY_DELAY_MS << mRecoveryAttempts, MAX_RECOVERY_DELAY_MS);
+        mRecoveryAttempts++;
+        mSessionHandler.removeCallbacks(mReconnectRunnable);
+        mSessionHandler.postDelayed(mReconnectRunnable, delay);
     }
 
-    private void deselectRoute() {
+    private void deselectRoute(String reason) {
+        Log.i(TAG, "Stop Casting because " + reason);
+        failPhasesInProgress(reason);
+        if (mRouter == null) {
+            // not bound to a route; only this receiver stops, the others keep casting
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mService.removeSession(ConnectionManager.this);
+                }
+            });
+            return;
+        }
         if (Looper.myLooper() != Looper.getMainLooper()) {
             Log.i(TAG, "Deselecting route asynchronously");
             // because route selection must be done on the main thread
             mMainHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    mRouter.selectRoute(mRouter.getDefaultRoute());
+                    selectDefaultRoute();
                 }
             });
         } else {
             Log.i(TAG, "Deselecting route from main thread");
+            selectDefaultRoute();
+        }
+    }
+
+    // The phases of CastSessionMetrics are those of the cast, so only the session of the selected
+    // route records them; additional receivers would fail or restart the phases of its startup
+
+    private void beginPhase(CastSessionMetrics.Phase phase) {
+        if (mRouter != null) CastSessionMetrics.begin(phase);
+    }
+
+    private void endPhase(CastSessionMetrics.Phase phase) {
+        if (mRouter != null) CastSessionMetrics.end(phase);
+    }
+
+    private void failPhase(CastSessionMetrics.Phase phase, String reason) {
+        if (mRouter != null) CastSessionMetrics.fail(phase, reason);
+    }
+
+    private void failPhasesInProgress(String reason) {
+        if (mRouter != null) CastSessionMetrics.failInProgress(reason);
+    }
+
+    private void selectDefaultRoute() {
+        if (mRouter.getSelectedRoute().isDefault()) {
+            // no route to unselect, e.g. when casting through a loopback transport, so stop directly
+            CastScreenService.stop();
+        } else {
             mRouter.selectRoute(mRouter.getDefaultRoute());
         }
     }
@@ -0,0 +1,187 @@
+package github.ankyl.castscreen;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * ContentClassifier tells whether the screen is mostly interactive UI or full-screen video, from
+ * the frame-difference statistics of the {@link FrameRelay}'s change detection: video changes most
+ * of the frame at a steady rate, while UI changes in bursts and in parts. Each session is started
+ * with the remote display preset for the current mode. Classifying reads back every frame, so it
+ * is off until enabled, and skipped while the app pins a mode. The mode only switches once the
+ * content has looked different for the switch delay; optionally, running sessions are restarted
+ * with the new preset. Listeners are called on the main thread.
+ */
+public class ContentClassifier {
+    private static final String TAG = "ContentClassifier";
+    // frames are classified in windows of this length
+    private static final long WINDOW_NANOS = 1000 * 1000000L;
+    private static final long DEFAULT_SWITCH_DELAY_MS = 10 * 1000;
+    // a window looks like video if at least this many frames per second changed...
+    private static final float MIN_VIDEO_FPS = 15f;
+    // ...changing at least this fraction of the frame on average
+    private static final float MIN_VIDEO_COVERAGE = 0.4f;
+
+    /**
+     * the kind of content being cast, and the remote display preset suited to it
+     */
+    public enum Mode {
+        /** UI that responds to touch; favors latency */
+        INTERACTIVE,
+        /** mostly video playback; favors smoothness over latency */
+        VIDEO
+    }
+
+    /**
+     * notified when the mode changes
+     */
+    public interface Listener {
+        /**
+         * @param pinned whether the app pinned the mode, rather than the content changing
+         */
+        void onModeChanged(Mode mode, boolean pinned);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+    private volatile Mode mMode = Mode.INTERACTIVE;
+    private volatile Mode mPinnedMode;
+    private volatile long mSwitchDelayMs = DEFAULT_SWITCH_DELAY_MS;
+    private volatile boolean mEnabled;
+    private volatile boolean mRenegotiationEnabled;
+
+    // only accessed on the relay thread
+    private long mWindowStartNanos;
+    private int mWindowFrames;
+    private float mWindowCoverage;
+    // start of the first window of the other mode in a row, or 0
+    private long mCandidateSinceNanos;
+
+    /**
+     * @return the pinned mode, or else the mode of the content seen last
+     */
+    public Mode getMode() {
+        return mMode;
+    }
+
+    /**
+     * @param mode always use this mode, or null to follow the content
+     */
+    public void setPinnedMode(Mode mode) {
+        mPinnedMode = mode;
+        if (mode != null && mode != mMode) switchTo(mode, true);
+    }
+
+    public Mode getPinnedMode() {
+        return mPinnedMode;
+    }
+
+    /**
+     * @param enabled whether casts started from now on classify their content to pick the preset;
+     *                this adds a read back of every frame to the relay. Otherwise the mode only
+     *                changes when pinned.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * @return whether frames should be fed to the classifier, i.e. it is enabled and no mode is
+     * pinned
+     */
+    boolean isClassifying() {
+        return mEnabled && mPinnedMode == null;
+    }
+
+    /**
+     * @param delayMs how long the content must look different before the mode switches
+     */
+    public void setSwitchDelay(long delayMs) {
+        if (delayMs < 0) throw new IllegalArgumentException("Switch delay must not be negative");
+        mSwitchDelayMs = delayMs;
+    }
+
+    /**
+     * @param enabled whether to restart running sessions with the preset of a new mode; this
+     *                interrupts the picture for a moment. Otherwise a new mode only applies to the
+     *                next session. A pinned mode is always applied right away.
+     */
+    public void setRenegotiationEnabled(boolean enabled) {
+        mRenegotiationEnabled = enabled;
+    }
+
+    public boolean isRenegotiationEnabled() {
+        return mRenegotiationEnabled;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * account for a frame latched by the relay; called on the relay thread
+     * @param changedFraction fraction of the frame that differs from the previous one
+     */
+    void onFrame(long nowNanos, float changedFraction) {
+        if (mWindowStartNanos == 0) mWindowStartNanos = nowNanos;
+        if (changedFraction > 0) {
+            mWindowFrames++;
+            mWindowCoverage += changedFraction;
+        }
+
+        long elapsed = nowNanos - mWindowStartNanos;
+        if (elapsed < WINDOW_NANOS) return;
+
+        // a long gap without frames is a static screen, and counts as interactive for its whole length
+        float fps = mWindowFrames * 1e9f / elapsed;
+        float coverage = mWindowFrames == 0 ? 0 : mWindowCoverage / mWindowFrames;
+        Mode windowMode = fps >= MIN_VIDEO_FPS && coverage >= MIN_VIDEO_COVERAGE ? Mode.VIDEO : Mode.INTERACTIVE;
+        if (windowMode == mMode) {
+            mCandidateSinceNanos = 0;
+        } else {
+            if (mCandidateSinceNanos == 0) mCandidateSinceNanos = mWindowStartNanos;
+            if (nowNanos - mCandidateSinceNanos >= mSwitchDelayMs * 1000000L && mPinnedMode == null) {
+                Log.i(TAG, "Content looks like " + windowMode + ": " + fps + "fps, " + coverage + " of the frame changing");
+                mCandidateSinceNanos = 0;
+                switchTo(windowMode, false);
+            }
+        }
+        mWindowStartNanos = nowNanos;
+        mWindowFrames = 0;
+        mWindowCoverage = 0;
+    }
+
+    /**
+     * forget the statistics of the previous capture, keeping the mode; called on the relay thread
+     */
+    void reset() {
+        mWindowStartNanos = 0;
+        mWindowFrames = 0;
+        mWindowCoverage = 0;
+        mCandidateSinceNanos = 0;
+    }
+
+    private void switchTo(final Mode mode, final boolean pinned) {
+        mMode = mode;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : mListeners) {
+                    listener.onModeChanged(mode, pinned);
+                }
+            }
+        });
+    }
+
+}
@@ -0,0 +1,33 @@
+package github.ankyl.castscreen;
+
+import android.opengl.Matrix;
+
+/**
+ * Crops the frame to a rectangle and scales it up to fill the presentation
+ */
+public class CropFrameProcessor extends ShaderFrameProcessor {
+    // left, top, right, bottom as fractions of the frame, replaced as a whole so reads are consistent
+    private volatile float[] mCrop = { 0f, 0f, 1f, 1f };
+
+    /**
+     * set the visible rectangle, as fractions of the frame's width and height from its top left
+     */
+    public void setCrop(float left, float top, float right, float bottom) {
+        if (left < 0 || top < 0 || right > 1 || bottom > 1 || left >= right || top >= bottom) {
+            throw new IllegalArgumentException("Invalid crop " + left + ", " + top + ", " + right + ", " + bottom);
+        }
+        mCrop = new float[] { left, top, right, bottom };
+    }
+
+    @Override
+    protected void onSetUniforms(float[] texMatrix) {
+        float[] crop = mCrop;
+        Matrix.setIdentityM(texMatrix, 0);
+        // texture coordinates start at the bottom left
+        texMatrix[0] = crop[2] - crop[0];
+        texMatrix[5] = crop[3] - crop[1];
+        texMatrix[12] = crop[0];
+        texMatrix[13] = 1f - crop[3];
+    }
+
+}
@@ -0,0 +1,134 @@
+package github.ankyl.castscreen;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.util.Log;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * DeviceThermalSource reports the thermal status of the power manager where the platform has one,
+ * and otherwise estimates it from the battery temperature. A low battery that is not charging
+ * raises the severity by one step, to save power.
+ */
+public class DeviceThermalSource implements ThermalSource {
+    private static final String TAG = "DeviceThermalSource";
+    private static final long POLL_INTERVAL_MS = 10 * 1000;
+    // battery temperatures in tenths of a degree at which each severity starts
+    private static final int[] BATTERY_TEMPERATURE_THRESHOLDS = { 400, 430, 460, 500 };
+    private static final int LOW_BATTERY_PERCENT = 15;
+
+    private static Method sGetCurrentThermalStatus;
+
+    static {
+        try {
+            // added in API 29
+            sGetCurrentThermalStatus = PowerManager.class.getMethod("getCurrentThermalStatus");
+        } catch (NoSuchMethodException e) {
+            sGetCurrentThermalStatus = null;
+        }
+    }
+
+    private final Context mAppContext;
+    private final PowerManager mPowerManager;
+    private final Handler mSessionHandler;
+    private Listener mListener;
+    private Intent mBatteryStatus;
+    private int mSeverity = -1;
+
+    private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mBatteryStatus = intent;
+            update();
+        }
+    };
+
+    private final Runnable mPollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            update();
+            mSessionHandler.postDelayed(this, POLL_INTERVAL_MS);
+        }
+    };
+
+    public DeviceThermalSource(Context context) {
+        mAppContext = context.getApplicationContext();
+        mPowerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mSessionHandler = CastScreenThreads.getSessionHandler();
+    }
+
+    @Override
+    public void start(Listener listener) {
+        mListener = listener;
+        mSeverity = -1;
+        mBatteryStatus = mAppContext.registerReceiver(mBatteryReceiver,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED), null, mSessionHandler);
+        // the thermal status has no broadcast, so poll it
+        mSessionHandler.post(mPollRunnable);
+    }
+
+    @Override
+    public void stop() {
+        mListener = null;
+        mSessionHandler.removeCallbacks(mPollRunnable);
+        mAppContext.unregisterReceiver(mBatteryReceiver);
+    }
+
+    private void update() {
+        if (mListener == null) return;
+        String reason;
+        int severity;
+        int thermalStatus = getThermalStatus();
+        if (thermalStatus >= 0) {
+            // the platform's statuses start with the same five levels
+            severity = Math.min(thermalStatus, SEVERITY_CRITICAL);
+            reason = "thermal status " + thermalStatus;
+        } else {
+            int temperature = mBatteryStatus == null ? 0
+                    : mBatteryStatus.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+            severity = SEVERITY_NONE;
+            while (severity < BATTERY_TEMPERATURE_THRESHOLDS.length
+                    && temperature >= BATTERY_TEMPERATURE_THRESHOLDS[severity]) {
+                severity++;
+            }
+            reason = "battery at " + temperature / 10f + "C";
+        }
+
+        if (isBatteryLow()) {
+            severity = Math.min(severity + 1, SEVERITY_CRITICAL);
+            reason += ", battery low";
+        }
+        if (severity == mSeverity) return;
+        mSeverity = severity;
+        mListener.onSeverityChanged(severity, reason);
+    }
+
+    /**
+     * @return the power manager's thermal status, or -1 if the platform has none
+     */
+    private int getThermalStatus() {
+        if (sGetCurrentThermalStatus == null) return -1;
+        try {
+            return (Integer) sGetCurrentThermalStatus.invoke(mPowerManager);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            Log.w(TAG, "Could not read thermal status", e);
+            return -1;
+        }
+    }
+
+    private boolean isBatteryLow() {
+        if (mBatteryStatus == null) return false;
+        int level = mBatteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = mBatteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        int plugged = mBatteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+        return plugged == 0 && level >= 0 && scale > 0 && level * 100 / scale <= LOW_BATTERY_PERCENT;
+    }
+
+}
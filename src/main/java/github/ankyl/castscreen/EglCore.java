@@ -0,0 +1,135 @@
+package github.ankyl.castscreen;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.util.Log;
+
+/**
+ * EglCore owns an EGL display and an OpenGL ES 2 context, and creates the surfaces drawn by
+ * {@link FrameRelay}. It must only be used from the thread that created it.
+ */
+class EglCore {
+    private static final String TAG = "EglCore";
+    // from EGL_ANDROID_recordable, allows surfaces to feed MediaCodec
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private EGLDisplay mDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext mContext = EGL14.EGL_NO_CONTEXT;
+    private EGLConfig mConfig;
+
+    EglCore() {
+        mDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (mDisplay == EGL14.EGL_NO_DISPLAY) {
+            throw new IllegalStateException("Unable to get EGL display");
+        }
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(mDisplay, version, 0, version, 1)) {
+            mDisplay = EGL14.EGL_NO_DISPLAY;
+            throw new IllegalStateException("Unable to initialize EGL");
+        }
+
+        int[] attributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT | EGL14.EGL_PBUFFER_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(mDisplay, attributes, 0, configs, 0, configs.length, numConfigs, 0)
+                || numConfigs[0] == 0) {
+            throw new IllegalStateException("Unable to find an RGBA8888 ES2 EGL config");
+        }
+        mConfig = configs[0];
+
+        int[] contextAttributes = {
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
+                EGL14.EGL_NONE
+        };
+        mContext = EGL14.eglCreateContext(mDisplay, mConfig, EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+        checkEglError("eglCreateContext");
+    }
+
+    /**
+     * @param surface a {@link android.view.Surface} or {@link android.graphics.SurfaceTexture}
+     */
+    EGLSurface createWindowSurface(Object surface) {
+        int[] attributes = { EGL14.EGL_NONE };
+        EGLSurface eglSurface = EGL14.eglCreateWindowSurface(mDisplay, mConfig, surface, attributes, 0);
+        checkEglError("eglCreateWindowSurface");
+        return eglSurface;
+    }
+
+    /**
+     * @return an offscreen surface, used to make the context current when there is no window
+     */
+    EGLSurface createPbufferSurface(int width, int height) {
+        int[] attributes = { EGL14.EGL_WIDTH, width, EGL14.EGL_HEIGHT, height, EGL14.EGL_NONE };
+        EGLSurface eglSurface = EGL14.eglCreatePbufferSurface(mDisplay, mConfig, attributes, 0);
+        checkEglError("eglCreatePbufferSurface");
+        return eglSurface;
+    }
+
+    void makeCurrent(EGLSurface surface) {
+        if (!EGL14.eglMakeCurrent(mDisplay, surface, surface, mContext)) {
+            throw new IllegalStateException("eglMakeCurrent failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+        }
+    }
+
+    /**
+     * @param interval minimum number of vsyncs between swaps of the current surface; 0 keeps a
+     *                 swap from waiting for vsync, so one output cannot hold up the others
+     */
+    void setSwapInterval(int interval) {
+        if (!EGL14.eglSwapInterval(mDisplay, interval)) {
+            Log.w(TAG, "eglSwapInterval failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+        }
+    }
+
+    /**
+     * @return false if the surface was abandoned, e.g. because the presentation was dismissed
+     */
+    boolean swapBuffers(EGLSurface surface) {
+        return EGL14.eglSwapBuffers(mDisplay, surface);
+    }
+
+    /**
+     * @param nsecs timestamp of the frame about to be swapped, in {@link System#nanoTime()} base
+     */
+    void setPresentationTime(EGLSurface surface, long nsecs) {
+        EGLExt.eglPresentationTimeANDROID(mDisplay, surface, nsecs);
+    }
+
+    void releaseSurface(EGLSurface surface) {
+        EGL14.eglDestroySurface(mDisplay, surface);
+    }
+
+    void release() {
+        if (mDisplay != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglMakeCurrent(mDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            EGL14.eglDestroyContext(mDisplay, mContext);
+            EGL14.eglReleaseThread();
+            EGL14.eglTerminate(mDisplay);
+        }
+        mDisplay = EGL14.EGL_NO_DISPLAY;
+        mContext = EGL14.EGL_NO_CONTEXT;
+        mConfig = null;
+    }
+
+    private static void checkEglError(String op) {
+        int error = EGL14.eglGetError();
+        if (error != EGL14.EGL_SUCCESS) {
+            Log.e(TAG, op + " failed: 0x" + Integer.toHexString(error));
+            throw new IllegalStateException(op + " failed: 0x" + Integer.toHexString(error));
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package github.ankyl.castscreen;
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * ExtendedContent is what a cast in extended-display mode shows on the receiver instead of the
+ * user's screen: views of the host app, laid out and drawn directly on the remote display at its
+ * own resolution and density, while the phone's screen is free for other UI such as controls. See
+ * {@link CastScreenService#setExtendedContent(ExtendedContent)}. Both methods are called on the
+ * session thread of {@link CastScreenThreads}, once per receiver, so views must not be shared
+ * between calls.
+ */
+public interface ExtendedContent {
+
+    /**
+     * @param context a context of the remote display, for inflating views with its metrics
+     * @param container the presentation's root, not yet attached to; for layout parameters only
+     * @return the views to show on the receiver
+     */
+    View onCreateView(Context context, ViewGroup container);
+
+    /**
+     * the views returned by {@link #onCreateView(Context, ViewGroup)} are no longer shown, e.g.
+     * because the cast switched back to mirroring or stopped
+     */
+    void onDestroyView(View view);
+
+}
@@ -0,0 +1,62 @@
+package github.ankyl.castscreen;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.view.Display;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.FrameLayout;
+
+import com.google.android.gms.cast.CastPresentation;
+
+/**
+ * ExtendedPresentation shows the views of an {@link ExtendedContent} on the remote display, laid
+ * out at the display's own resolution and density, instead of a capture of the user's screen
+ */
+public class ExtendedPresentation extends CastPresentation {
+    private final ExtendedContent mContent;
+    private final boolean mRecordMetrics;
+    private View mView;
+
+    /**
+     * @param recordMetrics whether to record the phases of the cast in {@link CastSessionMetrics},
+     *                      false for receivers other than the one of the selected route
+     */
+    public ExtendedPresentation(Context context, Display display, ExtendedContent content, boolean recordMetrics) {
+        super(context, display);
+        mContent = content;
+        mRecordMetrics = recordMetrics;
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        final FrameLayout root = new FrameLayout(getContext());
+        mView = mContent.onCreateView(getContext(), root);
+        root.addView(mView);
+        setContentView(root, new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.MATCH_PARENT));
+
+        // there is no capture, so the first frame is the first time the content is drawn
+        root.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                root.getViewTreeObserver().removeOnPreDrawListener(this);
+                if (mRecordMetrics) CastSessionMetrics.end(CastSessionMetrics.Phase.TIME_TO_FIRST_FRAME);
+                return true;
+            }
+        });
+        if (mRecordMetrics) CastSessionMetrics.end(CastSessionMetrics.Phase.PRESENTATION_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        if (mView != null) {
+            mContent.onDestroyView(mView);
+            mView = null;
+        }
+        super.onStop();
+    }
+
+}
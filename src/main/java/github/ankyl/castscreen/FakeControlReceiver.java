@@ -0,0 +1,130 @@
+package github.ankyl.castscreen;
+
+import android.os.Handler;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * FakeControlReceiver is an in-process stand-in for a receiver that speaks the protocol of the
+ * {@link LinkMonitor}, so the protocol and the estimates can be exercised without a custom
+ * receiver application. It echoes probes after a simulated round-trip time, and reports frame
+ * statistics every second: the frames counted by a {@link FrameCounter}, such as those reaching
+ * a {@link LoopbackCastTransport}, with a simulated fraction of them dropped. Every simulated
+ * value can be changed while it runs, e.g. to see how the estimates follow a degrading link.
+ */
+public class FakeControlReceiver implements MessageChannel {
+    private static final String TAG = "FakeControlReceiver";
+    private static final long STATS_INTERVAL_MS = 1000;
+
+    /**
+     * the source of the frames the fake receiver reports as decoded
+     */
+    public interface FrameCounter {
+        long getFrameCount();
+    }
+
+    private final FrameCounter mFrameCounter;
+    private final Handler mSessionHandler;
+    private volatile long mRttMillis = 20;
+    private volatile float mDropFraction;
+    private volatile long mBufferMillis = 50;
+    private volatile boolean mAnswering = true;
+    private volatile Listener mListener;
+
+    private final Runnable mStatsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long frames = mFrameCounter.getFrameCount();
+            long dropped = (long) (frames * mDropFraction);
+            try {
+                reply(new JSONObject()
+                        .put("type", "stats")
+                        .put("framesDecoded", frames - dropped)
+                        .put("framesDropped", dropped)
+                        .put("bufferMs", mBufferMillis), 0);
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+            mSessionHandler.postDelayed(this, STATS_INTERVAL_MS);
+        }
+    };
+
+    /**
+     * @param frameCounter the frames to report as received, or null to report no statistics
+     */
+    public FakeControlReceiver(FrameCounter frameCounter) {
+        mFrameCounter = frameCounter;
+        mSessionHandler = CastScreenThreads.getSessionHandler();
+    }
+
+    /**
+     * @param rttMillis how long echoes of probes take
+     */
+    public void setRttMillis(long rttMillis) {
+        mRttMillis = rttMillis;
+    }
+
+    /**
+     * @param fraction share of the counted frames reported as dropped, in [0, 1]
+     */
+    public void setDropFraction(float fraction) {
+        if (fraction < 0 || fraction > 1) throw new IllegalArgumentException("Fraction must be in [0, 1]");
+        mDropFraction = fraction;
+    }
+
+    public void setBufferMillis(long bufferMillis) {
+        mBufferMillis = bufferMillis;
+    }
+
+    /**
+     * @param answering whether to answer at all, e.g. to act like a receiver without the channel
+     *                  or a link that lost every message
+     */
+    public void setAnswering(boolean answering) {
+        mAnswering = answering;
+    }
+
+    @Override
+    public boolean open(Listener listener) {
+        mListener = listener;
+        mSessionHandler.removeCallbacks(mStatsRunnable);
+        if (mFrameCounter != null) mSessionHandler.postDelayed(mStatsRunnable, STATS_INTERVAL_MS);
+        return true;
+    }
+
+    @Override
+    public boolean send(String message) {
+        if (mListener == null) return false;
+        try {
+            JSONObject json = new JSONObject(message);
+            if ("ping".equals(json.optString("type"))) {
+                reply(json.put("type", "pong"), mRttMillis);
+            }
+        } catch (JSONException e) {
+            Log.d(TAG, "Ignoring malformed message: " + message);
+        }
+        return true;
+    }
+
+    private void reply(final JSONObject message, long delayMillis) {
+        if (!mAnswering) return;
+        final Listener listener = mListener;
+        if (listener == null) return;
+        mSessionHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                // not after the channel was closed or reopened meanwhile
+                if (mListener == listener) listener.onMessage(message.toString());
+            }
+        }, delayMillis);
+    }
+
+    @Override
+    public void close() {
+        mListener = null;
+        mSessionHandler.removeCallbacks(mStatsRunnable);
+    }
+
+}
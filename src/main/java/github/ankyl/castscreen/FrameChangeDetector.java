@@ -0,0 +1,122 @@
+package github.ankyl.castscreen;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * FrameChangeDetector tells whether a frame differs from the previous one by box-filtering it
+ * down to a tiny framebuffer on the GPU and hashing that, so only a few kilobytes are read back.
+ * Changes smaller than a downsampled cell can go unnoticed, which is why {@link FrameRelay} still
+ * forwards a frame every refresh interval while the screen looks static. The fraction of cells
+ * that changed is kept as well, as a cheap measure of how much of the screen is in motion.
+ */
+class FrameChangeDetector {
+    private static final int SIZE = 32;
+    private static final int TAPS = 4;
+    // a cell counts as changed if a channel differs by more than this, which ignores dithering
+    private static final int CELL_THRESHOLD = 8;
+    // each of the SIZE x SIZE output pixels averages TAPS x TAPS samples of the source
+    private static final String FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+            "precision mediump float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform samplerExternalOES sTexture;\n" +
+            "void main() {\n" +
+            "    vec4 sum = vec4(0.0);\n" +
+            "    for (int x = 0; x < " + TAPS + "; x++) {\n" +
+            "        for (int y = 0; y < " + TAPS + "; y++) {\n" +
+            "            vec2 offset = vec2(float(x) - " + (TAPS - 1) / 2f + ", float(y) - " + (TAPS - 1) / 2f + ");\n" +
+            "            sum += texture2D(sTexture, vTextureCoord + offset * " + 1f / (SIZE * TAPS) + ");\n" +
+            "        }\n" +
+            "    }\n" +
+            "    gl_FragColor = sum / " + (float) (TAPS * TAPS) + ";\n" +
+            "}\n";
+
+    private final FrameRenderer mRenderer;
+    private final int mFramebuffer;
+    private final int mTexture;
+    private final ByteBuffer mPixels = ByteBuffer.allocateDirect(SIZE * SIZE * 4).order(ByteOrder.nativeOrder());
+    private final int[] mLastPixels = new int[SIZE * SIZE];
+    private long mLastHash;
+    private boolean mHasHash;
+    private float mChangedFraction;
+
+    FrameChangeDetector() {
+        mRenderer = new FrameRenderer(FRAGMENT_SHADER);
+
+        int[] ids = new int[1];
+        GLES20.glGenTextures(1, ids, 0);
+        mTexture = ids[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, SIZE, SIZE, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        GLES20.glGenFramebuffers(1, ids, 0);
+        mFramebuffer = ids[0];
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTexture, 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            throw new IllegalStateException("Incomplete change detection framebuffer: 0x" + Integer.toHexString(status));
+        }
+    }
+
+    /**
+     * @return true if the frame differs from the frame passed to the previous call; leaves the
+     * default framebuffer bound, but the caller must reset its viewport
+     */
+    boolean hasChanged(int externalTexture, float[] texMatrix) {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        GLES20.glViewport(0, 0, SIZE, SIZE);
+        mRenderer.draw(externalTexture, texMatrix);
+        mPixels.clear();
+        GLES20.glReadPixels(0, 0, SIZE, SIZE, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mPixels);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+        // 64-bit FNV-1a over the downsampled pixels
+        long hash = 0xcbf29ce484222325L;
+        int changedCells = 0;
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            int pixel = mPixels.getInt(i * 4);
+            hash ^= pixel;
+            hash *= 0x100000001b3L;
+            if (cellChanged(pixel, mLastPixels[i])) changedCells++;
+            mLastPixels[i] = pixel;
+        }
+
+        boolean changed = !mHasHash || hash != mLastHash;
+        mChangedFraction = mHasHash ? (float) changedCells / (SIZE * SIZE) : 1f;
+        mLastHash = hash;
+        mHasHash = true;
+        return changed;
+    }
+
+    /**
+     * @return fraction of the frame that changed noticeably in the last call to
+     * {@link #hasChanged(int, float[])}
+     */
+    float getChangedFraction() {
+        return mChangedFraction;
+    }
+
+    private static boolean cellChanged(int a, int b) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            if (Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff)) > CELL_THRESHOLD) return true;
+        }
+        return false;
+    }
+
+    void release() {
+        GLES20.glDeleteFramebuffers(1, new int[] { mFramebuffer }, 0);
+        GlUtil.deleteTexture(mTexture);
+        mRenderer.release();
+    }
+
+}
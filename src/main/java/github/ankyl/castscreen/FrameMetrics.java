@@ -0,0 +1,100 @@
+package github.ankyl.castscreen;
+
+/**
+ * FrameMetrics records the steady-state timing of the frames a {@link FrameRelay} presents: the
+ * interval between presented frames, how much consecutive intervals differ (jitter), and the
+ * latency from the moment the virtual display queued a frame until it was swapped onto the
+ * presentation surface. With several outputs, each is timed on its own and the histograms hold
+ * all of them. Recording is done on the relay thread; see {@link LatencyHistogram} for reading it
+ * from other threads.
+ */
+public class FrameMetrics {
+    private final LatencyHistogram mIntervals = new LatencyHistogram();
+    private final LatencyHistogram mJitter = new LatencyHistogram();
+    private final LatencyHistogram mLatencies = new LatencyHistogram();
+
+    FrameMetrics() {
+    }
+
+    /**
+     * @return a recorder for the frames presented onto one output
+     */
+    Tracker newTracker() {
+        return new Tracker();
+    }
+
+    /**
+     * records into the histograms of its {@link FrameMetrics}; only used on the relay thread
+     */
+    class Tracker {
+        private long mLastPresentNanos;
+        private long mLastIntervalNanos = -1;
+
+        private Tracker() {
+        }
+
+        /**
+         * @param presentNanos {@link System#nanoTime()} right after the frame was swapped
+         * @param queuedNanos {@link android.graphics.SurfaceTexture#getTimestamp()} of the frame
+         */
+        void onFramePresented(long presentNanos, long queuedNanos) {
+            if (queuedNanos > 0) mLatencies.record((presentNanos - queuedNanos) / 1000);
+            if (mLastPresentNanos != 0) {
+                long interval = presentNanos - mLastPresentNanos;
+                mIntervals.record(interval / 1000);
+                if (mLastIntervalNanos >= 0) mJitter.record(Math.abs(interval - mLastIntervalNanos) / 1000);
+                mLastIntervalNanos = interval;
+            }
+            mLastPresentNanos = presentNanos;
+        }
+
+        /**
+         * forget the last frame, e.g. while the output is detached, so the gap is not counted as an
+         * interval
+         */
+        void onPresentationPaused() {
+            mLastPresentNanos = 0;
+            mLastIntervalNanos = -1;
+        }
+    }
+
+    Snapshot snapshot(long presentedFrames, long droppedFrames, long skippedFrames) {
+        return new Snapshot(mIntervals.snapshot(), mJitter.snapshot(), mLatencies.snapshot(),
+                presentedFrames, droppedFrames, skippedFrames);
+    }
+
+    /**
+     * the frame timings and counts at the time of {@link FrameRelay#getFrameMetrics()}
+     */
+    public static class Snapshot {
+        public final LatencyHistogram.Snapshot intervals;
+        public final LatencyHistogram.Snapshot jitter;
+        public final LatencyHistogram.Snapshot latencies;
+        public final long presentedFrames;
+        public final long droppedFrames;
+        public final long skippedFrames;
+
+        private Snapshot(LatencyHistogram.Snapshot intervals,
+                         LatencyHistogram.Snapshot jitter,
+                         LatencyHistogram.Snapshot latencies,
+                         long presentedFrames,
+                         long droppedFrames,
+                         long skippedFrames) {
+            this.intervals = intervals;
+            this.jitter = jitter;
+            this.latencies = latencies;
+            this.presentedFrames = presentedFrames;
+            this.droppedFrames = droppedFrames;
+            this.skippedFrames = skippedFrames;
+        }
+
+        @Override
+        public String toString() {
+            return "presented=" + presentedFrames + " dropped=" + droppedFrames + " skipped=" + skippedFrames
+                    + "\n  interval: " + intervals
+                    + "\n  jitter:   " + jitter
+                    + "\n  latency:  " + latencies;
+        }
+    }
+
+}
@@ -0,0 +1,29 @@
+package github.ankyl.castscreen;
+
+/**
+ * A FrameProcessor post-processes the captured screen before it is drawn onto the presentation,
+ * e.g. to crop it, convert its colors or draw an overlay. Processors are chained with
+ * {@link FrameRelay#addFrameProcessor(FrameProcessor, long)}, and all methods are called on the
+ * relay's GL thread with its EGL context current. {@link #process(int, int, int)} is called for
+ * every frame, so it should not allocate.
+ */
+public interface FrameProcessor {
+
+    /**
+     * called before the first frame, and again whenever the frame size changes; create GL
+     * resources here
+     */
+    void onPrepare(int width, int height);
+
+    /**
+     * draw the processed frame into the bound framebuffer, whose viewport is already set
+     * @param inputTexture a GL_TEXTURE_2D holding the upright frame
+     */
+    void process(int inputTexture, int width, int height);
+
+    /**
+     * called when the processor is removed or the relay is released; delete GL resources here
+     */
+    void onRelease();
+
+}
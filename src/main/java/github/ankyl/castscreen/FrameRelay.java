@@ -0,0 +1,675 @@
+package github.ankyl.castscreen;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.view.Surface;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * FrameRelay sits between the {@link android.hardware.display.VirtualDisplay} and the presentation
+ * surfaces. The virtual display renders into {@link #getInputSurface()}, and the relay draws each
+ * frame onto every output surface on its own GL thread, so one capture can be mirrored to several
+ * receivers. This gives a place to cap the frame rate: frames arriving faster than the target
+ * rate are held until the next slot, and replaced (dropped) if a newer frame arrives before then,
+ * so a congested link is never fed more than it can take. Each output is paced on its own and
+ * swaps without waiting for vsync, and an output whose swaps keep blocking is fed less often, so
+ * a slow receiver does not hold up the others.
+ * With change detection enabled, frames identical to the previous one are not forwarded at all.
+ * The same detection feeds a {@link ContentClassifier}, if one is set.
+ * Frames can be post-processed by a chain of {@link FrameProcessor}s, which run in the relay's
+ * EGL context and render through a pool of framebuffers, once per frame for all outputs. Frame
+ * timings are recorded into {@link FrameMetrics}, which can be read at any time and optionally
+ * logged periodically. A crop, e.g. a region of interest, is applied while drawing onto the
+ * outputs, scaling the region up to fill them without an extra render pass.
+ */
+public class FrameRelay implements SurfaceTexture.OnFrameAvailableListener {
+    private static final String TAG = "FrameRelay";
+    private static final String THREAD_NAME = "CastScreenFrameRelay";
+    private static final long DEFAULT_REFRESH_INTERVAL_MS = 1000;
+    // measure processors with glFinish only every this many frames, so timing doesn't stall the GPU
+    private static final int PROCESSOR_TIMING_PERIOD = 30;
+    // consecutive budget overruns after which a processor is bypassed
+    private static final int PROCESSOR_MAX_OVERRUNS = 3;
+    // weight of the latest swap in an output's average swap time
+    private static final float SWAP_TIME_WEIGHT = 0.1f;
+    private static final float[] IDENTITY_MATRIX = new float[16];
+
+    static {
+        Matrix.setIdentityM(IDENTITY_MATRIX, 0);
+    }
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    // only accessed on the relay thread
+    private EglCore mEglCore;
+    private EGLSurface mPbuffer = EGL14.EGL_NO_SURFACE;
+    private final ArrayList<Output> mOutputs = new ArrayList<>();
+    private FrameRenderer mRenderer;
+    private FrameRenderer mProcessedRenderer;
+    private FrameChangeDetector mDetector;
+    private final ArrayList<ProcessorEntry> mProcessors = new ArrayList<>();
+    private final FramebufferPool mFramebuffers = new FramebufferPool(2);
+    private int mTexture;
+    private SurfaceTexture mSurfaceTexture;
+    private Surface mInputSurface;
+    private final float[] mTexMatrix = new float[16];
+    private final float[] mCropMatrix = new float[16];
+    private final float[] mOutputMatrix = new float[16];
+    private boolean mHasFrame;
+    private long mFrameTimestampNanos;
+    // the latest frame after the processors, or 0 if it has not been processed yet
+    private int mProcessedTexture;
+    private long mProcessedFrames;
+    private final FrameMetrics mMetrics = new FrameMetrics();
+
+    private volatile int mInputWidth;
+    private volatile int mInputHeight;
+    // left, top, right, bottom as fractions of the frame, or null to draw the whole frame
+    private volatile float[] mCrop;
+    private volatile float mTargetFps;
+    private volatile float mFpsCap;
+    private volatile boolean mChangeDetectionEnabled;
+    private volatile ContentClassifier mContentClassifier;
+    private volatile long mRefreshIntervalMs = DEFAULT_REFRESH_INTERVAL_MS;
+    private volatile long mPresentedFrames;
+    private volatile long mDroppedFrames;
+    private volatile long mSkippedFrames;
+    private volatile long mMetricsLogIntervalMs;
+
+    private final Runnable mLogMetricsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long intervalMs = mMetricsLogIntervalMs;
+            if (intervalMs <= 0) return;
+            Log.i(TAG, "Frame metrics: " + getFrameMetrics());
+            mHandler.postDelayed(this, intervalMs);
+        }
+    };
+
+    public FrameRelay() {
+        mThread = new HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_DISPLAY);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                initialize();
+            }
+        });
+        CastResourceTracker.open(CastResourceTracker.Kind.FRAME_RELAY);
+    }
+
+    private void initialize() {
+        mEglCore = new EglCore();
+        mPbuffer = mEglCore.createPbufferSurface(1, 1);
+        mEglCore.makeCurrent(mPbuffer);
+
+        mRenderer = new FrameRenderer();
+        mProcessedRenderer = new FrameRenderer(GLES20.GL_TEXTURE_2D, FrameRenderer.FRAGMENT_SHADER_2D);
+        mTexture = GlUtil.createExternalTexture();
+        mSurfaceTexture = new SurfaceTexture(mTexture);
+        mSurfaceTexture.setOnFrameAvailableListener(this, mHandler);
+        mInputSurface = new Surface(mSurfaceTexture);
+    }
+
+    /**
+     * @return the surface the virtual display should render into
+     */
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    /**
+     * @param width width of the frames rendered into the input surface
+     * @param height height of the frames rendered into the input surface
+     */
+    public void setInputSize(int width, int height) {
+        mSurfaceTexture.setDefaultBufferSize(width, height);
+        mInputWidth = width;
+        mInputHeight = height;
+    }
+
+    /**
+     * start drawing onto {@param surface}, in addition to any other output surfaces, or update its
+     * size if it is already an output
+     */
+    public void setOutputSurface(Surface surface, int width, int height) {
+        addOutput(surface, width, height, false);
+    }
+
+    /**
+     * start drawing onto the input surface of a video encoder, e.g. to record the cast, in addition
+     * to the other outputs. Frames are stamped with their capture time, as the encoder expects;
+     * remove it with {@link #removeOutputSurface(Surface)}.
+     */
+    public void setEncoderSurface(Surface surface, int width, int height) {
+        addOutput(surface, width, height, true);
+    }
+
+    private void addOutput(final Surface surface, final int width, final int height, final boolean encoder) {
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                Output output = findOutput(surface);
+                if (output != null) {
+                    releaseOutput(output);
+                } else {
+                    if (!surface.isValid()) return;
+                    output = new Output(surface, encoder);
+                    mOutputs.add(output);
+                }
+
+                output.eglSurface = mEglCore.createWindowSurface(surface);
+                output.width = width;
+                output.height = height;
+                mEglCore.makeCurrent(output.eglSurface);
+                mEglCore.setSwapInterval(0);
+                if (mHasFrame) {
+                    // fill the new surface with the last frame instead of waiting for the next one
+                    output.framePending = true;
+                    present(output, System.nanoTime());
+                    removeAbandonedOutputs();
+                }
+            }
+        });
+    }
+
+    /**
+     * stop drawing onto {@param surface}. Blocks until it is no longer in use, so it is safe to
+     * call from surfaceDestroyed.
+     */
+    public void removeOutputSurface(final Surface surface) {
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                Output output = findOutput(surface);
+                if (output == null) return;
+                releaseOutput(output);
+                mOutputs.remove(output);
+            }
+        });
+    }
+
+    /**
+     * show only a rectangle of the frame, scaled up to fill the outputs, from the next frame on
+     * @param crop left, top, right, bottom as fractions of the frame's width and height from its
+     *             top left, or null to show the whole frame
+     */
+    public void setCrop(float[] crop) {
+        if (crop != null && (crop.length != 4 || crop[0] < 0 || crop[1] < 0 || crop[2] > 1 || crop[3] > 1
+                || crop[0] >= crop[2] || crop[1] >= crop[3])) {
+            throw new IllegalArgumentException("Invalid crop");
+        }
+        mCrop = crop == null ? null : crop.clone();
+    }
+
+    /**
+     * @param fps maximum number of frames per second drawn onto each output, or 0 for no limit
+     */
+    public void setTargetFps(float fps) {
+        if (fps < 0) throw new IllegalArgumentException("Target fps must not be negative");
+        mTargetFps = fps;
+    }
+
+    public float getTargetFps() {
+        return mTargetFps;
+    }
+
+    /**
+     * @param fps an additional limit on the frame rate, e.g. from the {@link ThermalGovernor},
+     *            applied on top of the target frame rate; 0 for none
+     */
+    public void setFpsCap(float fps) {
+        if (fps < 0) throw new IllegalArgumentException("Frame rate cap must not be negative");
+        mFpsCap = fps;
+    }
+
+    /**
+     * @param enabled whether to stop forwarding frames that are identical to the previous one
+     */
+    public void setChangeDetectionEnabled(boolean enabled) {
+        mChangeDetectionEnabled = enabled;
+    }
+
+    public boolean isChangeDetectionEnabled() {
+        return mChangeDetectionEnabled;
+    }
+
+    /**
+     * @param classifier receives the frame-difference statistics of every frame, or null
+     */
+    public void setContentClassifier(final ContentClassifier classifier) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (classifier != null) classifier.reset();
+                mContentClassifier = classifier;
+            }
+        });
+    }
+
+    /**
+     * @param intervalMs while change detection considers the screen static, still forward a frame
+     *                   this often, in case a change was too small to be detected
+     */
+    public void setRefreshInterval(long intervalMs) {
+        if (intervalMs <= 0) throw new IllegalArgumentException("Refresh interval must be positive");
+        mRefreshIntervalMs = intervalMs;
+    }
+
+    /**
+     * append {@param processor} to the post-processing chain
+     * @param budgetMicros maximum time the processor may take per frame, or 0 for no limit; a
+     *                     processor exceeding it repeatedly is bypassed for the rest of the session
+     */
+    public void addFrameProcessor(final FrameProcessor processor, final long budgetMicros) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mProcessors.add(new ProcessorEntry(processor, budgetMicros * 1000L));
+                mProcessedTexture = 0;
+            }
+        });
+    }
+
+    /**
+     * remove {@param processor} from the post-processing chain and release it
+     */
+    public void removeFrameProcessor(final FrameProcessor processor) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < mProcessors.size(); i++) {
+                    if (mProcessors.get(i).processor == processor) {
+                        mProcessors.remove(i).release();
+                        mProcessedTexture = 0;
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return number of frames drawn onto the output surfaces, counting each output separately
+     */
+    public long getPresentedFrames() {
+        return mPresentedFrames;
+    }
+
+    /**
+     * @return number of frames replaced by a newer frame before they could be drawn, counting each
+     * output separately
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * @return number of frames not forwarded because change detection found them unchanged
+     */
+    public long getSkippedFrames() {
+        return mSkippedFrames;
+    }
+
+    /**
+     * @return frame interval, jitter and latency histograms since the relay was created, along with
+     * the frame counters; safe to call from any thread
+     */
+    public FrameMetrics.Snapshot getFrameMetrics() {
+        return mMetrics.snapshot(mPresentedFrames, mDroppedFrames, mSkippedFrames);
+    }
+
+    /**
+     * @param intervalMs log {@link #getFrameMetrics()} this often, or 0 to stop logging
+     */
+    public void setMetricsLogInterval(long intervalMs) {
+        if (intervalMs < 0) throw new IllegalArgumentException("Log interval must not be negative");
+        mMetricsLogIntervalMs = intervalMs;
+        mHandler.removeCallbacks(mLogMetricsRunnable);
+        if (intervalMs > 0) mHandler.postDelayed(mLogMetricsRunnable, intervalMs);
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+        if (mEglCore == null) return; // released
+
+        // always latch the frame, so the virtual display never waits for a free buffer
+        mSurfaceTexture.updateTexImage();
+        mSurfaceTexture.getTransformMatrix(mTexMatrix);
+        mFrameTimestampNanos = mSurfaceTexture.getTimestamp();
+        mHasFrame = true;
+        mProcessedTexture = 0;
+        if (mOutputs.isEmpty()) return;
+
+        long now = System.nanoTime();
+        boolean changed = true;
+        ContentClassifier classifier = mContentClassifier;
+        // a pinned mode needs no statistics, so don't pay for the read back
+        if (classifier != null && !classifier.isClassifying()) classifier = null;
+        if (mChangeDetectionEnabled || classifier != null) {
+            if (mDetector == null) mDetector = new FrameChangeDetector();
+            // only the part of the frame that is shown matters
+            boolean detected = mDetector.hasChanged(mTexture, cropped(mTexMatrix));
+            if (mChangeDetectionEnabled) changed = detected;
+            if (classifier != null) classifier.onFrame(now, mDetector.getChangedFraction());
+        } else if (mDetector != null) {
+            mDetector.release();
+            mDetector = null;
+        }
+
+        boolean forwarded = false;
+        for (int i = 0; i < mOutputs.size(); i++) {
+            Output output = mOutputs.get(i);
+            boolean refreshDue = now - output.lastPresentNanos >= mRefreshIntervalMs * 1000000L;
+            if (!changed && !output.framePending && !refreshDue) continue;
+
+            forwarded = true;
+            if (output.framePending) mDroppedFrames++;
+            output.framePending = true;
+            schedule(output, now);
+        }
+        if (!forwarded) mSkippedFrames++;
+        removeAbandonedOutputs();
+    }
+
+    /**
+     * present the pending frame of {@param output} now if its next slot has come, or else when it does
+     */
+    private void schedule(Output output, long now) {
+        float fps = mTargetFps;
+        float cap = mFpsCap;
+        if (cap > 0 && (fps <= 0 || cap < fps)) fps = cap;
+        long interval = fps > 0 ? (long) (1000000000L / fps) : 0;
+        // an output whose swaps block, e.g. because its receiver is congested, is fed less often
+        interval = Math.max(interval, (long) output.swapNanos);
+        long nextSlot = output.lastPresentNanos + interval;
+        if (now >= nextSlot) {
+            present(output, now);
+        } else if (!output.presentScheduled) {
+            output.presentScheduled = true;
+            mHandler.postDelayed(output.presentRunnable, (nextSlot - now + 999999L) / 1000000L);
+        }
+    }
+
+    private void present(Output output, long now) {
+        if (output.eglSurface == EGL14.EGL_NO_SURFACE) return;
+        if (output.encoder && mFrameTimestampNanos == output.presentedTimestampNanos) {
+            // an encoder needs increasing timestamps, and gains nothing from the same frame again
+            output.framePending = false;
+            return;
+        }
+
+        int processed = processFrame();
+        mEglCore.makeCurrent(output.eglSurface);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glViewport(0, 0, output.width, output.height);
+        float[] matrix = cropped(processed == 0 ? mTexMatrix : IDENTITY_MATRIX);
+        if (processed == 0) {
+            mRenderer.draw(mTexture, matrix);
+        } else {
+            mProcessedRenderer.draw(processed, matrix);
+        }
+
+        if (output.encoder) mEglCore.setPresentationTime(output.eglSurface, mFrameTimestampNanos);
+        long swapStart = System.nanoTime();
+        if (!mEglCore.swapBuffers(output.eglSurface)) {
+            Log.w(TAG, "Output surface was abandoned");
+            releaseOutput(output);
+            return;
+        }
+        long swapped = System.nanoTime();
+        output.swapNanos += (swapped - swapStart - output.swapNanos) * SWAP_TIME_WEIGHT;
+
+        // a frame drawn again onto a new output surface says nothing about the pipeline's timing
+        if (mFrameTimestampNanos != output.presentedTimestampNanos) {
+            output.metrics.onFramePresented(swapped, mFrameTimestampNanos);
+            output.presentedTimestampNanos = mFrameTimestampNanos;
+        }
+        if (mPresentedFrames == 0) CastSessionMetrics.end(CastSessionMetrics.Phase.TIME_TO_FIRST_FRAME);
+        output.framePending = false;
+        output.lastPresentNanos = now;
+        mPresentedFrames++;
+    }
+
+    /**
+     * @return {@param matrix} combined with the crop, if any; valid until the next call
+     */
+    private float[] cropped(float[] matrix) {
+        float[] crop = mCrop;
+        if (crop == null) return matrix;
+
+        // texture coordinates start at the bottom left
+        Matrix.setIdentityM(mCropMatrix, 0);
+        mCropMatrix[0] = crop[2] - crop[0];
+        mCropMatrix[5] = crop[3] - crop[1];
+        mCropMatrix[12] = crop[0];
+        mCropMatrix[13] = 1f - crop[3];
+        Matrix.multiplyMM(mOutputMatrix, 0, matrix, 0, mCropMatrix, 0);
+        return mOutputMatrix;
+    }
+
+    /**
+     * run the latest frame through the processors, once for all outputs
+     * @return the texture holding the processed frame, or 0 if there are no processors to run
+     */
+    private int processFrame() {
+        if (mProcessedTexture != 0) return mProcessedTexture;
+
+        int width = mInputWidth;
+        int height = mInputHeight;
+        int last = -1;
+        for (int i = 0; i < mProcessors.size(); i++) {
+            if (!mProcessors.get(i).bypassed) last = i;
+        }
+        if (last < 0 || width == 0 || height == 0) return 0;
+
+        // render the frame upright into a 2D texture, then ping-pong between two framebuffers
+        int input = mFramebuffers.bind(0, width, height);
+        GLES20.glViewport(0, 0, width, height);
+        mRenderer.draw(mTexture, mTexMatrix);
+        int next = 1;
+        boolean timed = mProcessedFrames++ % PROCESSOR_TIMING_PERIOD == 0;
+        for (int i = 0; i <= last; i++) {
+            ProcessorEntry entry = mProcessors.get(i);
+            if (entry.bypassed) continue;
+
+            int output = mFramebuffers.bind(next, width, height);
+            GLES20.glViewport(0, 0, width, height);
+            entry.process(input, width, height, timed);
+            input = output;
+            next ^= 1;
+        }
+        mProcessedTexture = input;
+        return input;
+    }
+
+    private Output findOutput(Surface surface) {
+        for (int i = 0; i < mOutputs.size(); i++) {
+            if (mOutputs.get(i).surface == surface) return mOutputs.get(i);
+        }
+        return null;
+    }
+
+    private void releaseOutput(Output output) {
+        mHandler.removeCallbacks(output.presentRunnable);
+        output.presentScheduled = false;
+        output.framePending = false;
+        output.metrics.onPresentationPaused();
+        if (output.eglSurface != EGL14.EGL_NO_SURFACE) {
+            mEglCore.makeCurrent(mPbuffer);
+            mEglCore.releaseSurface(output.eglSurface);
+            output.eglSurface = EGL14.EGL_NO_SURFACE;
+        }
+    }
+
+    /**
+     * forget outputs whose surface was abandoned while presenting
+     */
+    private void removeAbandonedOutputs() {
+        for (int i = mOutputs.size() - 1; i >= 0; i--) {
+            if (mOutputs.get(i).eglSurface == EGL14.EGL_NO_SURFACE) mOutputs.remove(i);
+        }
+    }
+
+    /**
+     * release all GL resources and stop the relay thread
+     */
+    public void release() {
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                if (mEglCore == null) return;
+                mHandler.removeCallbacks(mLogMetricsRunnable);
+                for (int i = 0; i < mOutputs.size(); i++) {
+                    releaseOutput(mOutputs.get(i));
+                }
+                mOutputs.clear();
+                if (mDetector != null) mDetector.release();
+                for (int i = 0; i < mProcessors.size(); i++) {
+                    mProcessors.get(i).release();
+                }
+                mProcessors.clear();
+                mFramebuffers.release();
+                mSurfaceTexture.release();
+                mInputSurface.release();
+                mRenderer.release();
+                mProcessedRenderer.release();
+                GlUtil.deleteTexture(mTexture);
+                mEglCore.releaseSurface(mPbuffer);
+                mEglCore.release();
+                mEglCore = null;
+            }
+        });
+        mThread.quitSafely();
+        CastResourceTracker.close(CastResourceTracker.Kind.FRAME_RELAY, this);
+    }
+
+    /**
+     * run {@param runnable} on the relay thread and wait for it to finish
+     */
+    private void runAndWait(final Runnable runnable) {
+        if (Looper.myLooper() == mThread.getLooper()) {
+            runnable.run();
+            return;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final RuntimeException[] error = new RuntimeException[1];
+        boolean posted = mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (RuntimeException e) {
+                    error[0] = e;
+                } finally {
+                    latch.countDown();
+                }
+            }
+        });
+        if (!posted) {
+            Log.w(TAG, "Relay thread already stopped");
+            return;
+        }
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (error[0] != null) throw error[0];
+    }
+
+    /**
+     * a processor in the chain, with its frame size and frame-time budget bookkeeping
+     */
+    private static class ProcessorEntry {
+        final FrameProcessor processor;
+        final long budgetNanos;
+        boolean bypassed;
+        private int mWidth;
+        private int mHeight;
+        private int mOverruns;
+
+        ProcessorEntry(FrameProcessor processor, long budgetNanos) {
+            this.processor = processor;
+            this.budgetNanos = budgetNanos;
+        }
+
+        void process(int inputTexture, int width, int height, boolean timed) {
+            if (width != mWidth || height != mHeight) {
+                processor.onPrepare(width, height);
+                mWidth = width;
+                mHeight = height;
+            }
+            if (!timed || budgetNanos <= 0) {
+                processor.process(inputTexture, width, height);
+                return;
+            }
+
+            // drain the work queued before, e.g. the relay's own blit, so only the processor is timed
+            GLES20.glFinish();
+            long start = System.nanoTime();
+            processor.process(inputTexture, width, height);
+            GLES20.glFinish();
+            long elapsed = System.nanoTime() - start;
+            if (elapsed <= budgetNanos) {
+                mOverruns = 0;
+            } else if (++mOverruns >= PROCESSOR_MAX_OVERRUNS) {
+                Log.w(TAG, "Bypassing " + processor.getClass().getSimpleName() + ", took "
+                        + elapsed / 1000 + "us of a " + budgetNanos / 1000 + "us budget");
+                bypassed = true;
+            }
+        }
+
+        void release() {
+            if (mWidth != 0) processor.onRelease();
+        }
+    }
+
+    /**
+     * an output surface, paced independently of the others
+     */
+    private class Output {
+        final Surface surface;
+        // the input surface of a video encoder, rather than a presentation
+        final boolean encoder;
+        final FrameMetrics.Tracker metrics = mMetrics.newTracker();
+        EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+        int width;
+        int height;
+        boolean framePending;
+        boolean presentScheduled;
+        long lastPresentNanos;
+        long presentedTimestampNanos;
+        // moving average of how long a swap onto this output takes
+        float swapNanos;
+
+        final Runnable presentRunnable = new Runnable() {
+            @Override
+            public void run() {
+                presentScheduled = false;
+                if (framePending) present(Output.this, System.nanoTime());
+                removeAbandonedOutputs();
+            }
+        };
+
+        Output(Surface surface, boolean encoder) {
+            this.surface = surface;
+            this.encoder = encoder;
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package github.ankyl.castscreen;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import java.nio.FloatBuffer;
+
+/**
+ * FrameRenderer draws a {@link android.graphics.SurfaceTexture} frame, or a 2D texture, as a
+ * full-viewport quad, optionally through a custom fragment shader sampling {@code sTexture} at
+ * {@code vTextureCoord}
+ */
+class FrameRenderer {
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uTexMatrix;\n" +
+            "attribute vec4 aPosition;\n" +
+            "attribute vec4 aTextureCoord;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = aPosition;\n" +
+            "    vTextureCoord = (uTexMatrix * aTextureCoord).xy;\n" +
+            "}\n";
+    private static final String FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+            "precision mediump float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform samplerExternalOES sTexture;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
+            "}\n";
+    static final String FRAGMENT_SHADER_2D =
+            "precision mediump float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform sampler2D sTexture;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n" +
+            "}\n";
+    private static final FloatBuffer POSITIONS = GlUtil.createFloatBuffer(new float[] {
+            -1f, -1f,
+            1f, -1f,
+            -1f, 1f,
+            1f, 1f
+    });
+    private static final FloatBuffer TEXTURE_COORDS = GlUtil.createFloatBuffer(new float[] {
+            0f, 0f,
+            1f, 0f,
+            0f, 1f,
+            1f, 1f
+    });
+
+    private final int mTextureTarget;
+    private int mProgram;
+    private int mTexMatrixLocation;
+    private int mPositionLocation;
+    private int mTextureCoordLocation;
+
+    FrameRenderer() {
+        this(FRAGMENT_SHADER);
+    }
+
+    FrameRenderer(String fragmentShader) {
+        this(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, fragmentShader);
+    }
+
+    /**
+     * @param textureTarget GL_TEXTURE_EXTERNAL_OES or GL_TEXTURE_2D, matching the shader's sampler
+     */
+    FrameRenderer(int textureTarget, String fragmentShader) {
+        mTextureTarget = textureTarget;
+        mProgram = GlUtil.createProgram(VERTEX_SHADER, fragmentShader);
+        mTexMatrixLocation = GLES20.glGetUniformLocation(mProgram, "uTexMatrix");
+        mPositionLocation = GLES20.glGetAttribLocation(mProgram, "aPosition");
+        mTextureCoordLocation = GLES20.glGetAttribLocation(mProgram, "aTextureCoord");
+    }
+
+    int getProgram() {
+        return mProgram;
+    }
+
+    /**
+     * @param texture an external texture attached to a SurfaceTexture, or a 2D texture
+     * @param texMatrix the SurfaceTexture's transform matrix, or any texture coordinate transform
+     */
+    void draw(int texture, float[] texMatrix) {
+        GLES20.glUseProgram(mProgram);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(mTextureTarget, texture);
+        GLES20.glUniformMatrix4fv(mTexMatrixLocation, 1, false, texMatrix, 0);
+
+        GLES20.glEnableVertexAttribArray(mPositionLocation);
+        GLES20.glVertexAttribPointer(mPositionLocation, 2, GLES20.GL_FLOAT, false, 0, POSITIONS);
+        GLES20.glEnableVertexAttribArray(mTextureCoordLocation);
+        GLES20.glVertexAttribPointer(mTextureCoordLocation, 2, GLES20.GL_FLOAT, false, 0, TEXTURE_COORDS);
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+        GLES20.glDisableVertexAttribArray(mPositionLocation);
+        GLES20.glDisableVertexAttribArray(mTextureCoordLocation);
+        GLES20.glBindTexture(mTextureTarget, 0);
+        GLES20.glUseProgram(0);
+    }
+
+    void release() {
+        GLES20.glDeleteProgram(mProgram);
+        mProgram = 0;
+    }
+
+}
@@ -0,0 +1,66 @@
+package github.ankyl.castscreen;
+
+import android.graphics.Point;
+import android.view.Surface;
+
+/**
+ * A FrameSource produces the frames shown on the presentations, through its {@link FrameRelay}:
+ * the user's screen captured by the {@link ProjectionManager}, or a generated
+ * {@link TestPatternSource} for repeatable measurements. Except where noted, it is used on the
+ * session thread of {@link CastScreenThreads}.
+ */
+public interface FrameSource {
+
+    /**
+     * @param surface a Surface on which to draw the frames, in addition to any others
+     * @param width width of the surface's buffers, as returned by {@link #getCaptureSize(int, int)}
+     * @param height height of the surface's buffers, as returned by {@link #getCaptureSize(int, int)}
+     */
+    void drawOnSurface(Surface surface, int width, int height);
+
+    /**
+     * stop drawing on a surface that is about to be destroyed, keeping the source itself running
+     */
+    void detachSurface(Surface surface);
+
+    /**
+     * @param surfaceWidth width of the view showing the presentation surface
+     * @param surfaceHeight height of the view showing the presentation surface
+     * @return the buffer size to request for the presentation surface
+     */
+    Point getCaptureSize(int surfaceWidth, int surfaceHeight);
+
+    /**
+     * @return the size of what the presentations show, in pixels
+     */
+    Point getContentSize();
+
+    /**
+     * @return how the frames are fitted into the presentation when the aspect ratios differ
+     */
+    ProjectionManager.ScaleMode getScaleMode();
+
+    /**
+     * @param listener notified when the content size or scale mode changes; may be called on any thread
+     */
+    void addSourceSizeListener(ProjectionManager.SourceSizeListener listener);
+
+    void removeSourceSizeListener(ProjectionManager.SourceSizeListener listener);
+
+    /**
+     * @return the stage between the source and the presentations, e.g. to cap the frame rate
+     */
+    FrameRelay getFrameRelay();
+
+    /**
+     * stop or resume producing frames, e.g. while the sender's screen is off; the presentations
+     * keep showing the last frame meanwhile, and nothing needs to be recreated to resume
+     */
+    void setSuspended(boolean suspended);
+
+    /**
+     * stop producing frames and release the relay
+     */
+    void release();
+
+}
@@ -0,0 +1,70 @@
+package github.ankyl.castscreen;
+
+import android.opengl.GLES20;
+
+/**
+ * FramebufferPool keeps a fixed number of same-sized framebuffers with texture color attachments,
+ * so intermediate frames can be rendered without allocating GL objects per frame. The
+ * framebuffers are only recreated when the frame size changes.
+ */
+class FramebufferPool {
+    private final int[] mFramebuffers;
+    private final int[] mTextures;
+    private int mWidth;
+    private int mHeight;
+
+    FramebufferPool(int count) {
+        mFramebuffers = new int[count];
+        mTextures = new int[count];
+    }
+
+    /**
+     * bind framebuffer {@param index}, sized {@param width} x {@param height}
+     * @return the texture holding its contents
+     */
+    int bind(int index, int width, int height) {
+        if (width != mWidth || height != mHeight) {
+            release();
+            mWidth = width;
+            mHeight = height;
+        }
+        if (mFramebuffers[index] == 0) allocate(index);
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffers[index]);
+        return mTextures[index];
+    }
+
+    private void allocate(int index) {
+        GLES20.glGenTextures(1, mTextures, index);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[index]);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mWidth, mHeight, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        GLES20.glGenFramebuffers(1, mFramebuffers, index);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffers[index]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTextures[index], 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            throw new IllegalStateException("Incomplete framebuffer: 0x" + Integer.toHexString(status));
+        }
+    }
+
+    void release() {
+        for (int i = 0; i < mFramebuffers.length; i++) {
+            if (mFramebuffers[i] != 0) {
+                GLES20.glDeleteFramebuffers(1, mFramebuffers, i);
+                GLES20.glDeleteTextures(1, mTextures, i);
+                mFramebuffers[i] = 0;
+                mTextures[i] = 0;
+            }
+        }
+    }
+
+}
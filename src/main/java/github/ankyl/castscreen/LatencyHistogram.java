@@ -0,0 +1,136 @@
+package github.ankyl.castscreen;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts durations in microseconds into a fixed set of buckets, with roughly
+ * three significant bits of precision (at most 12.5% error) from 1us up to about 30s. Recording
+ * does not allocate or lock, so it can be done on the frame path, and {@link #snapshot()} can be
+ * taken from any thread while recording continues; a snapshot taken during a recording may miss
+ * that one value.
+ */
+public class LatencyHistogram {
+    // values below this are counted exactly, above it each power of two is split into this many buckets
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+    // 2^25us is about 33s; longer values are counted in the last bucket
+    private static final int MAX_EXPONENT = 24;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * count one value of {@param micros}; negative values are counted as 0
+     */
+    public void record(long micros) {
+        if (micros < 0) micros = 0;
+        mCounts.incrementAndGet(bucketOf(micros));
+        mCount.incrementAndGet();
+        mSum.addAndGet(micros);
+        long max = mMax.get();
+        while (micros > max && !mMax.compareAndSet(max, micros)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * forget all recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, mSum.get(), mMax.get());
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) return BUCKET_COUNT - 1;
+        int sub = (int) (micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the largest value counted in bucket {@param index}
+     */
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+
+    /**
+     * the values recorded up to the time {@link #snapshot()} was called
+     */
+    public static class Snapshot {
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            mCounts = counts;
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMeanMicros() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        public long getMaxMicros() {
+            return mMax;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return a value that {@param percentile} percent of the recorded values do not exceed
+         */
+        public long getPercentileMicros(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            }
+            if (mCount == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mCount));
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) return Math.min(upperBoundOf(i), mMax);
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + mCount + " mean=" + getMeanMicros() + "us p50=" + getPercentileMicros(50)
+                    + "us p90=" + getPercentileMicros(90) + "us p99=" + getPercentileMicros(99)
+                    + "us max=" + mMax + "us";
+        }
+    }
+
+}
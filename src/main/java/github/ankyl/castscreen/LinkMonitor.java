@@ -0,0 +1,309 @@
+package github.ankyl.castscreen;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LinkMonitor estimates the quality of the link to a receiver over the {@link MessageChannel} of
+ * its transport. It sends a small probe every couple of seconds and smooths the round-trip times
+ * of the echoes the way TCP does; a receiver that never answers is assumed not to support the
+ * channel, and probing stops. Receivers that do may also report their frame statistics, which are
+ * smoothed as well. Messages are JSON objects:
+ * <ul>
+ * <li>{@code {"type":"ping","seq":1,"sentUs":123}} from the sender, echoed by the receiver with
+ * {@code "type":"pong"} and the same seq and sentUs</li>
+ * <li>{@code {"type":"stats","framesDecoded":100,"framesDropped":2,"bufferMs":40}} from the
+ * receiver, with totals since the session started</li>
+ * </ul>
+ * {@link FakeControlReceiver} speaks the protocol in-process. Runs on the session thread of
+ * {@link CastScreenThreads}; listeners are called on the main thread.
+ */
+public class LinkMonitor {
+    private static final String TAG = "LinkMonitor";
+    /** the custom namespace of the channel */
+    public static final String NAMESPACE = "urn:x-cast:github.ankyl.castscreen";
+    static final long PROBE_INTERVAL_MS = 2 * 1000;
+    static final long PROBE_TIMEOUT_MS = 5 * 1000;
+    // probes left unanswered, with none answered before, after which the receiver is assumed not
+    // to support the channel
+    static final int MAX_UNANSWERED_PROBES = 3;
+    // gains of the smoothed round-trip time and its variation, as in TCP
+    private static final float RTT_GAIN = 1 / 8f;
+    private static final float RTT_VARIATION_GAIN = 1 / 4f;
+    private static final float STATS_GAIN = 1 / 4f;
+
+    /**
+     * the smoothed state of the link
+     */
+    public static class Estimate {
+        /** whether the receiver answered any probe */
+        public final boolean supported;
+        /** smoothed round-trip time, or -1 before the first answer */
+        public final float rttMillis;
+        /** smoothed mean deviation of the round-trip time */
+        public final float rttVariationMillis;
+        public final long probesSent;
+        public final long probesLost;
+        /** totals reported by the receiver, or -1 if it reports none */
+        public final long framesDecoded;
+        public final long framesDropped;
+        /** smoothed fraction of frames the receiver dropped between reports, or -1 */
+        public final float dropRate;
+        /** smoothed level of the receiver's buffer, or -1 */
+        public final float bufferMillis;
+
+        Estimate(boolean supported, float rttMillis, float rttVariationMillis, long probesSent, long probesLost,
+                 long framesDecoded, long framesDropped, float dropRate, float bufferMillis) {
+            this.supported = supported;
+            this.rttMillis = rttMillis;
+            this.rttVariationMillis = rttVariationMillis;
+            this.probesSent = probesSent;
+            this.probesLost = probesLost;
+            this.framesDecoded = framesDecoded;
+            this.framesDropped = framesDropped;
+            this.dropRate = dropRate;
+            this.bufferMillis = bufferMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "supported=" + supported + " rtt=" + rttMillis + "ms+-" + rttVariationMillis
+                    + " probes=" + probesSent + " lost=" + probesLost + " decoded=" + framesDecoded
+                    + " dropped=" + framesDropped + " dropRate=" + dropRate + " buffer=" + bufferMillis + "ms";
+        }
+    }
+
+    /**
+     * where the send and receive times of probes come from
+     */
+    interface Clock {
+        long nanoTime();
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * notified of every new estimate
+     */
+    public interface Listener {
+        /**
+         * @param transport the transport of the receiver the estimate is for
+         */
+        void onLinkEstimate(CastTransport transport, Estimate estimate);
+    }
+
+    private final CastTransport mTransport;
+    private final MessageChannel mChannel;
+    private final Listener mListener;
+    private final Clock mClock;
+    private final Handler mSessionHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // sent time of each probe awaiting its echo, by sequence number
+    private final LinkedHashMap<Long, Long> mPendingProbes = new LinkedHashMap<>();
+    private volatile Estimate mEstimate;
+
+    // only accessed on the session thread
+    private boolean mStarted;
+    private boolean mSupported;
+    private long mNextSeq;
+    private long mProbesSent;
+    private long mProbesLost;
+    private float mRttMillis = -1;
+    private float mRttVariationMillis;
+    private long mFramesDecoded = -1;
+    private long mFramesDropped = -1;
+    private float mDropRate = -1;
+    private float mBufferMillis = -1;
+
+    private final Runnable mProbeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            probe();
+        }
+    };
+
+    private final MessageChannel.Listener mChannelListener = new MessageChannel.Listener() {
+        @Override
+        public void onMessage(final String message) {
+            mSessionHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mStarted) handleMessage(message);
+                }
+            });
+        }
+    };
+
+    /**
+     * @param listener notified of every new estimate, or null
+     */
+    public LinkMonitor(CastTransport transport, MessageChannel channel, Listener listener) {
+        this(transport, channel, listener, SYSTEM_CLOCK);
+    }
+
+    LinkMonitor(CastTransport transport, MessageChannel channel, Listener listener, Clock clock) {
+        mTransport = transport;
+        mChannel = channel;
+        mListener = listener;
+        mClock = clock;
+        mSessionHandler = CastScreenThreads.getSessionHandler();
+        mEstimate = makeEstimate();
+    }
+
+    /**
+     * open the channel and start probing; must be called on the session thread
+     */
+    public void start() {
+        if (mStarted) return;
+        if (!mChannel.open(mChannelListener)) {
+            Log.w(TAG, "Could not open the control channel");
+            return;
+        }
+        mStarted = true;
+        probe();
+    }
+
+    /**
+     * stop probing and close the channel; must be called on the session thread
+     */
+    public void stop() {
+        if (!mStarted) return;
+        mStarted = false;
+        mSessionHandler.removeCallbacks(mProbeRunnable);
+        mChannel.close();
+        Log.i(TAG, "Link estimate at stop: " + mEstimate);
+    }
+
+    /**
+     * @return the latest estimate; safe to call from any thread
+     */
+    public Estimate getEstimate() {
+        return mEstimate;
+    }
+
+    private void probe() {
+        if (!mStarted) return;
+        expireProbes(mClock.nanoTime());
+        if (!mSupported && mProbesLost >= MAX_UNANSWERED_PROBES) {
+            Log.i(TAG, "Receiver does not answer probes; assuming it does not support the control channel");
+            mChannel.close();
+            mStarted = false;
+            publish();
+            return;
+        }
+
+        long seq = mNextSeq++;
+        long sentNanos = mClock.nanoTime();
+        try {
+            JSONObject ping = new JSONObject()
+                    .put("type", "ping")
+                    .put("seq", seq)
+                    .put("sentUs", sentNanos / 1000);
+            if (mChannel.send(ping.toString())) {
+                mPendingProbes.put(seq, sentNanos);
+                mProbesSent++;
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        mSessionHandler.postDelayed(mProbeRunnable, PROBE_INTERVAL_MS);
+    }
+
+    /**
+     * count the probes whose echo is overdue as lost
+     */
+    private void expireProbes(long nowNanos) {
+        boolean expired = false;
+        Iterator<Map.Entry<Long, Long>> probes = mPendingProbes.entrySet().iterator();
+        while (probes.hasNext()) {
+            if (nowNanos - probes.next().getValue() < PROBE_TIMEOUT_MS * 1000000L) break;
+            probes.remove();
+            mProbesLost++;
+            expired = true;
+        }
+        if (expired) publish();
+    }
+
+    private void handleMessage(String message) {
+        JSONObject json;
+        try {
+            json = new JSONObject(message);
+        } catch (JSONException e) {
+            Log.d(TAG, "Ignoring malformed message: " + message);
+            return;
+        }
+        String type = json.optString("type");
+        if ("pong".equals(type)) {
+            Long sentNanos = mPendingProbes.remove(json.optLong("seq", -1));
+            // late echoes of probes already counted as lost are ignored
+            if (sentNanos != null) onRtt((mClock.nanoTime() - sentNanos) / 1e6f);
+        } else if ("stats".equals(type)) {
+            onStats(json.optLong("framesDecoded", -1), json.optLong("framesDropped", -1),
+                    json.optDouble("bufferMs", -1));
+        }
+    }
+
+    private void onRtt(float rttMillis) {
+        mSupported = true;
+        if (mRttMillis < 0) {
+            mRttMillis = rttMillis;
+            mRttVariationMillis = rttMillis / 2;
+        } else {
+            mRttVariationMillis += RTT_VARIATION_GAIN * (Math.abs(mRttMillis - rttMillis) - mRttVariationMillis);
+            mRttMillis += RTT_GAIN * (rttMillis - mRttMillis);
+        }
+        publish();
+    }
+
+    private void onStats(long framesDecoded, long framesDropped, double bufferMillis) {
+        mSupported = true;
+        if (framesDecoded >= 0 && framesDropped >= 0) {
+            if (mFramesDecoded >= 0 && framesDecoded >= mFramesDecoded && framesDropped >= mFramesDropped) {
+                long decoded = framesDecoded - mFramesDecoded;
+                long dropped = framesDropped - mFramesDropped;
+                if (decoded + dropped > 0) {
+                    float dropRate = (float) dropped / (decoded + dropped);
+                    mDropRate = mDropRate < 0 ? dropRate : mDropRate + STATS_GAIN * (dropRate - mDropRate);
+                }
+            }
+            mFramesDecoded = framesDecoded;
+            mFramesDropped = framesDropped;
+        }
+        if (bufferMillis >= 0) {
+            float buffer = (float) bufferMillis;
+            mBufferMillis = mBufferMillis < 0 ? buffer : mBufferMillis + STATS_GAIN * (buffer - mBufferMillis);
+        }
+        publish();
+    }
+
+    private Estimate makeEstimate() {
+        return new Estimate(mSupported, mRttMillis, mRttVariationMillis, mProbesSent, mProbesLost,
+                mFramesDecoded, mFramesDropped, mDropRate, mBufferMillis);
+    }
+
+    private void publish() {
+        final Estimate estimate = makeEstimate();
+        mEstimate = estimate;
+        if (mListener == null) return;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onLinkEstimate(mTransport, estimate);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,226 @@
+package github.ankyl.castscreen;
+
+import android.content.Context;
+import android.graphics.PixelFormat;
+import android.hardware.display.DisplayManager;
+import android.hardware.display.VirtualDisplay;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.view.Display;
+
+/**
+ * LoopbackCastTransport is an in-process stand-in for a Cast receiver. Its remote display is a
+ * private virtual display rendering into an {@link ImageReader}, which counts and timestamps the
+ * frames the presentation shows instead of sending them anywhere. Use it to measure the
+ * pipeline's throughput and exercise the session lifecycle without a Cast device; {@link
+ * #simulateConnectionLoss(String)} triggers the same recovery as a real network blip.
+ */
+public class LoopbackCastTransport implements CastTransport {
+    private static final String TAG = "LoopbackCastTransport";
+    private static final String DISPLAY_NAME = "CastScreenLoopback";
+    private static final int MAX_IMAGES = 2;
+
+    private final DisplayManager mDisplayManager;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mDensityDpi;
+    private final Handler mSessionHandler;
+    private final HandlerThread mSinkThread;
+    private final Handler mSinkHandler;
+    private final LatencyHistogram mFrameIntervals = new LatencyHistogram();
+    private final FakeControlReceiver mControlReceiver;
+    private Listener mListener;
+    private boolean mConnected;
+    private ImageReader mImageReader;
+    private VirtualDisplay mDisplay;
+
+    private volatile long mFrameCount;
+    private volatile long mLastFrameTimestampNanos;
+    // only accessed on the sink thread
+    private long mLastFrameNanos;
+
+    private final ImageReader.OnImageAvailableListener mImageListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image = reader.acquireLatestImage();
+            if (image == null) return;
+            long now = System.nanoTime();
+            mLastFrameTimestampNanos = image.getTimestamp();
+            image.close();
+
+            if (mLastFrameNanos != 0) mFrameIntervals.record((now - mLastFrameNanos) / 1000);
+            mLastFrameNanos = now;
+            mFrameCount++;
+        }
+    };
+
+    /**
+     * @param width width of the loopback display, in pixels
+     * @param height height of the loopback display, in pixels
+     * @param densityDpi density of the loopback display
+     */
+    public LoopbackCastTransport(Context context, int width, int height, int densityDpi) {
+        mDisplayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        mWidth = width;
+        mHeight = height;
+        mDensityDpi = densityDpi;
+        mSessionHandler = CastScreenThreads.getSessionHandler();
+        mSinkThread = new HandlerThread(DISPLAY_NAME, Process.THREAD_PRIORITY_DISPLAY);
+        mSinkThread.start();
+        mSinkHandler = new Handler(mSinkThread.getLooper());
+        mControlReceiver = new FakeControlReceiver(new FakeControlReceiver.FrameCounter() {
+            @Override
+            public long getFrameCount() {
+                return mFrameCount;
+            }
+        });
+    }
+
+    @Override
+    public boolean setContentMode(ContentClassifier.Mode mode) {
+        // frames are not encoded, so there is nothing to configure
+        return false;
+    }
+
+    @Override
+    public void connect(Listener listener) {
+        mListener = listener;
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener == null) return;
+                mConnected = true;
+                mListener.onConnected();
+            }
+        });
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    @Override
+    public void startRemoteDisplay(final ResultCallback<Display> callback) {
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mConnected) {
+                    callback.onFailure("not connected");
+                    return;
+                }
+                releaseDisplay();
+                mImageReader = ImageReader.newInstance(mWidth, mHeight, PixelFormat.RGBA_8888, MAX_IMAGES);
+                mImageReader.setOnImageAvailableListener(mImageListener, mSinkHandler);
+                mDisplay = mDisplayManager.createVirtualDisplay(DISPLAY_NAME, mWidth, mHeight, mDensityDpi,
+                        mImageReader.getSurface(), DisplayManager.VIRTUAL_DISPLAY_FLAG_PRESENTATION);
+                if (mDisplay == null) {
+                    releaseDisplay();
+                    callback.onFailure("could not create loopback display");
+                    return;
+                }
+                callback.onSuccess(mDisplay.getDisplay());
+            }
+        });
+    }
+
+    @Override
+    public void stopRemoteDisplay(final ResultCallback<Void> callback) {
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseDisplay();
+                callback.onSuccess(null);
+            }
+        });
+    }
+
+    /**
+     * @return a {@link FakeControlReceiver} reporting the frames that reached the loopback display
+     */
+    @Override
+    public FakeControlReceiver getMessageChannel() {
+        return mControlReceiver;
+    }
+
+    @Override
+    public void disconnect() {
+        mListener = null;
+        mConnected = false;
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseDisplay();
+            }
+        });
+    }
+
+    /**
+     * drop the connection as if the network failed, so the session goes through recovery
+     */
+    public void simulateConnectionLoss(final String reason) {
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener == null) return;
+                Log.i(TAG, "Simulating connection loss: " + reason);
+                mConnected = false;
+                releaseDisplay();
+                mListener.onConnectionLost(reason);
+            }
+        });
+    }
+
+    /**
+     * @return number of frames that reached the loopback display
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return timestamp of the last frame that reached the loopback display, in
+     * {@link System#nanoTime()} base
+     */
+    public long getLastFrameTimestampNanos() {
+        return mLastFrameTimestampNanos;
+    }
+
+    /**
+     * @return intervals between frames reaching the loopback display
+     */
+    public LatencyHistogram.Snapshot getFrameIntervals() {
+        return mFrameIntervals.snapshot();
+    }
+
+    /**
+     * forget the intervals counted so far, e.g. to measure the gap around a single change
+     */
+    public void resetFrameIntervals() {
+        mFrameIntervals.reset();
+    }
+
+    /**
+     * stop the frame sink thread; the transport cannot be used afterwards
+     */
+    public void release() {
+        disconnect();
+        mSinkThread.quitSafely();
+    }
+
+    private void releaseDisplay() {
+        if (mDisplay != null) {
+            mDisplay.release();
+            mDisplay = null;
+        }
+        if (mImageReader != null) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package github.ankyl.castscreen;
+
+/**
+ * MessageChannel exchanges text messages with the receiver application on a custom namespace,
+ * alongside the remote display session, e.g. for the probes and reports of the
+ * {@link LinkMonitor}. A channel belongs to one connection of its {@link CastTransport}.
+ */
+public interface MessageChannel {
+
+    /**
+     * receives the messages of the receiver; may be called on any thread
+     */
+    interface Listener {
+        void onMessage(String message);
+    }
+
+    /**
+     * start delivering the receiver's messages to {@param listener} until {@link #close()}
+     * @return false if the channel could not be opened, e.g. because the connection was lost
+     */
+    boolean open(Listener listener);
+
+    /**
+     * @return false if the message could not be sent
+     */
+    boolean send(String message);
+
+    void close();
+
+}
@@ -0,0 +1,91 @@
+package github.ankyl.castscreen;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.opengl.Matrix;
+
+/**
+ * Draws a {@link Bitmap} over the frame, e.g. a logo or a watermark. The bitmap is uploaded to a
+ * texture once per {@link #setBitmap(Bitmap)}, not per frame.
+ */
+public class OverlayFrameProcessor extends ShaderFrameProcessor {
+    private final float[] mOverlayMatrix = new float[16];
+    private final int[] mTextureId = new int[1];
+    private volatile Bitmap mPendingBitmap;
+    // left, top, right, bottom as fractions of the frame, replaced as a whole so reads are consistent
+    private volatile float[] mBounds;
+
+    /**
+     * @param bitmap the overlay; must not be recycled until it is replaced or the processor is removed
+     */
+    public OverlayFrameProcessor(Bitmap bitmap, float left, float top, float right, float bottom) {
+        // bitmaps are stored top row first, so flip them vertically
+        Matrix.setIdentityM(mOverlayMatrix, 0);
+        mOverlayMatrix[5] = -1f;
+        mOverlayMatrix[13] = 1f;
+        setBitmap(bitmap);
+        setBounds(left, top, right, bottom);
+    }
+
+    public void setBitmap(Bitmap bitmap) {
+        mPendingBitmap = bitmap;
+    }
+
+    /**
+     * set where the overlay is drawn, as fractions of the frame's width and height from its top left
+     */
+    public void setBounds(float left, float top, float right, float bottom) {
+        if (left >= right || top >= bottom) {
+            throw new IllegalArgumentException("Invalid bounds " + left + ", " + top + ", " + right + ", " + bottom);
+        }
+        mBounds = new float[] { left, top, right, bottom };
+    }
+
+    @Override
+    public void process(int inputTexture, int width, int height) {
+        super.process(inputTexture, width, height);
+
+        Bitmap bitmap = mPendingBitmap;
+        if (bitmap != null) {
+            mPendingBitmap = null;
+            uploadBitmap(bitmap);
+        }
+        if (mTextureId[0] == 0) return;
+
+        float[] bounds = mBounds;
+        GLES20.glViewport((int) (bounds[0] * width), (int) ((1f - bounds[3]) * height),
+                (int) ((bounds[2] - bounds[0]) * width), (int) ((bounds[3] - bounds[1]) * height));
+        GLES20.glEnable(GLES20.GL_BLEND);
+        // bitmaps are premultiplied
+        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        draw(mTextureId[0], mOverlayMatrix);
+        GLES20.glDisable(GLES20.GL_BLEND);
+        GLES20.glViewport(0, 0, width, height);
+    }
+
+    private void uploadBitmap(Bitmap bitmap) {
+        if (mTextureId[0] == 0) {
+            GLES20.glGenTextures(1, mTextureId, 0);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId[0]);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        } else {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId[0]);
+        }
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
+
+    @Override
+    public void onRelease() {
+        if (mTextureId[0] != 0) {
+            GLES20.glDeleteTextures(1, mTextureId, 0);
+            mTextureId[0] = 0;
+        }
+        super.onRelease();
+    }
+
+}
@@ -0,0 +1,208 @@
+package github.ankyl.castscreen;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.view.Display;
+
+import com.google.android.gms.cast.ApplicationMetadata;
+import com.google.android.gms.cast.Cast;
+import com.google.android.gms.cast.CastDevice;
+import com.google.android.gms.cast.CastRemoteDisplay;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.ResultCallbacks;
+import com.google.android.gms.common.api.Status;
+
+import java.io.IOException;
+
+/**
+ * PlayServicesCastTransport casts to a {@link CastDevice} with the {@link CastRemoteDisplay} API,
+ * using a {@link GoogleApiClient} from the {@link CastApiClientPool}
+ */
+public class PlayServicesCastTransport implements CastTransport {
+    private static final String TAG = "PlayServicesCastTransport";
+    private final CastApiClientPool mClientPool;
+    private final CastDevice mDevice;
+    private final String mAppId;
+    private CastApiClientPool.PooledClient mPooledClient;
+    private GoogleApiClient mApiClient;
+    private Listener mListener;
+    private int mConfigPreset = CastRemoteDisplay.CONFIGURATION_INTERACTIVE_REALTIME;
+
+    /**
+     * @param appId the app id of the Remote Display Receiver
+     */
+    public PlayServicesCastTransport(Context context, CastDevice device, String appId) {
+        mClientPool = CastApiClientPool.getInstance(context);
+        mDevice = device;
+        mAppId = appId;
+    }
+
+    private final CastApiClientPool.SessionCallbacks mSessionCallbacks = new CastApiClientPool.SessionCallbacks() {
+        @Override
+        public void onConnected() {
+            mListener.onConnected();
+        }
+
+        @Override
+        public void onConnectionSuspended(int cause) {
+            mListener.onConnectionLost("GoogleApiClient connection suspended");
+        }
+
+        @Override
+        public void onConnectionFailed(ConnectionResult result) {
+            mListener.onConnectionLost("GoogleApiClient connection failed");
+        }
+
+        @Override
+        public void onApplicationDisconnected(int statusCode) {
+            mListener.onConnectionLost("application disconnected");
+        }
+
+        @Override
+        public void onApplicationMetadataChanged(ApplicationMetadata metadata) {
+            if (metadata != null && !metadata.getApplicationId().equals(mAppId)) {
+                mListener.onReceiverTakenOver();
+            }
+        }
+
+        @Override
+        public void onRemoteDisplayEnded(Status status) {
+            mListener.onConnectionLost("Remote Display session ended");
+        }
+    };
+
+    @Override
+    public boolean setContentMode(ContentClassifier.Mode mode) {
+        int preset = mode == ContentClassifier.Mode.VIDEO
+                ? CastRemoteDisplay.CONFIGURATION_NONINTERACTIVE
+                : CastRemoteDisplay.CONFIGURATION_INTERACTIVE_REALTIME;
+        if (preset == mConfigPreset) return false;
+        mConfigPreset = preset;
+        // the preset is an option of the client, so a connected session needs a new one
+        return mPooledClient != null;
+    }
+
+    @Override
+    public void connect(Listener listener) {
+        mListener = listener;
+        // Reuse a client connected while the user was choosing the route, or by a previous session
+        mPooledClient = mClientPool.acquire(mDevice, mConfigPreset, mSessionCallbacks);
+        mApiClient = mPooledClient.getClient();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mApiClient != null && mApiClient.isConnected();
+    }
+
+    @Override
+    public void startRemoteDisplay(final ResultCallback<Display> callback) {
+        PendingResult<CastRemoteDisplay.CastRemoteDisplaySessionResult> result =
+                CastRemoteDisplay.CastRemoteDisplayApi.startRemoteDisplay(mApiClient, mAppId);
+        result.setResultCallback(new ResultCallbacks<CastRemoteDisplay.CastRemoteDisplaySessionResult>() {
+            @Override
+            public void onSuccess(@NonNull CastRemoteDisplay.CastRemoteDisplaySessionResult castRemoteDisplaySessionResult) {
+                callback.onSuccess(castRemoteDisplaySessionResult.getPresentationDisplay());
+            }
+
+            @Override
+            public void onFailure(@NonNull Status status) {
+                callback.onFailure("startRemoteDisplay failed: " + status.getStatusCode());
+            }
+        });
+    }
+
+    @Override
+    public void stopRemoteDisplay(final ResultCallback<Void> callback) {
+        // the session usually disconnects right after; keep the pool from disconnecting the
+        // client before the receiver has stopped
+        final CastApiClientPool.PooledClient pooled = mPooledClient;
+        pooled.onStopStarted();
+        PendingResult<CastRemoteDisplay.CastRemoteDisplaySessionResult> result =
+                CastRemoteDisplay.CastRemoteDisplayApi.stopRemoteDisplay(mApiClient);
+        result.setResultCallback(new ResultCallbacks<CastRemoteDisplay.CastRemoteDisplaySessionResult>() {
+            @Override
+            public void onSuccess(@NonNull CastRemoteDisplay.CastRemoteDisplaySessionResult castRemoteDisplaySessionResult) {
+                pooled.onStopFinished();
+                callback.onSuccess(null);
+            }
+
+            @Override
+            public void onFailure(@NonNull Status status) {
+                pooled.onStopFinished();
+                callback.onFailure("stopRemoteDisplay failed: " + status.getStatusCode());
+            }
+        });
+    }
+
+    /**
+     * @return a channel on the receiver application of the current connection; receivers that do
+     * not listen on the namespace never answer
+     */
+    @Override
+    public MessageChannel getMessageChannel() {
+        return new MessageChannel() {
+            // the client the channel was opened on, as the transport may reconnect with another
+            private GoogleApiClient mChannelClient;
+
+            @Override
+            public boolean open(final Listener listener) {
+                GoogleApiClient client = mApiClient;
+                if (client == null || !client.isConnected()) return false;
+                try {
+                    Cast.CastApi.setMessageReceivedCallbacks(client, LinkMonitor.NAMESPACE,
+                            new Cast.MessageReceivedCallback() {
+                                @Override
+                                public void onMessageReceived(CastDevice device, String namespace, String message) {
+                                    listener.onMessage(message);
+                                }
+                            });
+                } catch (IOException | IllegalStateException e) {
+                    Log.w(TAG, "Could not open the message channel", e);
+                    return false;
+                }
+                mChannelClient = client;
+                return true;
+            }
+
+            @Override
+            public boolean send(String message) {
+                GoogleApiClient client = mChannelClient;
+                if (client == null || !client.isConnected()) return false;
+                try {
+                    Cast.CastApi.sendMessage(client, LinkMonitor.NAMESPACE, message);
+                } catch (IllegalStateException e) {
+                    Log.d(TAG, "Could not send a message", e);
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            public void close() {
+                GoogleApiClient client = mChannelClient;
+                mChannelClient = null;
+                if (client == null || !client.isConnected()) return;
+                try {
+                    Cast.CastApi.removeMessageReceivedCallbacks(client, LinkMonitor.NAMESPACE);
+                } catch (IOException | IllegalStateException e) {
+                    Log.d(TAG, "Could not close the message channel", e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void disconnect() {
+        // Keep the client connected for a while, in case the user casts to this device again
+        if (mPooledClient != null) {
+            mClientPool.release(mPooledClient);
+            mPooledClient = null;
+        }
+        mApiClient = null;
+    }
+
+}
@@ -1,68 +1,396 @@
 package github.ankyl.castscreen;
 
 import android.content.Context;
-import android.content.Intent;
+import android.graphics.Point;
+import android.graphics.Rect;
 import android.hardware.display.DisplayManager;
 import android.hardware.display.VirtualDisplay;
 import android.media.projection.MediaProjection;
-import android.media.projection.MediaProjectionManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v7.media.MediaRouter;
 import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.Display;
 import android.view.Surface;
-import android.view.SurfaceView;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
- * ProjectionManager encapsulate the call to {@link MediaProjection} to draw the user's screen
- * on a {@link VirtualDisplay}
+ * ProjectionManager is the {@link FrameSource} of the user's screen: it encapsulates the call to
+ * {@link MediaProjection} to draw the screen on a {@link VirtualDisplay}, which renders through a
+ * {@link FrameRelay} onto the presentations.
+ * One capture can feed several presentations, e.g. to mirror the screen to several receivers; the
+ * virtual display is then sized for the largest of them. A region of interest limits the
+ * presentations to part of the screen, cropped and scaled up by the {@link FrameRelay}. Except for
+ * its constructor and {@link #setRegionOfInterest(Rect)}, it is used on the session thread of
+ * {@link CastScreenThreads}.
  */
-public class ProjectionManager {
+public class ProjectionManager implements FrameSource {
+    private static final String TAG = "ProjectionManager";
     private static final String VIRTUAL_DISPLAY_NAME = "CastScreenVirtualDisplay";
-    private int mDensity;
+    private int mSenderDensity;
+    private CaptureProfile mCaptureProfile;
     private MediaProjection mProjection;
+    private MediaProjection.Callback mProjectionCallback;
     private VirtualDisplay mDisplay;
+    private FrameRelay mRelay;
+    private DisplayManager mDisplayManager;
+    private final Point mSourceSize = new Point();
+    private ScaleMode mScaleMode = ScaleMode.LETTERBOX;
+    private final CopyOnWriteArrayList<SourceSizeListener> mSourceSizeListeners = new CopyOnWriteArrayList<>();
+    // buffer size of each surface drawn on
+    private final LinkedHashMap<Surface, Point> mSurfaceSizes = new LinkedHashMap<>();
+    private final Point mDisplaySize = new Point();
+    // part of the user's screen to show, in screen pixels, or null for all of it
+    private Rect mRegionOfInterest;
+    private float mCaptureScale = 1f;
+    private boolean mSuspended;
+    private boolean mRecreateOnResize;
+
+    /**
+     * how the user's screen is fitted into the presentation when the aspect ratios differ
+     */
+    public enum ScaleMode {
+        /** preserve the sender's aspect ratio and pad the remaining area with black bars */
+        LETTERBOX,
+        /** fill the whole presentation, distorting the image if necessary */
+        STRETCH
+    }
+
+    /**
+     * notified when the size of what is shown changes, e.g. when the device is rotated or the
+     * region of interest is moved
+     */
+    public interface SourceSizeListener {
+        void onSourceSizeChanged(int width, int height);
+    }
+
+    private final VirtualDisplay.Callback mVirtualDisplayCallback = new VirtualDisplay.Callback() {
+        @Override
+        public void onPaused() {
+            Log.i(TAG, "Virtual display paused");
+        }
+
+        @Override
+        public void onResumed() {
+            Log.i(TAG, "Virtual display resumed");
+        }
 
-    public ProjectionManager(Context context, DisplayMetrics metrics,
-                             int permissionsResultCode, Intent permissionsData, final MediaRouter router) {
-        mDensity = metrics.densityDpi;
-        mProjection = ((MediaProjectionManager) context.getSystemService(Context.MEDIA_PROJECTION_SERVICE))
-                .getMediaProjection(permissionsResultCode, permissionsData);
+        @Override
+        public void onStopped() {
+            Log.i(TAG, "Virtual display stopped");
+        }
+    };
+
+    private final DisplayManager.DisplayListener mDisplayListener = new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {
+        }
+
+        @Override
+        public void onDisplayRemoved(int displayId) {
+        }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            if (displayId == Display.DEFAULT_DISPLAY && updateSourceSize()) onContentChanged();
+        }
+    };
+
+    /**
+     * @throws IllegalStateException if there is no valid {@link ScreenCaptureGrant}
+     */
+    public ProjectionManager(Context context, DisplayMetrics metrics, CaptureProfile captureProfile,
+                             final MediaRouter router) {
+        mSenderDensity = metrics.densityDpi;
+        mCaptureProfile = captureProfile;
+        mProjection = ScreenCaptureGrant.acquire(context);
         if (mProjection == null) {
-            throw new IllegalStateException("Null media projection manager - " + CastScreenActivity.PLEASE_REPORT_BUG);
+            throw new IllegalStateException("No valid screen capture permission");
         }
         // When the MediaProjection is stopped, deselect the active route to ensure casting stops
-        mProjection.registerCallback(new MediaProjection.Callback() {
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        mProjectionCallback = new MediaProjection.Callback() {
             @Override
             public void onStop() {
-                router.selectRoute(router.getDefaultRoute());
+                // because route selection must be done on the main thread
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        router.selectRoute(router.getDefaultRoute());
+                    }
+                });
+            }
+        };
+        mProjection.registerCallback(mProjectionCallback, CastScreenThreads.getProjectionHandler());
+
+        // Track rotation of the user's screen so the presentation can be letterboxed accordingly
+        mDisplayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        updateSourceSize();
+        mDisplayManager.registerDisplayListener(mDisplayListener, CastScreenThreads.getSessionHandler());
+
+        mRelay = new FrameRelay();
+    }
+
+    /**
+     * @param surface a Surface on which to draw user's screen, in addition to any others
+     * @param width width of the surface's buffers, as returned by {@link #getCaptureSize(int, int)}
+     * @param height height of the surface's buffers, as returned by {@link #getCaptureSize(int, int)}
+     */
+    @Override
+    public void drawOnSurface(Surface surface, int width, int height) {
+        mSurfaceSizes.put(surface, new Point(width, height));
+        updateDisplaySize();
+        mRelay.setOutputSurface(surface, width, height);
+    }
+
+    /**
+     * detach the relay from a surface that is about to be destroyed, keeping the virtual
+     * display itself alive so it can be reattached by {@link #drawOnSurface(Surface, int, int)}
+     */
+    @Override
+    public void detachSurface(Surface surface) {
+        mRelay.removeOutputSurface(surface);
+        if (mSurfaceSizes.remove(surface) != null && !mSurfaceSizes.isEmpty()) updateDisplaySize();
+    }
+
+    /**
+     * size the virtual display for the largest surface drawn on, creating it if needed
+     */
+    private void updateDisplaySize() {
+        int width = 0;
+        int height = 0;
+        for (Point size : mSurfaceSizes.values()) {
+            width = Math.max(width, size.x);
+            height = Math.max(height, size.y);
+        }
+        Rect region = getVisibleRegion();
+        if (region != null) {
+            // the whole screen is still captured, so keep its aspect ratio, and capture it at the
+            // scale that gives the region the resolution of the surfaces, up to the screen's own
+            float scale = Math.min(1f, Math.max((float) width / region.width(), (float) height / region.height()));
+            width = Math.max(1, Math.round(mSourceSize.x * scale));
+            height = Math.max(1, Math.round(mSourceSize.y * scale));
+        }
+        if (mCaptureScale < 1f) {
+            // the relay scales the smaller capture back up to the surfaces
+            width = Math.max(2, Math.round(width * mCaptureScale) & ~1);
+            height = Math.max(2, Math.round(height * mCaptureScale) & ~1);
+        }
+        if (mDisplay != null && width == mDisplaySize.x && height == mDisplaySize.y) return;
+        mDisplaySize.set(width, height);
+        int density = mCaptureProfile.getDensityDpi(mSenderDensity, mSourceSize, new Point(width, height));
+
+        mRelay.setInputSize(width, height);
+        if (mDisplay != null && mRecreateOnResize) releaseDisplay();
+        if (mDisplay == null) {
+            CastSessionMetrics.begin(CastSessionMetrics.Phase.CREATE_VIRTUAL_DISPLAY);
+            mDisplay = mProjection.createVirtualDisplay(
+                VIRTUAL_DISPLAY_NAME,
+                width,
+                height,
+                density,
+                DisplayManager.VIRTUAL_DISPLAY_FLAG_OWN_CONTENT_ONLY,
+                mSuspended ? null : mRelay.getInputSurface(),
+                mVirtualDisplayCallback,
+                CastScreenThreads.getDisplayHandler()
+            );
+            CastResourceTracker.open(CastResourceTracker.Kind.VIRTUAL_DISPLAY);
+            CastSessionMetrics.end(CastSessionMetrics.Phase.CREATE_VIRTUAL_DISPLAY);
+        } else {
+            // Reconfigure the existing display in place; releasing and recreating it leaves the
+            // receiver without frames and forces the encoder to start over with a keyframe
+            long start = SystemClock.elapsedRealtime();
+            mDisplay.resize(width, height, density);
+            Log.d(TAG, "Reconfigured virtual display to " + width + "x" + height + "@" + density + "dpi in "
+                    + (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+    }
+
+    /**
+     * capture at a fraction of the resolution, e.g. to keep the device from overheating; the
+     * running virtual display is resized in place
+     * @param scale fraction of the full capture resolution in each dimension, in (0, 1]
+     */
+    public void setCaptureScale(float scale) {
+        if (scale <= 0 || scale > 1) throw new IllegalArgumentException("Scale must be in (0, 1]");
+        if (scale == mCaptureScale) return;
+        mCaptureScale = scale;
+        if (!mSurfaceSizes.isEmpty()) updateDisplaySize();
+    }
+
+    /**
+     * detaching the relay from the virtual display stops the system from compositing the screen
+     * into it, while the display, the projection and the presentations are kept for resuming
+     */
+    @Override
+    public void setSuspended(boolean suspended) {
+        if (suspended == mSuspended) return;
+        mSuspended = suspended;
+        if (mDisplay != null) mDisplay.setSurface(suspended ? null : mRelay.getInputSurface());
+    }
+
+    /**
+     * @return the stage between the virtual display and the presentation, e.g. to cap the frame rate
+     */
+    @Override
+    public FrameRelay getFrameRelay() {
+        return mRelay;
+    }
+
+    /**
+     * @param surfaceWidth width of the view showing the presentation surface
+     * @param surfaceHeight height of the view showing the presentation surface
+     * @return the buffer size to request for the presentation surface, from the {@link CaptureProfile}
+     */
+    @Override
+    public Point getCaptureSize(int surfaceWidth, int surfaceHeight) {
+        return mCaptureProfile.getCaptureSize(surfaceWidth, surfaceHeight);
+    }
+
+    public void setScaleMode(ScaleMode scaleMode) {
+        mScaleMode = scaleMode;
+        notifySourceSizeChanged();
+    }
+
+    @Override
+    public ScaleMode getScaleMode() {
+        return mScaleMode;
+    }
+
+    @Override
+    public void addSourceSizeListener(SourceSizeListener listener) {
+        mSourceSizeListeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void removeSourceSizeListener(SourceSizeListener listener) {
+        mSourceSizeListeners.remove(listener);
+    }
+
+    private void notifySourceSizeChanged() {
+        Point size = getContentSize();
+        for (SourceSizeListener listener : mSourceSizeListeners) {
+            listener.onSourceSizeChanged(size.x, size.y);
+        }
+    }
+
+    /**
+     * @return the current size of the user's screen, in pixels
+     */
+    public Point getSourceSize() {
+        return new Point(mSourceSize);
+    }
+
+    /**
+     * @return the size of what the presentations show: the region of interest, or the whole
+     * screen, in pixels
+     */
+    @Override
+    public Point getContentSize() {
+        Rect region = getVisibleRegion();
+        return region == null ? new Point(mSourceSize) : new Point(region.width(), region.height());
+    }
+
+    /**
+     * show only {@param region} of the user's screen, e.g. the bounds of a single view, scaled up to
+     * fill the presentations; safe to call from any thread
+     * @param region in screen pixels from the top left, or null to show the whole screen
+     */
+    public void setRegionOfInterest(Rect region) {
+        final Rect copy = region == null ? null : new Rect(region);
+        CastScreenThreads.getSessionHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (mProjection == null) return; // released
+                if (copy == null ? mRegionOfInterest == null : copy.equals(mRegionOfInterest)) return;
+                mRegionOfInterest = copy;
+                onContentChanged();
             }
-        }, null);
+        });
     }
 
     /**
-     * @param view the SurfaceView on which to draw user's screen
+     * release and recreate the virtual display on every size change instead of resizing it in
+     * place, as before; only for benchmarks comparing the two
      */
-    public void drawOnSurfaceView(SurfaceView view) {
-        if (mDisplay != null) mDisplay.release();
+    void setRecreateOnResize(final boolean recreate) {
+        CastScreenThreads.getSessionHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                mRecreateOnResize = recreate;
+            }
+        });
+    }
 
-        Surface surface = view.getHolder().getSurface();
-        mDisplay = mProjection.createVirtualDisplay(
-            VIRTUAL_DISPLAY_NAME,
-            view.getWidth(),
-            view.getHeight(),
-            mDensity,
-            DisplayManager.VIRTUAL_DISPLAY_FLAG_OWN_CONTENT_ONLY,
-            surface,
-            null,
-            null
-        );
+    /**
+     * @return the region of interest within the current screen, or null if the whole screen is shown
+     */
+    private Rect getVisibleRegion() {
+        if (mRegionOfInterest == null) return null;
+        Rect region = new Rect(mRegionOfInterest);
+        if (!region.intersect(0, 0, mSourceSize.x, mSourceSize.y)) return null;
+        if (region.width() == mSourceSize.x && region.height() == mSourceSize.y) return null;
+        return region;
     }
 
+    /**
+     * apply a new screen size or region of interest to the relay, virtual display and presentations
+     */
+    private void onContentChanged() {
+        Rect region = getVisibleRegion();
+        if (region == null) {
+            mRelay.setCrop(null);
+        } else {
+            mRelay.setCrop(new float[] {
+                    (float) region.left / mSourceSize.x,
+                    (float) region.top / mSourceSize.y,
+                    (float) region.right / mSourceSize.x,
+                    (float) region.bottom / mSourceSize.y
+            });
+        }
+        if (!mSurfaceSizes.isEmpty()) updateDisplaySize();
+        notifySourceSizeChanged();
+    }
+
+    /**
+     * @return true if the size of the user's screen changed since the last call
+     */
+    private boolean updateSourceSize() {
+        Display display = mDisplayManager.getDisplay(Display.DEFAULT_DISPLAY);
+        if (display == null) return false;
+
+        Point size = new Point();
+        display.getRealSize(size);
+        if (size.equals(mSourceSize)) return false;
+
+        mSourceSize.set(size.x, size.y);
+        return true;
+    }
+
+    @Override
     public void release() {
-        if (mDisplay != null) mDisplay.release();
+        mDisplayManager.unregisterDisplayListener(mDisplayListener);
+        mSourceSizeListeners.clear();
+        releaseDisplay();
+        mRelay.release();
         if (mProjection != null) {
-            mProjection.stop();
+            // Keep the projection for the next cast instead of stopping it
+            mProjection.unregisterCallback(mProjectionCallback);
+            ScreenCaptureGrant.release(mProjection);
             mProjection = null;
         }
     }
 
-}
\ No newline at end of file
+    private void releaseDisplay() {
+        if (mDisplay != null) {
+            mDisplay.release();
+            CastResourceTracker.close(CastResourceTracker.Kind.VIRTUAL_DISPLAY, mDisplay);
+            mDisplay = null;
+        }
+    }
+
+}
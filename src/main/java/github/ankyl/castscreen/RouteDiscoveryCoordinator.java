@@ -0,0 +1,289 @@
+package github.ankyl.castscreen;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v7.media.MediaRouteSelector;
+import android.support.v7.media.MediaRouter;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RouteDiscoveryCoordinator owns the process' single registration with {@link MediaRouter}, so
+ * route discovery runs only as much as needed instead of once per activity and session. Callbacks
+ * are registered with it instead of the router; discovery is passive and runs only while at least
+ * one callback asks for it, e.g. while an activity with a Cast button is resumed, and active scans
+ * are time-boxed and only requested while the user is choosing a route. The routes found are kept
+ * in a list, and the time to discover the first route and the share of time spent actively
+ * scanning are recorded. Must be used on the main thread.
+ */
+public class RouteDiscoveryCoordinator {
+    private static final String TAG = "RouteDiscovery";
+    static final long ACTIVE_SCAN_MS = 15 * 1000;
+
+    private static RouteDiscoveryCoordinator sInstance;
+
+    private final Router mRouter;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LinkedHashMap<MediaRouter.Callback, Registration> mRegistrations = new LinkedHashMap<>();
+    private final ArrayList<MediaRouter.RouteInfo> mRoutes = new ArrayList<>();
+    private final LatencyHistogram mDiscoveryLatencies = new LatencyHistogram();
+    private final long mCreatedMillis = SystemClock.elapsedRealtime();
+    private int mRegisteredFlags = -1;
+    private boolean mActiveScan;
+    // when discovery started without any route known, or 0
+    private long mDiscoveryStartMillis;
+    private long mActiveScanStartMillis;
+    private long mActiveScanMillis;
+
+    private final Runnable mStopActiveScanRunnable = new Runnable() {
+        @Override
+        public void run() {
+            stopActiveScan();
+        }
+    };
+
+    /**
+     * the part of {@link MediaRouter} the coordinator registers with
+     */
+    interface Router {
+        void addCallback(MediaRouteSelector selector, MediaRouter.Callback callback, int flags);
+
+        void removeCallback(MediaRouter.Callback callback);
+
+        List<MediaRouter.RouteInfo> getRoutes();
+    }
+
+    /**
+     * a callback and what it listens for
+     */
+    private static class Registration {
+        final MediaRouteSelector selector;
+        final boolean discover;
+
+        Registration(MediaRouteSelector selector, boolean discover) {
+            this.selector = selector;
+            this.discover = discover;
+        }
+    }
+
+    private RouteDiscoveryCoordinator(Context context) {
+        this(wrap(MediaRouter.getInstance(context.getApplicationContext())));
+    }
+
+    RouteDiscoveryCoordinator(Router router) {
+        mRouter = router;
+    }
+
+    private static Router wrap(final MediaRouter router) {
+        return new Router() {
+            @Override
+            public void addCallback(MediaRouteSelector selector, MediaRouter.Callback callback, int flags) {
+                router.addCallback(selector, callback, flags);
+            }
+
+            @Override
+            public void removeCallback(MediaRouter.Callback callback) {
+                router.removeCallback(callback);
+            }
+
+            @Override
+            public List<MediaRouter.RouteInfo> getRoutes() {
+                return router.getRoutes();
+            }
+        };
+    }
+
+    public static synchronized RouteDiscoveryCoordinator getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RouteDiscoveryCoordinator(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * deliver the events of routes matching {@param selector} to {@param callback}, replacing any
+     * earlier registration of it
+     * @param discover whether to keep passive discovery running while the callback is registered;
+     *                 a callback that only needs to know when a route is unselected does not
+     */
+    public void addCallback(MediaRouteSelector selector, MediaRouter.Callback callback, boolean discover) {
+        mRegistrations.put(callback, new Registration(selector, discover));
+        updateRegistration();
+    }
+
+    public void removeCallback(MediaRouter.Callback callback) {
+        if (mRegistrations.remove(callback) != null) updateRegistration();
+    }
+
+    /**
+     * actively scan for routes for a while, e.g. while the route chooser is shown; ends early when
+     * a route is selected or {@link #stopActiveScan()} is called
+     */
+    public void requestActiveScan() {
+        mMainHandler.removeCallbacks(mStopActiveScanRunnable);
+        mMainHandler.postDelayed(mStopActiveScanRunnable, ACTIVE_SCAN_MS);
+        if (mActiveScan) return;
+        mActiveScan = true;
+        mActiveScanStartMillis = SystemClock.elapsedRealtime();
+        updateRegistration();
+    }
+
+    public void stopActiveScan() {
+        mMainHandler.removeCallbacks(mStopActiveScanRunnable);
+        if (!mActiveScan) return;
+        mActiveScan = false;
+        mActiveScanMillis += SystemClock.elapsedRealtime() - mActiveScanStartMillis;
+        updateRegistration();
+    }
+
+    /**
+     * @return the known routes matching {@param selector}, without the default route
+     */
+    public List<MediaRouter.RouteInfo> getRoutes(MediaRouteSelector selector) {
+        ArrayList<MediaRouter.RouteInfo> routes = new ArrayList<>();
+        for (int i = 0; i < mRoutes.size(); i++) {
+            if (mRoutes.get(i).matchesSelector(selector)) routes.add(mRoutes.get(i));
+        }
+        return routes;
+    }
+
+    /**
+     * @return time from starting discovery without any known route until the first was found
+     */
+    public LatencyHistogram.Snapshot getDiscoveryLatencies() {
+        return mDiscoveryLatencies.snapshot();
+    }
+
+    /**
+     * @return total time spent actively scanning
+     */
+    public long getActiveScanMillis() {
+        long millis = mActiveScanMillis;
+        if (mActiveScan) millis += SystemClock.elapsedRealtime() - mActiveScanStartMillis;
+        return millis;
+    }
+
+    /**
+     * @return share of the time since the coordinator was created that was spent actively scanning
+     */
+    public float getActiveScanDutyCycle() {
+        long elapsed = SystemClock.elapsedRealtime() - mCreatedMillis;
+        return elapsed <= 0 ? 0 : (float) getActiveScanMillis() / elapsed;
+    }
+
+    /**
+     * @return when discovery started without any known route, or 0 if it is not waiting for one
+     */
+    long getDiscoveryStartMillis() {
+        return mDiscoveryStartMillis;
+    }
+
+    /**
+     * register with the router for the union of all selectors, discovering only as much as asked
+     */
+    private void updateRegistration() {
+        int flags = 0;
+        boolean discover = false;
+        MediaRouteSelector.Builder selector = new MediaRouteSelector.Builder();
+        for (Registration registration : mRegistrations.values()) {
+            selector.addSelector(registration.selector);
+            discover |= registration.discover;
+        }
+        if (mActiveScan) {
+            flags = MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY | MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN;
+        } else if (discover) {
+            flags = MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY;
+        }
+
+        // flags can only be added to a registered callback, so register it again
+        mRouter.removeCallback(mRouterCallback);
+        if (mRegistrations.isEmpty() && !mActiveScan) {
+            mRegisteredFlags = -1;
+            mDiscoveryStartMillis = 0;
+            return;
+        }
+        mRouter.addCallback(selector.build(), mRouterCallback, flags);
+        if (mRoutes.isEmpty()) {
+            // routes the router already knew of are not announced again
+            for (MediaRouter.RouteInfo route : mRouter.getRoutes()) {
+                if (!route.isDefault()) mRoutes.add(route);
+            }
+        }
+        if (flags != mRegisteredFlags) {
+            Log.d(TAG, "Discovery " + (mActiveScan ? "active" : discover ? "passive" : "off")
+                    + " for " + mRegistrations.size() + " callbacks");
+        }
+        mRegisteredFlags = flags;
+
+        if (flags == 0) {
+            mDiscoveryStartMillis = 0;
+        } else if (mDiscoveryStartMillis == 0 && mRoutes.isEmpty()) {
+            mDiscoveryStartMillis = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * @return the callbacks registered for routes like {@param route}, copied so they may unregister
+     */
+    private List<MediaRouter.Callback> callbacksFor(MediaRouter.RouteInfo route) {
+        ArrayList<MediaRouter.Callback> callbacks = new ArrayList<>();
+        for (Map.Entry<MediaRouter.Callback, Registration> entry : mRegistrations.entrySet()) {
+            if (route.matchesSelector(entry.getValue().selector)) callbacks.add(entry.getKey());
+        }
+        return callbacks;
+    }
+
+    private final MediaRouter.Callback mRouterCallback = new MediaRouter.Callback() {
+        @Override
+        public void onRouteAdded(MediaRouter router, MediaRouter.RouteInfo route) {
+            if (!route.isDefault() && !mRoutes.contains(route)) mRoutes.add(route);
+            if (mDiscoveryStartMillis != 0) {
+                long latency = SystemClock.elapsedRealtime() - mDiscoveryStartMillis;
+                Log.d(TAG, "Discovered first route after " + latency + "ms");
+                mDiscoveryLatencies.record(latency * 1000);
+                mDiscoveryStartMillis = 0;
+            }
+            for (MediaRouter.Callback callback : callbacksFor(route)) {
+                callback.onRouteAdded(router, route);
+            }
+        }
+
+        @Override
+        public void onRouteRemoved(MediaRouter router, MediaRouter.RouteInfo route) {
+            mRoutes.remove(route);
+            for (MediaRouter.Callback callback : callbacksFor(route)) {
+                callback.onRouteRemoved(router, route);
+            }
+        }
+
+        @Override
+        public void onRouteChanged(MediaRouter router, MediaRouter.RouteInfo route) {
+            for (MediaRouter.Callback callback : callbacksFor(route)) {
+                callback.onRouteChanged(router, route);
+            }
+        }
+
+        @Override
+        public void onRouteSelected(MediaRouter router, MediaRouter.RouteInfo route) {
+            // the user made their choice
+            stopActiveScan();
+            for (MediaRouter.Callback callback : callbacksFor(route)) {
+                callback.onRouteSelected(router, route);
+            }
+        }
+
+        @Override
+        public void onRouteUnselected(MediaRouter router, MediaRouter.RouteInfo route) {
+            for (MediaRouter.Callback callback : callbacksFor(route)) {
+                callback.onRouteUnselected(router, route);
+            }
+        }
+    };
+
+}
@@ -0,0 +1,133 @@
+package github.ankyl.castscreen;
+
+import android.content.Context;
+import android.content.Intent;
+import android.media.projection.MediaProjection;
+import android.media.projection.MediaProjectionManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * ScreenCaptureGrant holds the user's screen capture permission for the whole process, so
+ * activities and repeated casts can skip the system permission dialog. After a cast ends, its
+ * {@link MediaProjection} is kept alive for a short grace period and handed to the next cast;
+ * after that, the stored permission result is used to create a new projection where the platform
+ * allows it. The dialog is only needed again when neither works.
+ */
+public class ScreenCaptureGrant {
+    private static final String TAG = "ScreenCaptureGrant";
+    // how long an unused projection is kept alive after a cast ends
+    private static final long GRACE_PERIOD_MS = 60 * 1000;
+    // Build.VERSION_CODES.Q; from then on a permission result can only create one projection
+    private static final int SINGLE_USE_RESULT_SDK = 29;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static int sResultCode;
+    private static Intent sData;
+    private static MediaProjection sProjection;
+    private static boolean sProjectionInUse;
+
+    private static final Runnable sExpireRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ScreenCaptureGrant.class) {
+                if (sProjection != null && !sProjectionInUse) {
+                    Log.d(TAG, "Stopping unused media projection");
+                    stopProjection();
+                }
+            }
+        }
+    };
+
+    private static final MediaProjection.Callback sProjectionCallback = new MediaProjection.Callback() {
+        @Override
+        public void onStop() {
+            synchronized (ScreenCaptureGrant.class) {
+                // stopped by the system or the user, so don't try to reuse the permission either
+                Log.i(TAG, "Media projection stopped; screen capture grant revoked");
+                sProjection = null;
+                sProjectionInUse = false;
+                sData = null;
+            }
+        }
+    };
+
+    private ScreenCaptureGrant() {
+    }
+
+    /**
+     * store the result of {@link MediaProjectionManager#createScreenCaptureIntent()}
+     */
+    public static synchronized void store(int resultCode, Intent data) {
+        sResultCode = resultCode;
+        sData = data;
+    }
+
+    /**
+     * @return true if a cast can probably start without asking the user for permission again
+     */
+    public static synchronized boolean isAvailable() {
+        return sProjection != null || (sData != null && Build.VERSION.SDK_INT < SINGLE_USE_RESULT_SDK);
+    }
+
+    /**
+     * @return a projection for a new cast, or null if the user has to grant permission again
+     */
+    static synchronized MediaProjection acquire(Context context) {
+        if (sProjectionInUse) {
+            Log.w(TAG, "Media projection already in use");
+            return null;
+        }
+        sMainHandler.removeCallbacks(sExpireRunnable);
+
+        if (sProjection == null && sData != null) {
+            MediaProjectionManager manager = (MediaProjectionManager)
+                    context.getSystemService(Context.MEDIA_PROJECTION_SERVICE);
+            try {
+                sProjection = manager.getMediaProjection(sResultCode, sData);
+            } catch (SecurityException | IllegalStateException e) {
+                Log.i(TAG, "Stored screen capture permission is no longer valid", e);
+            }
+            if (Build.VERSION.SDK_INT >= SINGLE_USE_RESULT_SDK || sProjection == null) sData = null;
+            if (sProjection != null) {
+                sProjection.registerCallback(sProjectionCallback, CastScreenThreads.getProjectionHandler());
+            }
+        }
+
+        sProjectionInUse = sProjection != null;
+        return sProjection;
+    }
+
+    /**
+     * hand back a projection obtained by {@link #acquire(Context)} when its cast ends
+     */
+    static synchronized void release(MediaProjection projection) {
+        if (projection != sProjection) {
+            projection.stop();
+            return;
+        }
+        sProjectionInUse = false;
+        sMainHandler.removeCallbacks(sExpireRunnable);
+        sMainHandler.postDelayed(sExpireRunnable, GRACE_PERIOD_MS);
+    }
+
+    /**
+     * stop any projection and forget the stored permission, so the next cast asks the user again
+     */
+    public static synchronized void invalidate() {
+        sMainHandler.removeCallbacks(sExpireRunnable);
+        sData = null;
+        sProjectionInUse = false;
+        if (sProjection != null) stopProjection();
+    }
+
+    private static void stopProjection() {
+        MediaProjection projection = sProjection;
+        sProjection = null;
+        projection.unregisterCallback(sProjectionCallback);
+        projection.stop();
+    }
+
+}
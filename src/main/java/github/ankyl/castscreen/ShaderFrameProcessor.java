@@ -0,0 +1,72 @@
+package github.ankyl.castscreen;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+/**
+ * Base class for a {@link FrameProcessor} that draws the frame through a single fragment shader.
+ * The shader samples {@code uniform sampler2D sTexture} at {@code varying vec2 vTextureCoord};
+ * subclasses look up their own uniforms in {@link #onProgramCreated(int)} and set them in
+ * {@link #onSetUniforms(float[])}.
+ */
+public abstract class ShaderFrameProcessor implements FrameProcessor {
+    private final String mFragmentShader;
+    private final float[] mTexMatrix = new float[16];
+    private FrameRenderer mRenderer;
+
+    /**
+     * draw the frame unchanged
+     */
+    protected ShaderFrameProcessor() {
+        this(FrameRenderer.FRAGMENT_SHADER_2D);
+    }
+
+    protected ShaderFrameProcessor(String fragmentShader) {
+        mFragmentShader = fragmentShader;
+        Matrix.setIdentityM(mTexMatrix, 0);
+    }
+
+    @Override
+    public void onPrepare(int width, int height) {
+        if (mRenderer == null) {
+            mRenderer = new FrameRenderer(GLES20.GL_TEXTURE_2D, mFragmentShader);
+            onProgramCreated(mRenderer.getProgram());
+        }
+    }
+
+    @Override
+    public void process(int inputTexture, int width, int height) {
+        GLES20.glUseProgram(mRenderer.getProgram());
+        onSetUniforms(mTexMatrix);
+        draw(inputTexture, mTexMatrix);
+    }
+
+    @Override
+    public void onRelease() {
+        if (mRenderer != null) {
+            mRenderer.release();
+            mRenderer = null;
+        }
+    }
+
+    /**
+     * @param program the linked program, in use
+     */
+    protected void onProgramCreated(int program) {
+    }
+
+    /**
+     * called with the program in use before every frame is drawn
+     * @param texMatrix texture coordinate transform, identity unless changed here
+     */
+    protected void onSetUniforms(float[] texMatrix) {
+    }
+
+    /**
+     * draw {@param texture} through this processor's shader into the current viewport
+     */
+    protected final void draw(int texture, float[] texMatrix) {
+        mRenderer.draw(texture, texMatrix);
+    }
+
+}
@@ -0,0 +1,189 @@
+package github.ankyl.castscreen;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Process;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * StreamReceiver is a reference receiver for {@link StreamingCastTransport}, e.g. to test the
+ * streaming path on a single device by connecting to it on localhost. It accepts one connection at
+ * a time, parses the frames, and records how long each took from being encoded to being received;
+ * as sender and receiver share a clock only on the same device, the latencies are meaningful for
+ * loopback only. Optionally, the stream is decoded onto a {@link Surface}.
+ */
+public class StreamReceiver {
+    private static final String TAG = "StreamReceiver";
+    private static final long DEQUEUE_TIMEOUT_US = 10 * 1000;
+
+    private final int mPort;
+    private final Surface mSurface;
+    private final LatencyHistogram mLatencies = new LatencyHistogram();
+    private ServerSocketChannel mServer;
+    private Thread mThread;
+    private volatile boolean mRunning;
+    private volatile long mFrameCount;
+    private volatile long mByteCount;
+
+    /**
+     * @param port port to listen on
+     * @param surface surface to decode the stream onto, or null to only measure it
+     */
+    public StreamReceiver(int port, Surface surface) {
+        mPort = port;
+        mSurface = surface;
+    }
+
+    /**
+     * start listening for a sender
+     */
+    public void start() throws IOException {
+        if (mThread != null) throw new IllegalStateException("Receiver already started");
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.socket().bind(new InetSocketAddress(mPort));
+        mServer = server;
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                while (mRunning) {
+                    try {
+                        SocketChannel channel = server.accept();
+                        receive(channel);
+                    } catch (IOException e) {
+                        if (mRunning) Log.w(TAG, "Stream ended", e);
+                    }
+                }
+            }
+        }, "CastScreenStreamReceiver");
+        mThread.start();
+    }
+
+    /**
+     * read frames from {@param channel} until the sender disconnects
+     */
+    private void receive(SocketChannel channel) throws IOException {
+        Log.i(TAG, "Sender connected from " + channel.socket().getRemoteSocketAddress());
+        ByteBuffer header = ByteBuffer.allocate(StreamingCastTransport.HEADER_SIZE);
+        MediaCodec decoder = null;
+        try {
+            while (mRunning) {
+                header.clear();
+                if (!readFully(channel, header)) return;
+                header.flip();
+                int size = header.getInt();
+                long presentationTimeUs = header.getLong();
+                int flags = header.get() & 0xff;
+
+                ByteBuffer payload = ByteBuffer.allocate(size);
+                if (!readFully(channel, payload)) return;
+                payload.flip();
+                mFrameCount++;
+                mByteCount += StreamingCastTransport.HEADER_SIZE + size;
+
+                boolean config = (flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                if (!config) mLatencies.record(Math.max(0, System.nanoTime() / 1000 - presentationTimeUs));
+                if (mSurface == null) continue;
+
+                if (config) {
+                    // a new stream, e.g. after the sender reconnected or changed size
+                    if (decoder != null) decoder.release();
+                    decoder = startDecoder(payload);
+                } else if (decoder != null) {
+                    decode(decoder, payload, presentationTimeUs, flags);
+                }
+            }
+        } finally {
+            if (decoder != null) decoder.release();
+            channel.close();
+            Log.i(TAG, "Sender disconnected after " + mFrameCount + " frames");
+        }
+    }
+
+    private static boolean readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) return false;
+        }
+        return true;
+    }
+
+    private MediaCodec startDecoder(ByteBuffer config) throws IOException {
+        // the size is only a hint; the decoder takes the real one from the configuration
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, 1280, 720);
+        format.setByteBuffer("csd-0", config);
+        MediaCodec decoder = MediaCodec.createDecoderByType(MediaFormat.MIMETYPE_VIDEO_AVC);
+        decoder.configure(format, mSurface, null, 0);
+        decoder.start();
+        return decoder;
+    }
+
+    private static void decode(MediaCodec decoder, ByteBuffer payload, long presentationTimeUs, int flags) {
+        int index = decoder.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+        if (index >= 0) {
+            ByteBuffer input = decoder.getInputBuffer(index);
+            input.clear();
+            input.put(payload);
+            decoder.queueInputBuffer(index, 0, input.position(), presentationTimeUs,
+                    flags & MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        } else {
+            Log.d(TAG, "Decoder busy; skipping a frame");
+        }
+
+        // render whatever is ready right away, for the lowest latency
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        int output;
+        while ((output = decoder.dequeueOutputBuffer(info, 0)) != MediaCodec.INFO_TRY_AGAIN_LATER) {
+            if (output >= 0) decoder.releaseOutputBuffer(output, true);
+        }
+    }
+
+    /**
+     * @return frames received, including codec configurations
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return bytes received, including headers
+     */
+    public long getByteCount() {
+        return mByteCount;
+    }
+
+    /**
+     * @return time from each frame being encoded until it was received
+     */
+    public LatencyHistogram.Snapshot getLatencies() {
+        return mLatencies.snapshot();
+    }
+
+    /**
+     * stop listening and close the connection
+     */
+    public void stop() {
+        mRunning = false;
+        if (mServer != null) {
+            try {
+                mServer.close();
+            } catch (IOException e) {
+                Log.d(TAG, "Failed closing server socket", e);
+            }
+            mServer = null;
+        }
+        if (mThread != null) {
+            mThread.interrupt();
+            mThread = null;
+        }
+    }
+
+}
@@ -0,0 +1,464 @@
+package github.ankyl.castscreen;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.hardware.display.VirtualDisplay;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+import android.view.Display;
+import android.view.Surface;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * StreamingCastTransport casts to a receiver of our own instead of a Cast device. Its remote
+ * display is a private virtual display rendering into a hardware H.264 encoder, and the encoded
+ * frames are streamed over a TCP connection from a non-blocking socket. Each frame is sent as a
+ * 13 byte header, with the payload length as an int, the presentation time in microseconds of
+ * {@link System#nanoTime()} as a long and the {@link MediaCodec} buffer flags as a byte, followed
+ * by the Annex-B payload; the first frame of a connection is the codec configuration, followed by
+ * a keyframe. Frames wait in a bounded send queue and are written in batches with gathering
+ * writes; when the queue is full, frames are dropped up to the next keyframe, so a slow link
+ * never stalls the encoder. {@link StreamReceiver} is a reference receiver.
+ */
+public class StreamingCastTransport implements CastTransport {
+    private static final String TAG = "StreamingCastTransport";
+    private static final String DISPLAY_NAME = "CastScreenStream";
+    static final int HEADER_SIZE = 13;
+    private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private static final int FRAME_RATE = 60;
+    private static final int I_FRAME_INTERVAL_S = 2;
+    private static final long DEQUEUE_TIMEOUT_US = 10 * 1000;
+    private static final long MAX_QUEUED_BYTES = 1024 * 1024;
+    // most frames handed to the socket in one gathering write
+    private static final int MAX_BATCH_FRAMES = 16;
+
+    private final DisplayManager mDisplayManager;
+    private final InetSocketAddress mAddress;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mDensityDpi;
+    private final int mBitRate;
+    private final Handler mSessionHandler;
+    private Listener mListener;
+    private volatile MediaCodec mEncoder;
+    private Surface mInputSurface;
+    private VirtualDisplay mDisplay;
+    private Thread mDrainThread;
+    private volatile boolean mDraining;
+
+    // the connection, owned by the sender thread once connecting
+    private volatile Thread mSenderThread;
+    private volatile Selector mSelector;
+    private volatile boolean mConnected;
+    // set when the receiver needs the codec configuration and a keyframe before anything else
+    private volatile boolean mNeedKeyFrame = true;
+    private volatile ByteBuffer mCodecConfig;
+
+    // frames waiting to be sent, guarded by itself
+    private final ArrayDeque<ByteBuffer> mQueue = new ArrayDeque<>();
+    private long mQueuedBytes;
+    private volatile long mSentFrames;
+    private volatile long mDroppedFrames;
+
+    /**
+     * @param host address of the receiver
+     * @param port port of the receiver
+     * @param width width of the streamed display, in pixels
+     * @param height height of the streamed display, in pixels
+     * @param densityDpi density of the streamed display
+     * @param bitRate target bit rate of the stream, in bits per second
+     */
+    public StreamingCastTransport(Context context, String host, int port, int width, int height, int densityDpi,
+                                  int bitRate) {
+        mDisplayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        mAddress = InetSocketAddress.createUnresolved(host, port);
+        mWidth = width & ~1;
+        mHeight = height & ~1;
+        mDensityDpi = densityDpi;
+        mBitRate = bitRate;
+        mSessionHandler = CastScreenThreads.getSessionHandler();
+    }
+
+    @Override
+    public boolean setContentMode(ContentClassifier.Mode mode) {
+        // the encoder is always configured for low latency
+        return false;
+    }
+
+    @Override
+    public void connect(Listener listener) {
+        mListener = listener;
+        final Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                runSender(Thread.currentThread());
+            }
+        }, "CastScreenStreamSender");
+        mSenderThread = sender;
+        sender.start();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    /**
+     * connect, then write queued frames whenever the socket can take them, until disconnected
+     */
+    private void runSender(Thread thread) {
+        Selector selector = null;
+        SocketChannel channel = null;
+        try {
+            selector = Selector.open();
+            mSelector = selector;
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            // resolve here, off the session thread
+            channel.connect(new InetSocketAddress(mAddress.getHostString(), mAddress.getPort()));
+            SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT);
+
+            while (mSenderThread == thread) {
+                selector.select();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    it.next();
+                    it.remove();
+                }
+                if (mSenderThread != thread) break;
+
+                if (!mConnected) {
+                    if (!key.isConnectable() || !channel.finishConnect()) continue;
+                    onSocketConnected();
+                }
+                boolean remaining = flush(channel);
+                key.interestOps(remaining ? SelectionKey.OP_WRITE : 0);
+            }
+        } catch (IOException e) {
+            if (mSenderThread == thread) onSocketLost("stream connection failed: " + e.getMessage());
+        } finally {
+            close(channel);
+            close(selector);
+        }
+    }
+
+    private void onSocketConnected() {
+        Log.i(TAG, "Connected to " + mAddress);
+        synchronized (mQueue) {
+            mQueue.clear();
+            mQueuedBytes = 0;
+        }
+        mNeedKeyFrame = true;
+        requestKeyFrame();
+        mConnected = true;
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null && mConnected) mListener.onConnected();
+            }
+        });
+    }
+
+    private void onSocketLost(final String reason) {
+        Log.w(TAG, reason);
+        mConnected = false;
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) mListener.onConnectionLost(reason);
+            }
+        });
+    }
+
+    /**
+     * write as many queued frames as the socket takes without blocking
+     * @return true if frames are left, so the sender should wait for the socket to be writable
+     */
+    private boolean flush(SocketChannel channel) throws IOException {
+        ByteBuffer[] batch = new ByteBuffer[MAX_BATCH_FRAMES];
+        while (true) {
+            int count = 0;
+            synchronized (mQueue) {
+                for (ByteBuffer frame : mQueue) {
+                    if (count == MAX_BATCH_FRAMES) break;
+                    batch[count++] = frame;
+                }
+            }
+            if (count == 0) return false;
+
+            channel.write(batch, 0, count);
+            synchronized (mQueue) {
+                while (!mQueue.isEmpty() && !mQueue.peekFirst().hasRemaining()) {
+                    mQueuedBytes -= mQueue.pollFirst().capacity();
+                    mSentFrames++;
+                }
+            }
+            if (batch[count - 1].hasRemaining()) return true;
+        }
+    }
+
+    @Override
+    public void startRemoteDisplay(final ResultCallback<Display> callback) {
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mConnected) {
+                    callback.onFailure("not connected");
+                    return;
+                }
+                releaseDisplay();
+                try {
+                    startEncoder();
+                } catch (IOException | RuntimeException e) {
+                    releaseDisplay();
+                    callback.onFailure("could not start encoder: " + e);
+                    return;
+                }
+                mDisplay = mDisplayManager.createVirtualDisplay(DISPLAY_NAME, mWidth, mHeight, mDensityDpi,
+                        mInputSurface, DisplayManager.VIRTUAL_DISPLAY_FLAG_PRESENTATION);
+                if (mDisplay == null) {
+                    releaseDisplay();
+                    callback.onFailure("could not create stream display");
+                    return;
+                }
+                callback.onSuccess(mDisplay.getDisplay());
+            }
+        });
+    }
+
+    private void startEncoder() throws IOException {
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, mWidth, mHeight);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, mBitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_S);
+        // keep encoding the last frame while the screen is static, so the receiver always has one
+        format.setLong(MediaFormat.KEY_REPEAT_PREVIOUS_FRAME_AFTER, 1000000L / 10);
+
+        mEncoder = MediaCodec.createEncoderByType(MIME_TYPE);
+        mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mInputSurface = mEncoder.createInputSurface();
+        mEncoder.start();
+        mCodecConfig = null;
+        mNeedKeyFrame = true;
+
+        final MediaCodec encoder = mEncoder;
+        mDraining = true;
+        mDrainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                drain(encoder);
+            }
+        }, "CastScreenStreamEncoder");
+        mDrainThread.start();
+    }
+
+    /**
+     * move encoded frames from {@param encoder} into the send queue until the display is released
+     */
+    private void drain(MediaCodec encoder) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        while (mDraining) {
+            int index;
+            try {
+                index = encoder.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Encoder failed", e);
+                return;
+            }
+            if (index < 0) continue;
+
+            if (info.size > 0) {
+                ByteBuffer frame = frame(encoder.getOutputBuffer(index), info);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                    mCodecConfig = frame;
+                } else {
+                    enqueue(frame, (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+                }
+            }
+            encoder.releaseOutputBuffer(index, false);
+        }
+    }
+
+    /**
+     * @return the header and payload of an encoded buffer, ready to be sent
+     */
+    private static ByteBuffer frame(ByteBuffer buffer, MediaCodec.BufferInfo info) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + info.size);
+        frame.putInt(info.size);
+        frame.putLong(info.presentationTimeUs);
+        frame.put((byte) info.flags);
+        buffer.position(info.offset);
+        buffer.limit(info.offset + info.size);
+        frame.put(buffer);
+        frame.flip();
+        return frame;
+    }
+
+    private void enqueue(ByteBuffer frame, boolean keyFrame) {
+        if (!mConnected) return;
+        boolean queued = false;
+        boolean overflow = false;
+        synchronized (mQueue) {
+            ByteBuffer config = mCodecConfig;
+            if (mNeedKeyFrame) {
+                // resume with the codec configuration and a keyframe, once there is room for both
+                if (keyFrame && config != null
+                        && mQueuedBytes + config.capacity() + frame.capacity() <= MAX_QUEUED_BYTES) {
+                    config = config.duplicate();
+                    mQueue.addLast(config);
+                    mQueuedBytes += config.capacity();
+                    mNeedKeyFrame = false;
+                }
+            } else if (mQueuedBytes + frame.capacity() > MAX_QUEUED_BYTES) {
+                Log.w(TAG, "Send queue full with " + mQueue.size() + " frames; dropping until the next keyframe");
+                mNeedKeyFrame = true;
+                overflow = true;
+            }
+
+            if (mNeedKeyFrame) {
+                mDroppedFrames++;
+            } else {
+                mQueue.addLast(frame);
+                mQueuedBytes += frame.capacity();
+                queued = true;
+            }
+        }
+        if (overflow) requestKeyFrame();
+        Selector selector = mSelector;
+        if (queued && selector != null) selector.wakeup();
+    }
+
+    private void requestKeyFrame() {
+        MediaCodec encoder = mEncoder;
+        if (encoder == null) return;
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        try {
+            encoder.setParameters(params);
+        } catch (IllegalStateException e) {
+            Log.d(TAG, "Could not request a keyframe from a stopped encoder");
+        }
+    }
+
+    @Override
+    public void stopRemoteDisplay(final ResultCallback<Void> callback) {
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseDisplay();
+                callback.onSuccess(null);
+            }
+        });
+    }
+
+    @Override
+    public MessageChannel getMessageChannel() {
+        // the stream is one-way; its receiver sends nothing back
+        return null;
+    }
+
+    @Override
+    public void disconnect() {
+        mListener = null;
+        mConnected = false;
+        mSenderThread = null;
+        Selector selector = mSelector;
+        mSelector = null;
+        if (selector != null) selector.wakeup();
+        synchronized (mQueue) {
+            mQueue.clear();
+            mQueuedBytes = 0;
+        }
+        mSessionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseDisplay();
+            }
+        });
+    }
+
+    /**
+     * @return bytes of encoded frames waiting to be sent
+     */
+    public long getQueuedBytes() {
+        synchronized (mQueue) {
+            return mQueuedBytes;
+        }
+    }
+
+    /**
+     * @return number of encoded frames waiting to be sent
+     */
+    public int getQueuedFrames() {
+        synchronized (mQueue) {
+            return mQueue.size();
+        }
+    }
+
+    /**
+     * @return number of frames fully written to the socket
+     */
+    public long getSentFrames() {
+        return mSentFrames;
+    }
+
+    /**
+     * @return number of encoded frames dropped because the send queue was full, or while waiting
+     * for a keyframe after a drop
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    private void releaseDisplay() {
+        if (mDisplay != null) {
+            mDisplay.release();
+            mDisplay = null;
+        }
+        if (mDrainThread != null) {
+            mDraining = false;
+            try {
+                mDrainThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mDrainThread = null;
+        }
+        if (mEncoder != null) {
+            mEncoder.release();
+            mEncoder = null;
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.d(TAG, "Failed closing " + closeable, e);
+        }
+    }
+
+}
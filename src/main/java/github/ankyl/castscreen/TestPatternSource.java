@@ -0,0 +1,442 @@
+package github.ankyl.castscreen;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Typeface;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.opengl.Matrix;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * TestPatternSource is a {@link FrameSource} that draws a generated pattern on the GPU instead of
+ * capturing the screen, so throughput, latency and encoder load can be measured the same way on
+ * any device, against any receiver or a {@link LoopbackCastTransport}. The content of each frame
+ * depends only on its index, and frames are drawn at a fixed rate on the source's own thread into
+ * the {@link FrameRelay}, like the virtual display of the {@link ProjectionManager} would. An
+ * overlay can show the frame index and the time it was drawn, to read the latency off the
+ * receiver's screen.
+ */
+public class TestPatternSource implements FrameSource {
+    private static final String TAG = "TestPatternSource";
+    private static final String THREAD_NAME = "CastScreenTestPattern";
+    // how far the text scrolls per frame, as a fraction of the frame height
+    private static final float SCROLL_PER_FRAME = 1f / 240;
+
+    /**
+     * what to draw
+     */
+    public enum Pattern {
+        /** lines of text scrolling up, like a web page or a document being read */
+        SCROLLING_TEXT,
+        /** different random pixels every frame, the worst case for the encoder */
+        NOISE,
+        /** the same color bars every frame, which the relay skips after the first */
+        STATIC
+    }
+
+    /**
+     * what a cast started with {@link CastScreenService#setTestPattern(Config)} shows
+     */
+    public static class Config {
+        public final Pattern pattern;
+        public final int width;
+        public final int height;
+        public final float fps;
+        /** whether to draw the frame index and time over the pattern */
+        public final boolean overlay;
+
+        /**
+         * @param width width of the pattern, in pixels; rounded down to an even number
+         * @param height height of the pattern, in pixels; rounded down to an even number
+         */
+        public Config(Pattern pattern, int width, int height, float fps, boolean overlay) {
+            if (pattern == null) throw new IllegalArgumentException("Pattern must not be null");
+            if (width < 2 || height < 2) throw new IllegalArgumentException("Size must be at least 2x2");
+            if (!(fps > 0) || Float.isInfinite(fps)) throw new IllegalArgumentException("Frame rate must be positive");
+            this.pattern = pattern;
+            this.width = width & ~1;
+            this.height = height & ~1;
+            this.fps = fps;
+            this.overlay = overlay;
+        }
+
+        @Override
+        public String toString() {
+            return pattern + " " + width + "x" + height + "@" + fps + "fps" + (overlay ? " with overlay" : "");
+        }
+    }
+
+    /**
+     * when frames are due at a fixed rate; a frame drawn too late skips the slots it missed
+     * instead of the following frames being drawn in a burst to catch up
+     */
+    static class FrameGrid {
+        private final float mFps;
+        private long mStartMillis;
+        private volatile long mLateFrames;
+
+        FrameGrid(float fps) {
+            mFps = fps;
+        }
+
+        /**
+         * start the grid over, with frame {@param frameIndex} due at {@param nowMillis}
+         */
+        void restart(long frameIndex, long nowMillis) {
+            mStartMillis = nowMillis - (long) (frameIndex * 1000 / mFps);
+        }
+
+        /**
+         * @return when frame {@param frameIndex} is due, not before {@param nowMillis}; the slots
+         * that already passed are skipped and counted as late
+         */
+        long next(long frameIndex, long nowMillis) {
+            long next = mStartMillis + (long) (frameIndex * 1000 / mFps);
+            if (next < nowMillis) {
+                long missed = (long) ((nowMillis - next) * mFps / 1000) + 1;
+                mLateFrames += missed;
+                mStartMillis += (long) (missed * 1000 / mFps);
+                next = mStartMillis + (long) (frameIndex * 1000 / mFps);
+            }
+            return next;
+        }
+
+        /**
+         * @return frame slots skipped so far
+         */
+        long getLateFrames() {
+            return mLateFrames;
+        }
+    }
+
+    /**
+     * @return how far the text of {@link Pattern#SCROLLING_TEXT} has scrolled at frame
+     * {@param frameIndex}, as a fraction of the frame height
+     */
+    static float scrollOffset(long frameIndex) {
+        return (frameIndex * SCROLL_PER_FRAME) % 1f;
+    }
+
+    private static final String FRAGMENT_SHADER_NOISE =
+            "precision highp float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform vec2 uSize;\n" +
+            "uniform float uFrame;\n" +
+            "float noise(vec2 p) {\n" +
+            "    return fract(sin(dot(p, vec2(12.9898, 78.233))) * 43758.5453);\n" +
+            "}\n" +
+            "void main() {\n" +
+            "    vec2 p = floor(vTextureCoord * uSize) + mod(uFrame, 1024.0);\n" +
+            "    gl_FragColor = vec4(noise(p), noise(p + 0.31), noise(p + 0.73), 1.0);\n" +
+            "}\n";
+    private static final String FRAGMENT_SHADER_SCROLL =
+            "precision mediump float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform sampler2D sTexture;\n" +
+            "uniform float uOffset;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(sTexture, vec2(vTextureCoord.x, fract(vTextureCoord.y + uOffset)));\n" +
+            "}\n";
+
+    private final Config mConfig;
+    private final FrameRelay mRelay;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final CopyOnWriteArrayList<ProjectionManager.SourceSizeListener> mSourceSizeListeners =
+            new CopyOnWriteArrayList<>();
+    // bitmaps are stored top row first, so they are drawn flipped vertically
+    private final float[] mFlipMatrix = new float[16];
+    private final Paint mOverlayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final FrameGrid mFrameGrid;
+    private volatile long mDrawnFrames;
+
+    // only accessed on the source's thread
+    private EglCore mEglCore;
+    private EGLSurface mEglSurface;
+    private FrameRenderer mPatternRenderer;
+    private FrameRenderer mOverlayRenderer;
+    private int mPatternTexture;
+    private int mOverlayTexture;
+    private Bitmap mOverlayBitmap;
+    private Canvas mOverlayCanvas;
+    private int mFrameLocation;
+    private int mSizeLocation;
+    private int mOffsetLocation;
+    private long mFrameIndex;
+    private boolean mReleased;
+    private boolean mSuspended;
+
+    private final Runnable mDrawRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drawFrame();
+        }
+    };
+
+    public TestPatternSource(Config config) {
+        mConfig = config;
+        mFrameGrid = new FrameGrid(config.fps);
+        Matrix.setIdentityM(mFlipMatrix, 0);
+        mFlipMatrix[5] = -1f;
+        mFlipMatrix[13] = 1f;
+        mOverlayPaint.setColor(Color.WHITE);
+        mOverlayPaint.setTypeface(Typeface.MONOSPACE);
+
+        mRelay = new FrameRelay();
+        mRelay.setInputSize(config.width, config.height);
+        mThread = new HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_DISPLAY);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                initialize();
+                mFrameGrid.restart(0, SystemClock.uptimeMillis());
+                drawFrame();
+            }
+        });
+        Log.i(TAG, "Drawing " + config);
+    }
+
+    private void initialize() {
+        mEglCore = new EglCore();
+        mEglSurface = mEglCore.createWindowSurface(mRelay.getInputSurface());
+        mEglCore.makeCurrent(mEglSurface);
+        // the relay latches the latest frame, so never wait for it
+        mEglCore.setSwapInterval(0);
+
+        if (mConfig.pattern == Pattern.NOISE) {
+            mPatternRenderer = new FrameRenderer(GLES20.GL_TEXTURE_2D, FRAGMENT_SHADER_NOISE);
+            mFrameLocation = GLES20.glGetUniformLocation(mPatternRenderer.getProgram(), "uFrame");
+            mSizeLocation = GLES20.glGetUniformLocation(mPatternRenderer.getProgram(), "uSize");
+        } else {
+            mPatternRenderer = new FrameRenderer(GLES20.GL_TEXTURE_2D, FRAGMENT_SHADER_SCROLL);
+            mOffsetLocation = GLES20.glGetUniformLocation(mPatternRenderer.getProgram(), "uOffset");
+            Bitmap bitmap = mConfig.pattern == Pattern.STATIC ? makeColorBars() : makeText();
+            mPatternTexture = uploadTexture(0, bitmap);
+            bitmap.recycle();
+        }
+
+        if (mConfig.overlay) {
+            int height = Math.max(16, mConfig.height / 16);
+            mOverlayBitmap = Bitmap.createBitmap(height * 10, height, Bitmap.Config.ARGB_8888);
+            mOverlayCanvas = new Canvas(mOverlayBitmap);
+            mOverlayPaint.setTextSize(height * 0.75f);
+            mOverlayRenderer = new FrameRenderer(GLES20.GL_TEXTURE_2D, FrameRenderer.FRAGMENT_SHADER_2D);
+        }
+    }
+
+    /**
+     * draw the frame of the current index, and schedule the next one on the fixed frame grid
+     */
+    private void drawFrame() {
+        if (mReleased || mSuspended) return;
+        long frameTimeNanos = System.nanoTime();
+        GLES20.glViewport(0, 0, mConfig.width, mConfig.height);
+        if (mConfig.pattern == Pattern.NOISE) {
+            GLES20.glUseProgram(mPatternRenderer.getProgram());
+            GLES20.glUniform1f(mFrameLocation, mFrameIndex);
+            GLES20.glUniform2f(mSizeLocation, mConfig.width, mConfig.height);
+            mPatternRenderer.draw(0, mFlipMatrix);
+        } else {
+            float offset = mConfig.pattern == Pattern.STATIC ? 0f : scrollOffset(mFrameIndex);
+            GLES20.glUseProgram(mPatternRenderer.getProgram());
+            GLES20.glUniform1f(mOffsetLocation, offset);
+            mPatternRenderer.draw(mPatternTexture, mFlipMatrix);
+        }
+        if (mOverlayRenderer != null) drawOverlay(frameTimeNanos);
+
+        mEglCore.setPresentationTime(mEglSurface, frameTimeNanos);
+        if (!mEglCore.swapBuffers(mEglSurface)) {
+            Log.w(TAG, "Relay input surface abandoned; stopping");
+            return;
+        }
+        mFrameIndex++;
+        mDrawnFrames++;
+        mHandler.postAtTime(mDrawRunnable, mFrameGrid.next(mFrameIndex, SystemClock.uptimeMillis()));
+    }
+
+    private void drawOverlay(long frameTimeNanos) {
+        mOverlayBitmap.eraseColor(Color.BLACK);
+        String text = String.format(Locale.US, "#%06d %10.3f", mFrameIndex, frameTimeNanos / 1e9);
+        mOverlayCanvas.drawText(text, mOverlayBitmap.getHeight() * 0.2f, mOverlayBitmap.getHeight() * 0.8f,
+                mOverlayPaint);
+        mOverlayTexture = uploadTexture(mOverlayTexture, mOverlayBitmap);
+
+        int width = Math.min(mOverlayBitmap.getWidth(), mConfig.width);
+        GLES20.glViewport(0, mConfig.height - mOverlayBitmap.getHeight(), width, mOverlayBitmap.getHeight());
+        mOverlayRenderer.draw(mOverlayTexture, mFlipMatrix);
+        GLES20.glViewport(0, 0, mConfig.width, mConfig.height);
+    }
+
+    /**
+     * @param texture the texture to replace the contents of, or 0 to create one
+     */
+    private static int uploadTexture(int texture, Bitmap bitmap) {
+        if (texture == 0) {
+            int[] textures = new int[1];
+            GLES20.glGenTextures(1, textures, 0);
+            texture = textures[0];
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        } else {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        }
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        return texture;
+    }
+
+    /**
+     * @return a page of numbered lines of text, the same on every run
+     */
+    private Bitmap makeText() {
+        Bitmap bitmap = Bitmap.createBitmap(mConfig.width, mConfig.height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.BLACK);
+        float lineHeight = Math.max(12, mConfig.height / 30f);
+        paint.setTextSize(lineHeight * 0.7f);
+        int lines = (int) (mConfig.height / lineHeight);
+        for (int i = 0; i < lines; i++) {
+            canvas.drawText(String.format(Locale.US, "%03d The quick brown fox jumps over the lazy dog. 0123456789", i),
+                    lineHeight * 0.5f, (i + 0.8f) * lineHeight, paint);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return vertical bars of the primary and secondary colors
+     */
+    private Bitmap makeColorBars() {
+        int[] colors = { Color.WHITE, Color.YELLOW, Color.CYAN, Color.GREEN, Color.MAGENTA, Color.RED, Color.BLUE,
+                Color.BLACK };
+        Bitmap bitmap = Bitmap.createBitmap(mConfig.width, mConfig.height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        float barWidth = (float) mConfig.width / colors.length;
+        for (int i = 0; i < colors.length; i++) {
+            paint.setColor(colors[i]);
+            canvas.drawRect(i * barWidth, 0, (i + 1) * barWidth, mConfig.height, paint);
+        }
+        return bitmap;
+    }
+
+    @Override
+    public void drawOnSurface(Surface surface, int width, int height) {
+        mRelay.setOutputSurface(surface, width, height);
+    }
+
+    @Override
+    public void detachSurface(Surface surface) {
+        mRelay.removeOutputSurface(surface);
+    }
+
+    /**
+     * @return the size of the surface itself; the relay scales the pattern up or down to it
+     */
+    @Override
+    public Point getCaptureSize(int surfaceWidth, int surfaceHeight) {
+        return new Point(surfaceWidth, surfaceHeight);
+    }
+
+    @Override
+    public Point getContentSize() {
+        return new Point(mConfig.width, mConfig.height);
+    }
+
+    @Override
+    public ProjectionManager.ScaleMode getScaleMode() {
+        return ProjectionManager.ScaleMode.LETTERBOX;
+    }
+
+    /**
+     * the size of the pattern never changes, so the listener is never called
+     */
+    @Override
+    public void addSourceSizeListener(ProjectionManager.SourceSizeListener listener) {
+        mSourceSizeListeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void removeSourceSizeListener(ProjectionManager.SourceSizeListener listener) {
+        mSourceSizeListeners.remove(listener);
+    }
+
+    @Override
+    public FrameRelay getFrameRelay() {
+        return mRelay;
+    }
+
+    @Override
+    public void setSuspended(final boolean suspended) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mReleased || suspended == mSuspended) return;
+                mSuspended = suspended;
+                mHandler.removeCallbacks(mDrawRunnable);
+                if (suspended) return;
+                // continue with the next frame index, on a frame grid starting now
+                mFrameGrid.restart(mFrameIndex, SystemClock.uptimeMillis());
+                drawFrame();
+            }
+        });
+    }
+
+    /**
+     * @return frames drawn so far
+     */
+    public long getDrawnFrames() {
+        return mDrawnFrames;
+    }
+
+    /**
+     * @return frame slots skipped because drawing fell behind the frame rate
+     */
+    public long getLateFrames() {
+        return mFrameGrid.getLateFrames();
+    }
+
+    @Override
+    public void release() {
+        CastScreenThreads.runAndWait(mHandler, new Runnable() {
+            @Override
+            public void run() {
+                mReleased = true;
+                mHandler.removeCallbacks(mDrawRunnable);
+                if (mEglCore == null) return;
+                if (mPatternTexture != 0) GlUtil.deleteTexture(mPatternTexture);
+                if (mOverlayTexture != 0) GlUtil.deleteTexture(mOverlayTexture);
+                mPatternRenderer.release();
+                if (mOverlayRenderer != null) mOverlayRenderer.release();
+                if (mOverlayBitmap != null) mOverlayBitmap.recycle();
+                mEglCore.releaseSurface(mEglSurface);
+                mEglCore.release();
+                mEglCore = null;
+            }
+        });
+        mThread.quitSafely();
+        mSourceSizeListeners.clear();
+        mRelay.release();
+        Log.i(TAG, "Drew " + mDrawnFrames + " frames, " + mFrameGrid.getLateFrames() + " late");
+    }
+
+}
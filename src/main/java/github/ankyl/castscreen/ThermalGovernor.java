@@ -0,0 +1,210 @@
+package github.ankyl.castscreen;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * ThermalGovernor keeps long casts from overheating the device, by stepping the capture
+ * resolution and frame rate of the {@link ProjectionManager} down a ladder as a
+ * {@link ThermalSource} reports higher severities, and back up as the device cools down. Steps
+ * are applied to the running capture, without restarting the session. To avoid oscillating, the
+ * governor steps down right away but only steps up one step at a time, after the severity has
+ * stayed lower for the cool-down period. Runs on the session thread of {@link CastScreenThreads};
+ * listeners are called on the main thread.
+ */
+public class ThermalGovernor {
+    private static final String TAG = "ThermalGovernor";
+    private static final long DEFAULT_COOL_DOWN_MS = 60 * 1000;
+
+    /**
+     * the default ladder, one step per severity of {@link ThermalSource}
+     */
+    public static final Step[] DEFAULT_LADDER = {
+            new Step(1f, 0),
+            new Step(1f, 30),
+            new Step(0.75f, 30),
+            new Step(0.5f, 24),
+            new Step(0.5f, 15)
+    };
+
+    /**
+     * a rung of the ladder
+     */
+    public static class Step {
+        /** fraction of the full capture resolution, in each dimension */
+        public final float scale;
+        /** maximum frame rate, or 0 for no limit */
+        public final float maxFps;
+
+        public Step(float scale, float maxFps) {
+            if (scale <= 0 || scale > 1) throw new IllegalArgumentException("Scale must be in (0, 1]");
+            if (maxFps < 0) throw new IllegalArgumentException("Frame rate must not be negative");
+            this.scale = scale;
+            this.maxFps = maxFps;
+        }
+
+        @Override
+        public String toString() {
+            return scale + "x@" + (maxFps > 0 ? maxFps + "fps" : "unlimited");
+        }
+    }
+
+    /**
+     * notified of every step, e.g. for telemetry
+     */
+    public interface Listener {
+        /**
+         * @param severity the severity that caused the step
+         * @param reason what the severity is based on
+         */
+        void onStepChanged(int fromIndex, int toIndex, Step step, int severity, String reason);
+    }
+
+    /**
+     * what the steps are applied to
+     */
+    interface Target {
+        void applyStep(Step step);
+    }
+
+    private final Target mTarget;
+    private final ThermalSource mSource;
+    private final Step[] mLadder;
+    private final Handler mSessionHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final long mCoolDownMs;
+    private final Listener mListener;
+
+    // only accessed on the session thread
+    private int mStepIndex;
+    private int mSeverity;
+    private String mReason;
+    // since when the severity has been below the current step, or -1 while it is not
+    private long mCoolDownStartMillis;
+    private boolean mStarted;
+
+    private final ThermalSource.Listener mSourceListener = new ThermalSource.Listener() {
+        @Override
+        public void onSeverityChanged(int severity, String reason) {
+            mSeverity = severity;
+            mReason = reason;
+            evaluate();
+        }
+    };
+
+    private final Runnable mEvaluateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            evaluate();
+        }
+    };
+
+    /**
+     * @param listener notified of every step, or null
+     */
+    public ThermalGovernor(ProjectionManager projectionManager, ThermalSource source, Listener listener) {
+        this(projectionManager, source, listener, DEFAULT_LADDER, DEFAULT_COOL_DOWN_MS);
+    }
+
+    /**
+     * @param ladder steps from the full quality down; severities beyond the ladder use its last step
+     * @param coolDownMs how long the severity must stay lower before stepping up one step
+     */
+    public ThermalGovernor(ProjectionManager projectionManager, ThermalSource source, Listener listener,
+                           Step[] ladder, long coolDownMs) {
+        this(targetOf(projectionManager), source, listener, ladder, coolDownMs);
+    }
+
+    ThermalGovernor(Target target, ThermalSource source, Listener listener, Step[] ladder, long coolDownMs) {
+        if (ladder.length == 0) throw new IllegalArgumentException("Ladder must not be empty");
+        mTarget = target;
+        mSource = source;
+        mListener = listener;
+        mLadder = ladder.clone();
+        mCoolDownMs = coolDownMs;
+        mSessionHandler = CastScreenThreads.getSessionHandler();
+    }
+
+    private static Target targetOf(final ProjectionManager projectionManager) {
+        return new Target() {
+            @Override
+            public void applyStep(Step step) {
+                projectionManager.setCaptureScale(step.scale);
+                projectionManager.getFrameRelay().setFpsCap(step.maxFps);
+            }
+        };
+    }
+
+    /**
+     * start following the thermal source; must be called on the session thread
+     */
+    public void start() {
+        if (mStarted) return;
+        mStarted = true;
+        mStepIndex = 0;
+        mCoolDownStartMillis = -1;
+        mSource.start(mSourceListener);
+    }
+
+    /**
+     * stop following the thermal source, leaving the capture at its current step; must be called
+     * on the session thread
+     */
+    public void stop() {
+        if (!mStarted) return;
+        mStarted = false;
+        mSessionHandler.removeCallbacks(mEvaluateRunnable);
+        mSource.stop();
+    }
+
+    /**
+     * @return the index of the current step in the ladder
+     */
+    public int getStepIndex() {
+        return mStepIndex;
+    }
+
+    private void evaluate() {
+        if (!mStarted) return;
+        mSessionHandler.removeCallbacks(mEvaluateRunnable);
+        int target = Math.max(0, Math.min(mSeverity, mLadder.length - 1));
+        if (target >= mStepIndex) {
+            if (target > mStepIndex) setStep(target);
+            // a severity that rises back before the cool-down is over starts it over
+            mCoolDownStartMillis = -1;
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (mCoolDownStartMillis < 0) mCoolDownStartMillis = now;
+        long coolDownLeft = mCoolDownStartMillis + mCoolDownMs - now;
+        if (coolDownLeft <= 0) {
+            setStep(mStepIndex - 1);
+            // keep stepping up while the severity stays low, one cool-down per step
+            mCoolDownStartMillis = now;
+            if (target < mStepIndex) mSessionHandler.postDelayed(mEvaluateRunnable, mCoolDownMs);
+        } else {
+            mSessionHandler.postDelayed(mEvaluateRunnable, coolDownLeft);
+        }
+    }
+
+    private void setStep(final int index) {
+        final int from = mStepIndex;
+        final Step step = mLadder[index];
+        final int severity = mSeverity;
+        final String reason = mReason;
+        Log.i(TAG, "Stepping from " + mLadder[from] + " to " + step + " because of " + reason);
+        mStepIndex = index;
+        mTarget.applyStep(step);
+        if (mListener == null) return;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onStepChanged(from, index, step, severity, reason);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,32 @@
+package github.ankyl.castscreen;
+
+/**
+ * ThermalSource tells the {@link ThermalGovernor} how hot the device is running. Besides
+ * {@link DeviceThermalSource}, a fake source can drive the governor, e.g. in tests.
+ */
+public interface ThermalSource {
+    int SEVERITY_NONE = 0;
+    int SEVERITY_LIGHT = 1;
+    int SEVERITY_MODERATE = 2;
+    int SEVERITY_SEVERE = 3;
+    int SEVERITY_CRITICAL = 4;
+
+    /**
+     * notified when the severity changes
+     */
+    interface Listener {
+        /**
+         * @param severity one of the SEVERITY constants
+         * @param reason what the severity is based on, for logging
+         */
+        void onSeverityChanged(int severity, String reason);
+    }
+
+    /**
+     * start reporting to {@param listener} on the session thread of {@link CastScreenThreads},
+     * beginning with the current severity
+     */
+    void start(Listener listener);
+
+    void stop();
+}
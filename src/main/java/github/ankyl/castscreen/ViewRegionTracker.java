@@ -0,0 +1,93 @@
+package github.ankyl.castscreen;
+
+import android.graphics.Rect;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * ViewRegionTracker casts only a single {@link View}, e.g. a chart or a video view, by keeping the
+ * region of interest of the running cast on the view's bounds on screen as it moves, scrolls or
+ * changes size. While the view is not shown, the whole screen is cast. Must be used on the main
+ * thread.
+ */
+public class ViewRegionTracker {
+    private final View mView;
+    private final Rect mBounds = new Rect();
+    private final Rect mNewBounds = new Rect();
+    private final int[] mLocation = new int[2];
+    private boolean mTracking;
+
+    private final ViewTreeObserver.OnPreDrawListener mPreDrawListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            update();
+            return true;
+        }
+    };
+
+    private final View.OnAttachStateChangeListener mAttachListener = new View.OnAttachStateChangeListener() {
+        @Override
+        public void onViewAttachedToWindow(View v) {
+            v.getViewTreeObserver().addOnPreDrawListener(mPreDrawListener);
+            update();
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View v) {
+            v.getViewTreeObserver().removeOnPreDrawListener(mPreDrawListener);
+            setBounds(null);
+        }
+    };
+
+    public ViewRegionTracker(View view) {
+        mView = view;
+    }
+
+    /**
+     * start casting only the view; call again after starting a new cast
+     */
+    public void start() {
+        if (!mTracking) {
+            mTracking = true;
+            mView.addOnAttachStateChangeListener(mAttachListener);
+            if (mView.isAttachedToWindow()) mAttachListener.onViewAttachedToWindow(mView);
+        }
+        // the region of interest is reset with each cast
+        mBounds.setEmpty();
+        update();
+    }
+
+    /**
+     * cast the whole screen again
+     */
+    public void stop() {
+        if (!mTracking) return;
+        mTracking = false;
+        mView.removeOnAttachStateChangeListener(mAttachListener);
+        mView.getViewTreeObserver().removeOnPreDrawListener(mPreDrawListener);
+        mBounds.setEmpty();
+        CastScreenService.setRegionOfInterest(null);
+    }
+
+    private void update() {
+        if (!mView.isShown() || mView.getWidth() == 0 || mView.getHeight() == 0) {
+            setBounds(null);
+            return;
+        }
+        mView.getLocationOnScreen(mLocation);
+        mNewBounds.set(mLocation[0], mLocation[1], mLocation[0] + mView.getWidth(), mLocation[1] + mView.getHeight());
+        setBounds(mNewBounds);
+    }
+
+    private void setBounds(Rect bounds) {
+        // called for every frame drawn, so only forward actual changes
+        if (bounds == null ? mBounds.isEmpty() : bounds.equals(mBounds)) return;
+        if (bounds == null) {
+            mBounds.setEmpty();
+        } else {
+            mBounds.set(bounds);
+        }
+        CastScreenService.setRegionOfInterest(bounds);
+    }
+
+}
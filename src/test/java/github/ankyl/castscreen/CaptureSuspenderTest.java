@@ -0,0 +1,220 @@
+package github.ankyl.castscreen;
+
+import android.app.Application;
+import android.app.KeyguardManager;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Point;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.view.Surface;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class CaptureSuspenderTest {
+    // frames the relay presents per second while active
+    private static final long FRAME_RATE = 60;
+
+    private Application mApplication;
+    private final FakeSource mSource = new FakeSource();
+    private long mFrames;
+    private CaptureSuspender mSuspender;
+
+    @Before
+    public void setUp() {
+        // run the session thread's work on the main looper, whose clock the test controls
+        CastScreenThreads.setSessionHandler(new Handler(Looper.getMainLooper()));
+        mApplication = RuntimeEnvironment.application;
+        setInteractive(true);
+        mSuspender = new CaptureSuspender(mApplication, mSource, new CaptureSuspender.FrameCounter() {
+            @Override
+            public long getPresentedFrames() {
+                return mFrames;
+            }
+        });
+        mSuspender.start();
+    }
+
+    @After
+    public void tearDown() {
+        mSuspender.stop();
+        CastScreenThreads.setSessionHandler(null);
+    }
+
+    @Test
+    public void screenOffSuspendsUntilScreenOn() {
+        advance(1000);
+        turnScreenOff();
+        assertEquals(Arrays.asList(true), mSource.mSuspended);
+        assertTrue(mSuspender.getSnapshot().suspended);
+
+        advance(500);
+        turnScreenOn();
+        assertEquals(Arrays.asList(true, false), mSource.mSuspended);
+        CaptureSuspender.Snapshot snapshot = mSuspender.getSnapshot();
+        assertFalse(snapshot.suspended);
+        assertEquals(1, snapshot.suspensions);
+        assertEquals(500, snapshot.suspendedMillis);
+    }
+
+    @Test
+    public void avoidedFramesFollowActiveFrameRate() {
+        advance(2000);
+        turnScreenOff();
+        advance(1000);
+        // still suspended, so the snapshot counts up to now
+        assertEquals(FRAME_RATE, mSuspender.getSnapshot().avoidedFrames);
+        turnScreenOn();
+
+        advance(1000);
+        turnScreenOff();
+        advance(500);
+        turnScreenOn();
+        CaptureSuspender.Snapshot snapshot = mSuspender.getSnapshot();
+        assertEquals(2, snapshot.suspensions);
+        assertEquals(1500, snapshot.suspendedMillis);
+        assertEquals(FRAME_RATE * 3 / 2, snapshot.avoidedFrames);
+    }
+
+    @Test
+    public void lockedScreenResumesOnceUnlocked() {
+        setLocked(true);
+        turnScreenOff();
+        turnScreenOn();
+        assertEquals(Arrays.asList(true), mSource.mSuspended);
+
+        setLocked(false);
+        send(Intent.ACTION_USER_PRESENT);
+        assertEquals(Arrays.asList(true, false), mSource.mSuspended);
+    }
+
+    @Test
+    public void repeatedBroadcastsSuspendOnce() {
+        turnScreenOff();
+        send(Intent.ACTION_SCREEN_OFF);
+        send(Intent.ACTION_USER_PRESENT);
+        assertEquals(Arrays.asList(true), mSource.mSuspended);
+        assertEquals(1, mSuspender.getSnapshot().suspensions);
+    }
+
+    @Test
+    public void stopResumesSuspendedSource() {
+        turnScreenOff();
+        mSuspender.stop();
+        assertEquals(Arrays.asList(true, false), mSource.mSuspended);
+
+        // no longer following the screen
+        turnScreenOn();
+        turnScreenOff();
+        assertEquals(Arrays.asList(true, false), mSource.mSuspended);
+    }
+
+    /**
+     * let {@param millis} pass, with the relay presenting frames at {@link #FRAME_RATE} unless
+     * the source is suspended
+     */
+    private void advance(long millis) {
+        if (!mSource.isSuspended()) mFrames += FRAME_RATE * millis / 1000;
+        ShadowLooper.idleMainLooper(millis);
+    }
+
+    private void turnScreenOff() {
+        setInteractive(false);
+        send(Intent.ACTION_SCREEN_OFF);
+    }
+
+    private void turnScreenOn() {
+        setInteractive(true);
+        send(Intent.ACTION_SCREEN_ON);
+    }
+
+    private void setInteractive(boolean interactive) {
+        PowerManager powerManager = (PowerManager) mApplication.getSystemService(Context.POWER_SERVICE);
+        shadowOf(powerManager).setIsInteractive(interactive);
+    }
+
+    private void setLocked(boolean locked) {
+        KeyguardManager keyguardManager = (KeyguardManager) mApplication.getSystemService(Context.KEYGUARD_SERVICE);
+        shadowOf(keyguardManager).setinRestrictedInputMode(locked);
+    }
+
+    private void send(String action) {
+        mApplication.sendBroadcast(new Intent(action));
+        ShadowLooper.runUiThreadTasks();
+    }
+
+    /**
+     * records every suspend and resume
+     */
+    private static class FakeSource implements FrameSource {
+        final ArrayList<Boolean> mSuspended = new ArrayList<>();
+
+        boolean isSuspended() {
+            return !mSuspended.isEmpty() && mSuspended.get(mSuspended.size() - 1);
+        }
+
+        @Override
+        public void drawOnSurface(Surface surface, int width, int height) {
+        }
+
+        @Override
+        public void detachSurface(Surface surface) {
+        }
+
+        @Override
+        public Point getCaptureSize(int surfaceWidth, int surfaceHeight) {
+            return new Point(surfaceWidth, surfaceHeight);
+        }
+
+        @Override
+        public Point getContentSize() {
+            return new Point();
+        }
+
+        @Override
+        public ProjectionManager.ScaleMode getScaleMode() {
+            return null;
+        }
+
+        @Override
+        public void addSourceSizeListener(ProjectionManager.SourceSizeListener listener) {
+        }
+
+        @Override
+        public void removeSourceSizeListener(ProjectionManager.SourceSizeListener listener) {
+        }
+
+        @Override
+        public FrameRelay getFrameRelay() {
+            return null;
+        }
+
+        @Override
+        public void setSuspended(boolean suspended) {
+            mSuspended.add(suspended);
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package github.ankyl.castscreen;
+
+import android.app.Application;
+import android.app.Notification;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.view.Display;
+import android.view.WindowManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowDialog;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Starts, presents and stops casts thousands of times through a fake transport that connects and
+ * starts its remote display on the default display, and checks that every cast released what it
+ * created: nothing is left open, and nothing released is still reachable once the heap has been
+ * collected. Casts run in extended-display mode, so no screen capture is needed; the instrumented
+ * CastChurnBenchmark measures the same cycle on a device.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class CastChurnTest {
+    private static final int CYCLES = 2000;
+    private static final int MAX_COLLECTIONS = 10;
+
+    private CastScreenServiceTest.BindingContext mContext;
+    private Display mDisplay;
+    private final DisplayMetrics mMetrics = new DisplayMetrics();
+    private final Notification mNotification = new Notification();
+
+    @Before
+    public void setUp() {
+        CastScreenThreads.setSessionHandler(new Handler(Looper.getMainLooper()));
+        Application application = RuntimeEnvironment.application;
+        CastScreenService service = Robolectric.setupService(CastScreenService.class);
+        mContext = new CastScreenServiceTest.BindingContext(application, service.onBind(new Intent()));
+        mDisplay = ((WindowManager) application.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
+        CastScreenService.setExtendedContent(new CastScreenServiceTest.FakeContent());
+    }
+
+    @After
+    public void tearDown() {
+        CastScreenService.stop();
+        ShadowLooper.runUiThreadTasks();
+        CastScreenService.setExtendedContent(null);
+        CastScreenThreads.setSessionHandler(null);
+    }
+
+    @Test
+    public void churnLeavesNothingBehind() {
+        CastScreenServiceTest.FakeTransport transport = new CastScreenServiceTest.FakeTransport(mDisplay);
+        for (int cycle = 0; cycle < CYCLES; cycle++) {
+            CastScreenService.start(mContext, "test", mMetrics, CaptureProfile.NATIVE_RECEIVER, transport, null,
+                    mNotification);
+            ShadowLooper.runUiThreadTasks();
+            // without a route, the session shows its presentation but does not drive the state
+            assertEquals("Not presenting in cycle " + cycle, 1,
+                    CastResourceTracker.getOpenCount(CastResourceTracker.Kind.PRESENTATION));
+            CastScreenService.stop();
+            ShadowLooper.runUiThreadTasks();
+            assertEquals("Not stopped in cycle " + cycle, CastSessionState.State.IDLE, state());
+        }
+
+        assertEquals(CYCLES, transport.mConnects);
+        assertEquals(CYCLES, transport.mDisconnects);
+        assertEquals(0, mContext.mBound.size());
+        for (CastResourceTracker.Kind kind : CastResourceTracker.Kind.values()) {
+            assertEquals(kind + " left open", 0, CastResourceTracker.getOpenCount(kind));
+        }
+
+        assertEquals(CYCLES, ShadowDialog.getShownDialogs().size());
+        // the service is bound for every cast here, where a device would create a new one
+        mContext = null;
+        collectGarbage();
+        for (CastResourceTracker.Kind kind : CastResourceTracker.Kind.values()) {
+            // Robolectric registers a receiver on the display context of every presentation, and
+            // keeps it, so presentations are only checked for being closed
+            if (kind == CastResourceTracker.Kind.PRESENTATION) continue;
+            assertEquals(kind + " retained", 0, CastResourceTracker.getRetainedCount(kind));
+        }
+    }
+
+
+    private static CastSessionState.State state() {
+        return CastScreenService.getSessionState().get();
+    }
+
+    /**
+     * collect until an object that just became unreachable is gone, so everything released
+     * before it is too
+     */
+    private static void collectGarbage() {
+        WeakReference<Object> sentinel = new WeakReference<>(new Object());
+        for (int i = 0; i < MAX_COLLECTIONS && sentinel.get() != null; i++) {
+            Runtime.getRuntime().gc();
+            Runtime.getRuntime().runFinalization();
+        }
+    }
+
+}
@@ -0,0 +1,342 @@
+package github.ankyl.castscreen;
+
+import android.app.Notification;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.view.Display;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Casts run in extended-display mode to fake transports that never connect, so neither a screen
+ * capture nor a presentation is needed. The main looper is paused where several starts and stops
+ * must arrive within one main thread message, as when the user picks another route.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class CastScreenServiceTest {
+    private static final int THREADS = 4;
+    private static final int ROUNDS = 50;
+
+    private BindingContext mContext;
+    private final DisplayMetrics mMetrics = new DisplayMetrics();
+    private final Notification mNotification = new Notification();
+    private final ExtendedContent mContent = new FakeContent();
+
+    @Before
+    public void setUp() {
+        CastScreenThreads.setSessionHandler(new Handler(Looper.getMainLooper()));
+        CastScreenService service = Robolectric.setupService(CastScreenService.class);
+        mContext = new BindingContext(RuntimeEnvironment.application, service.onBind(new Intent()));
+        CastScreenService.setExtendedContent(mContent);
+    }
+
+    @After
+    public void tearDown() {
+        ShadowLooper.unPauseMainLooper();
+        CastScreenService.stop();
+        ShadowLooper.runUiThreadTasks();
+        CastScreenService.setExtendedContent(null);
+        CastScreenThreads.setSessionHandler(null);
+    }
+
+    @Test
+    public void latestStartWhileBindingWins() {
+        FakeTransport first = new FakeTransport();
+        FakeTransport second = new FakeTransport();
+        ShadowLooper.pauseMainLooper();
+        start(first);
+        start(second);
+        assertEquals(CastSessionState.State.BINDING, state());
+        ShadowLooper.runUiThreadTasks();
+
+        assertEquals(CastSessionState.State.CONNECTING, state());
+        assertEquals(0, first.mConnects);
+        assertEquals(1, second.mConnects);
+        assertEquals(1, mContext.mBinds);
+        assertEquals(1, CastScreenService.getReceiverCount());
+    }
+
+    @Test
+    public void stopWhileBindingUnbindsOnceBound() {
+        FakeTransport transport = new FakeTransport();
+        ShadowLooper.pauseMainLooper();
+        start(transport);
+        CastScreenService.stop();
+        assertEquals(CastSessionState.State.STOPPING, state());
+        ShadowLooper.runUiThreadTasks();
+
+        assertEquals(CastSessionState.State.IDLE, state());
+        assertEquals(0, transport.mConnects);
+        assertEquals(1, mContext.mUnbinds);
+        assertEquals(0, mContext.mBound.size());
+    }
+
+    @Test
+    public void startWhileBindingAfterStopStartsIt() {
+        FakeTransport transport = new FakeTransport();
+        ShadowLooper.pauseMainLooper();
+        start(new FakeTransport());
+        CastScreenService.stop();
+        start(transport);
+        assertEquals(CastSessionState.State.BINDING, state());
+        ShadowLooper.runUiThreadTasks();
+
+        assertEquals(CastSessionState.State.CONNECTING, state());
+        assertEquals(1, transport.mConnects);
+    }
+
+    @Test
+    public void startRightAfterStopSwitchesReceiver() {
+        FakeTransport first = new FakeTransport();
+        FakeTransport second = new FakeTransport();
+        start(first);
+        assertEquals(CastSessionState.State.CONNECTING, state());
+
+        ShadowLooper.pauseMainLooper();
+        CastScreenService.stop();
+        start(second);
+        ShadowLooper.runUiThreadTasks();
+
+        assertEquals(CastSessionState.State.CONNECTING, state());
+        assertEquals(1, first.mDisconnects);
+        assertEquals(1, second.mConnects);
+        assertEquals(1, CastScreenService.getReceiverCount());
+        // the service was kept bound
+        assertEquals(1, mContext.mBinds);
+        assertEquals(1, mContext.mBound.size());
+    }
+
+    @Test
+    public void concurrentStartsAndStopsEndConsistent() throws InterruptedException {
+        final List<CastSessionState.State[]> observed =
+                Collections.synchronizedList(new ArrayList<CastSessionState.State[]>());
+        CastSessionState.Listener listener = new CastSessionState.Listener() {
+            @Override
+            public void onStateChanged(CastSessionState.State from, CastSessionState.State to) {
+                observed.add(new CastSessionState.State[]{from, to});
+            }
+        };
+        CastScreenService.getSessionState().addListener(listener);
+        int openSessions = CastResourceTracker.getOpenCount(CastResourceTracker.Kind.CONNECTION_MANAGER);
+
+        // starts and stops from other threads are posted to the main thread, and handled in order
+        ShadowLooper.pauseMainLooper();
+        final ArrayList<FakeTransport> transports = new ArrayList<>();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final FakeTransport transport = new FakeTransport();
+            transports.add(transport);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int round = 0; round < ROUNDS; round++) {
+                        start(transport);
+                        CastScreenService.stop();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        ShadowLooper.runUiThreadTasks();
+        ShadowLooper.unPauseMainLooper();
+        CastScreenService.stop();
+        ShadowLooper.runUiThreadTasks();
+        CastScreenService.getSessionState().removeListener(listener);
+
+        assertEquals(CastSessionState.State.IDLE, state());
+        assertEquals(openSessions, CastResourceTracker.getOpenCount(CastResourceTracker.Kind.CONNECTION_MANAGER));
+        for (FakeTransport transport : transports) {
+            assertEquals(transport.mConnects, transport.mDisconnects);
+        }
+        CastSessionState.State current = CastSessionState.State.IDLE;
+        for (CastSessionState.State[] transition : observed) {
+            assertEquals(current, transition[0]);
+            current = transition[1];
+        }
+        assertEquals(CastSessionState.State.IDLE, current);
+        assertEquals(0, mContext.mBound.size());
+    }
+
+    @Test
+    public void switchingContentKeepsSessions() {
+        FakeTransport transport = new FakeTransport();
+        start(transport);
+        ExtendedContent other = new FakeContent();
+
+        assertTrue(CastScreenService.setExtendedContent(other));
+        assertSame(other, CastScreenService.getExtendedContent());
+        assertEquals(CastSessionState.State.CONNECTING, state());
+        assertEquals(1, transport.mConnects);
+        assertEquals(0, transport.mDisconnects);
+        assertEquals(1, CastScreenService.getReceiverCount());
+        assertEquals(1, mContext.mBinds);
+    }
+
+    @Test
+    public void mirroringWithoutCaptureGrantKeepsContent() {
+        FakeTransport transport = new FakeTransport();
+        start(transport);
+
+        // there is no screen capture permission to mirror with
+        assertFalse(CastScreenService.setExtendedContent(null));
+        assertSame(mContent, CastScreenService.getExtendedContent());
+        assertEquals(CastSessionState.State.CONNECTING, state());
+        assertEquals(0, transport.mDisconnects);
+        assertEquals(1, CastScreenService.getReceiverCount());
+        assertNull(CastScreenService.getFrameRelay());
+    }
+
+    @Test
+    public void contentWithoutCastAppliesToNextCast() {
+        ExtendedContent other = new FakeContent();
+        assertTrue(CastScreenService.setExtendedContent(other));
+        assertSame(other, CastScreenService.getExtendedContent());
+        assertEquals(CastSessionState.State.IDLE, state());
+    }
+
+    private void start(CastTransport transport) {
+        CastScreenService.start(mContext, "test", mMetrics, CaptureProfile.NATIVE_RECEIVER, transport, null,
+                mNotification);
+    }
+
+    private static CastSessionState.State state() {
+        return CastScreenService.getSessionState().get();
+    }
+
+    /**
+     * counts connects and disconnects; never connects, so no remote display is started, unless it
+     * is given a display to start the remote display on
+     */
+    static class FakeTransport implements CastTransport {
+        private final Display mDisplay;
+        private boolean mConnected;
+        int mConnects;
+        int mDisconnects;
+
+        FakeTransport() {
+            this(null);
+        }
+
+        FakeTransport(Display display) {
+            mDisplay = display;
+        }
+
+        @Override
+        public void connect(Listener listener) {
+            mConnects++;
+            if (mDisplay == null) return;
+            mConnected = true;
+            listener.onConnected();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return mConnected;
+        }
+
+        @Override
+        public boolean setContentMode(ContentClassifier.Mode mode) {
+            return false;
+        }
+
+        @Override
+        public void startRemoteDisplay(ResultCallback<Display> callback) {
+            if (mDisplay != null) callback.onSuccess(mDisplay);
+        }
+
+        @Override
+        public void stopRemoteDisplay(ResultCallback<Void> callback) {
+            callback.onSuccess(null);
+        }
+
+        @Override
+        public MessageChannel getMessageChannel() {
+            return null;
+        }
+
+        @Override
+        public void disconnect() {
+            mDisconnects++;
+            mConnected = false;
+        }
+    }
+
+    /**
+     * records the service connections, connects them to {@code binder} on the main thread, and
+     * unbinds without calling them back; unbinding a connection that is not bound throws, as on a
+     * device
+     */
+    static class BindingContext extends ContextWrapper {
+        private final IBinder mBinder;
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+        final ArrayList<ServiceConnection> mBound = new ArrayList<>();
+        int mBinds;
+        int mUnbinds;
+
+        BindingContext(Context base, IBinder binder) {
+            super(base);
+            mBinder = binder;
+        }
+
+        @Override
+        public boolean bindService(final Intent service, final ServiceConnection connection, int flags) {
+            mBinds++;
+            mBound.add(connection);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    connection.onServiceConnected(service.getComponent(), mBinder);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public void unbindService(ServiceConnection connection) {
+            if (!mBound.remove(connection)) throw new IllegalArgumentException("Service not registered");
+            mUnbinds++;
+        }
+    }
+
+    static class FakeContent implements ExtendedContent {
+        @Override
+        public View onCreateView(Context context, ViewGroup container) {
+            return new View(context);
+        }
+
+        @Override
+        public void onDestroyView(View view) {
+        }
+    }
+
+}
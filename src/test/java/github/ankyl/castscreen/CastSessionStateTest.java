@@ -0,0 +1,147 @@
+package github.ankyl.castscreen;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static github.ankyl.castscreen.CastSessionState.State.BINDING;
+import static github.ankyl.castscreen.CastSessionState.State.CONNECTING;
+import static github.ankyl.castscreen.CastSessionState.State.IDLE;
+import static github.ankyl.castscreen.CastSessionState.State.PRESENTING;
+import static github.ankyl.castscreen.CastSessionState.State.STOPPING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class CastSessionStateTest {
+    private static final int THREADS = 8;
+    private static final int ATTEMPTS = 2000;
+
+    private static final EnumMap<CastSessionState.State, EnumSet<CastSessionState.State>> TRANSITIONS =
+            new EnumMap<>(CastSessionState.State.class);
+
+    static {
+        TRANSITIONS.put(IDLE, EnumSet.of(BINDING));
+        TRANSITIONS.put(BINDING, EnumSet.of(CONNECTING, STOPPING));
+        TRANSITIONS.put(CONNECTING, EnumSet.of(PRESENTING, STOPPING, IDLE));
+        TRANSITIONS.put(PRESENTING, EnumSet.of(CONNECTING, STOPPING));
+        TRANSITIONS.put(STOPPING, EnumSet.of(IDLE, CONNECTING, BINDING));
+    }
+
+    @Test
+    public void onlyTransitionsOfTheMachineAreAllowed() {
+        for (CastSessionState.State from : CastSessionState.State.values()) {
+            for (CastSessionState.State to : CastSessionState.State.values()) {
+                CastSessionState state = stateIn(from);
+                boolean allowed = TRANSITIONS.get(from).contains(to);
+                try {
+                    assertTrue(from + " -> " + to, state.moveTo(from, to));
+                    assertTrue(from + " -> " + to + " is not a transition", allowed);
+                    assertEquals(to, state.get());
+                } catch (IllegalStateException e) {
+                    assertFalse(from + " -> " + to + " is a transition", allowed);
+                    assertEquals(from, state.get());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void moveFromStaleStateFails() {
+        CastSessionState state = stateIn(CONNECTING);
+        assertFalse(state.moveTo(BINDING, CONNECTING));
+        assertFalse(state.moveTo(PRESENTING, STOPPING));
+        assertEquals(CONNECTING, state.get());
+    }
+
+    @Test
+    public void concurrentTransitionsAreAtomicAndObservedInOrder() throws InterruptedException {
+        final CastSessionState state = new CastSessionState();
+        final List<CastSessionState.State[]> observed =
+                Collections.synchronizedList(new ArrayList<CastSessionState.State[]>());
+        state.addListener(new CastSessionState.Listener() {
+            @Override
+            public void onStateChanged(CastSessionState.State from, CastSessionState.State to) {
+                observed.add(new CastSessionState.State[]{from, to});
+            }
+        });
+        // keep the listener calls queued until every thread is done
+        ShadowLooper.pauseMainLooper();
+
+        final AtomicInteger moves = new AtomicInteger();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+                        CastSessionState.State from = state.get();
+                        if (state.moveTo(from, next(from, thread + attempt))) moves.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        ShadowLooper.unPauseMainLooper();
+        ShadowLooper.runUiThreadTasks();
+
+        assertEquals(moves.get(), observed.size());
+        CastSessionState.State current = IDLE;
+        for (CastSessionState.State[] transition : observed) {
+            assertEquals(current, transition[0]);
+            assertTrue(TRANSITIONS.get(transition[0]).contains(transition[1]));
+            current = transition[1];
+        }
+        assertEquals(state.get(), current);
+    }
+
+    /**
+     * @return one of the transitions from {@param from}, picked by {@param choice}
+     */
+    private static CastSessionState.State next(CastSessionState.State from, int choice) {
+        ArrayList<CastSessionState.State> targets = new ArrayList<>(TRANSITIONS.get(from));
+        return targets.get(choice % targets.size());
+    }
+
+    /**
+     * @return a new machine moved along transitions to {@param target}
+     */
+    private static CastSessionState stateIn(CastSessionState.State target) {
+        CastSessionState state = new CastSessionState();
+        if (target == IDLE) return state;
+        state.moveTo(IDLE, BINDING);
+        switch (target) {
+            case CONNECTING:
+                state.moveTo(BINDING, CONNECTING);
+                break;
+            case PRESENTING:
+                state.moveTo(BINDING, CONNECTING);
+                state.moveTo(CONNECTING, PRESENTING);
+                break;
+            case STOPPING:
+                state.moveTo(BINDING, STOPPING);
+                break;
+            default:
+                break;
+        }
+        if (state.get() != target) fail("Could not reach " + target);
+        return state;
+    }
+
+}
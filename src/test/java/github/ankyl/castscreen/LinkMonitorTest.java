@@ -0,0 +1,136 @@
+package github.ankyl.castscreen;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Probes, echoes and reports run on the main looper, and the monitor's clock follows it, so
+ * simulated round-trip times are measured exactly.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class LinkMonitorTest {
+    private static final LinkMonitor.Clock LOOPER_CLOCK = new LinkMonitor.Clock() {
+        @Override
+        public long nanoTime() {
+            return SystemClock.uptimeMillis() * 1000000L;
+        }
+    };
+
+    private FakeControlReceiver mReceiver;
+    private LinkMonitor mMonitor;
+
+    @Before
+    public void setUp() {
+        CastScreenThreads.setSessionHandler(new Handler(Looper.getMainLooper()));
+    }
+
+    @After
+    public void tearDown() {
+        if (mMonitor != null) mMonitor.stop();
+        CastScreenThreads.setSessionHandler(null);
+    }
+
+    @Test
+    public void rttConvergesToLinkRtt() {
+        create(null);
+        mReceiver.setRttMillis(20);
+        mMonitor.start();
+        advanceProbes(10);
+        assertEquals(20, mMonitor.getEstimate().rttMillis, 0.5f);
+
+        mReceiver.setRttMillis(200);
+        advanceProbes(2);
+        // smoothed, so a single slow echo barely moves the estimate
+        assertTrue(mMonitor.getEstimate().rttMillis < 50);
+        advanceProbes(60);
+        LinkMonitor.Estimate estimate = mMonitor.getEstimate();
+        assertTrue(estimate.supported);
+        assertEquals(200, estimate.rttMillis, 1f);
+        assertTrue(estimate.rttVariationMillis < 1f);
+        assertEquals(0, estimate.probesLost);
+    }
+
+    @Test
+    public void unansweredProbesExpireAsLost() {
+        create(null);
+        mMonitor.start();
+        advanceProbes(4);
+        mReceiver.setAnswering(false);
+        long sent = mMonitor.getEstimate().probesSent;
+
+        // the first unanswered probe is sent one interval later, and expires at the first probe
+        // after its timeout
+        long expiryProbes = 1 + (LinkMonitor.PROBE_TIMEOUT_MS + LinkMonitor.PROBE_INTERVAL_MS - 1)
+                / LinkMonitor.PROBE_INTERVAL_MS;
+        advanceProbes(expiryProbes - 1);
+        assertEquals(0, mMonitor.getEstimate().probesLost);
+        advanceProbes(1);
+        assertEquals(1, mMonitor.getEstimate().probesLost);
+        advanceProbes(5);
+        LinkMonitor.Estimate estimate = mMonitor.getEstimate();
+        assertEquals(6, estimate.probesLost);
+        // a receiver that answered before is still probed
+        assertTrue(estimate.supported);
+        assertEquals(sent + expiryProbes + 5, estimate.probesSent);
+    }
+
+    @Test
+    public void givesUpOnReceiverThatNeverAnswers() {
+        create(null);
+        mReceiver.setAnswering(false);
+        mMonitor.start();
+        advanceProbes(20);
+        LinkMonitor.Estimate estimate = mMonitor.getEstimate();
+        assertFalse(estimate.supported);
+        assertEquals(LinkMonitor.MAX_UNANSWERED_PROBES, estimate.probesLost);
+        assertEquals(-1, estimate.rttMillis, 0f);
+
+        // probing stopped and the channel was closed
+        advanceProbes(5);
+        assertEquals(estimate.probesSent, mMonitor.getEstimate().probesSent);
+        assertFalse(mReceiver.send("{\"type\":\"ping\"}"));
+    }
+
+    @Test
+    public void dropRateFollowsReceiverStats() {
+        create(new FakeControlReceiver.FrameCounter() {
+            @Override
+            public long getFrameCount() {
+                // 60 frames per second
+                return SystemClock.uptimeMillis() * 60 / 1000;
+            }
+        });
+        mReceiver.setDropFraction(0.1f);
+        mReceiver.setBufferMillis(40);
+        mMonitor.start();
+        advanceProbes(15);
+        LinkMonitor.Estimate estimate = mMonitor.getEstimate();
+        assertEquals(0.1f, estimate.dropRate, 0.02f);
+        assertEquals(40, estimate.bufferMillis, 0.5f);
+        assertTrue(estimate.framesDecoded > estimate.framesDropped);
+    }
+
+    private void create(FakeControlReceiver.FrameCounter frameCounter) {
+        mReceiver = new FakeControlReceiver(frameCounter);
+        mMonitor = new LinkMonitor(null, mReceiver, null, LOOPER_CLOCK);
+    }
+
+    private static void advanceProbes(long probes) {
+        ShadowLooper.idleMainLooper(probes * LinkMonitor.PROBE_INTERVAL_MS);
+    }
+
+}
@@ -0,0 +1,155 @@
+package github.ankyl.castscreen;
+
+import android.os.SystemClock;
+import android.support.v7.media.MediaRouteSelector;
+import android.support.v7.media.MediaRouter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class RouteDiscoveryCoordinatorTest {
+    private static final int OFF = 0;
+    private static final int PASSIVE = MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY;
+    private static final int ACTIVE = MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY
+            | MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN;
+    private static final float DELTA = 1e-6f;
+
+    private final FakeRouter mRouter = new FakeRouter();
+    private final MediaRouteSelector mSelector = new MediaRouteSelector.Builder().addControlCategory("test").build();
+    private final MediaRouter.Callback mButton = new MediaRouter.Callback() {
+    };
+    private final MediaRouter.Callback mSession = new MediaRouter.Callback() {
+    };
+    private RouteDiscoveryCoordinator mCoordinator;
+
+    @Before
+    public void setUp() {
+        mCoordinator = new RouteDiscoveryCoordinator(mRouter);
+    }
+
+    @Test
+    public void discoversOnlyWhileACallbackAsks() {
+        mCoordinator.addCallback(mSelector, mSession, false);
+        mCoordinator.addCallback(mSelector, mButton, true);
+        mCoordinator.removeCallback(mButton);
+        mCoordinator.removeCallback(mSession);
+        assertEquals(Arrays.asList(OFF, PASSIVE, OFF), mRouter.mRegisteredFlags);
+        assertEquals(0, mRouter.mCallbacks.size());
+    }
+
+    @Test
+    public void reRegistersWhenCallbackChanges() {
+        mCoordinator.addCallback(mSelector, mButton, true);
+        mCoordinator.addCallback(mSelector, mButton, false);
+        // removing a callback that is not registered changes nothing
+        mCoordinator.removeCallback(mSession);
+        assertEquals(Arrays.asList(PASSIVE, OFF), mRouter.mRegisteredFlags);
+        assertEquals(1, mRouter.mCallbacks.size());
+    }
+
+    @Test
+    public void activeScanEndsAfterTimeout() {
+        mCoordinator.addCallback(mSelector, mButton, true);
+        mCoordinator.requestActiveScan();
+        // asking again while scanning only extends the scan
+        advance(RouteDiscoveryCoordinator.ACTIVE_SCAN_MS / 2);
+        mCoordinator.requestActiveScan();
+        advance(RouteDiscoveryCoordinator.ACTIVE_SCAN_MS - 1);
+        assertEquals(Arrays.asList(PASSIVE, ACTIVE), mRouter.mRegisteredFlags);
+        advance(1);
+        assertEquals(Arrays.asList(PASSIVE, ACTIVE, PASSIVE), mRouter.mRegisteredFlags);
+    }
+
+    @Test
+    public void activeScanWithoutCallbacksUnregistersWhenDone() {
+        mCoordinator.requestActiveScan();
+        mCoordinator.stopActiveScan();
+        assertEquals(Arrays.asList(ACTIVE), mRouter.mRegisteredFlags);
+        assertEquals(0, mRouter.mCallbacks.size());
+    }
+
+    @Test
+    public void discoveryStartIsClearedWhenDiscoveryStops() {
+        advance(1000);
+        mCoordinator.addCallback(mSelector, mSession, false);
+        assertEquals(0, mCoordinator.getDiscoveryStartMillis());
+
+        mCoordinator.addCallback(mSelector, mButton, true);
+        long start = SystemClock.elapsedRealtime();
+        assertEquals(start, mCoordinator.getDiscoveryStartMillis());
+        // still waiting for the first route, so the start is kept
+        advance(500);
+        mCoordinator.requestActiveScan();
+        assertEquals(start, mCoordinator.getDiscoveryStartMillis());
+
+        mCoordinator.stopActiveScan();
+        mCoordinator.removeCallback(mButton);
+        assertEquals(0, mCoordinator.getDiscoveryStartMillis());
+        mCoordinator.removeCallback(mSession);
+        assertEquals(0, mCoordinator.getDiscoveryStartMillis());
+
+        advance(500);
+        mCoordinator.addCallback(mSelector, mButton, true);
+        assertEquals(SystemClock.elapsedRealtime(), mCoordinator.getDiscoveryStartMillis());
+    }
+
+    @Test
+    public void dutyCycleCountsActiveScans() {
+        mCoordinator.addCallback(mSelector, mButton, true);
+        advance(1000);
+        mCoordinator.requestActiveScan();
+        advance(1000);
+        mCoordinator.stopActiveScan();
+        advance(2000);
+        assertEquals(1000, mCoordinator.getActiveScanMillis());
+        assertEquals(0.25f, mCoordinator.getActiveScanDutyCycle(), DELTA);
+
+        // a scan in progress counts up to now
+        mCoordinator.requestActiveScan();
+        advance(1000);
+        assertEquals(2000, mCoordinator.getActiveScanMillis());
+        assertEquals(0.4f, mCoordinator.getActiveScanDutyCycle(), DELTA);
+    }
+
+    private static void advance(long millis) {
+        ShadowLooper.idleMainLooper(millis);
+    }
+
+    /**
+     * records the flags of every registration; knows no routes
+     */
+    private static class FakeRouter implements RouteDiscoveryCoordinator.Router {
+        final ArrayList<Integer> mRegisteredFlags = new ArrayList<>();
+        final ArrayList<MediaRouter.Callback> mCallbacks = new ArrayList<>();
+
+        @Override
+        public void addCallback(MediaRouteSelector selector, MediaRouter.Callback callback, int flags) {
+            mCallbacks.add(callback);
+            mRegisteredFlags.add(flags);
+        }
+
+        @Override
+        public void removeCallback(MediaRouter.Callback callback) {
+            mCallbacks.remove(callback);
+        }
+
+        @Override
+        public List<MediaRouter.RouteInfo> getRoutes() {
+            return Collections.emptyList();
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package github.ankyl.castscreen;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The configuration and the frame timing of the pattern; drawing needs a GPU, and is exercised by
+ * the instrumented benchmarks instead.
+ */
+public class TestPatternSourceTest {
+    private static final float DELTA = 1e-6f;
+
+    @Test
+    public void configRoundsSizeDownToEven() {
+        TestPatternSource.Config config = new TestPatternSource.Config(TestPatternSource.Pattern.NOISE, 1281, 721,
+                30, false);
+        assertEquals(1280, config.width);
+        assertEquals(720, config.height);
+    }
+
+    @Test
+    public void configRejectsInvalidValues() {
+        assertInvalid(null, 640, 480, 30);
+        // rounding down to even would leave nothing to draw
+        assertInvalid(TestPatternSource.Pattern.STATIC, 1, 480, 30);
+        assertInvalid(TestPatternSource.Pattern.STATIC, 640, 0, 30);
+        assertInvalid(TestPatternSource.Pattern.STATIC, 640, 480, 0);
+        assertInvalid(TestPatternSource.Pattern.STATIC, 640, 480, -30);
+        assertInvalid(TestPatternSource.Pattern.STATIC, 640, 480, Float.NaN);
+        assertInvalid(TestPatternSource.Pattern.STATIC, 640, 480, Float.POSITIVE_INFINITY);
+    }
+
+    @Test
+    public void framesOnTimeFollowTheGrid() {
+        TestPatternSource.FrameGrid grid = new TestPatternSource.FrameGrid(30);
+        grid.restart(0, 1000);
+        assertEquals(1033, grid.next(1, 1001));
+        assertEquals(1066, grid.next(2, 1034));
+        assertEquals(2000, grid.next(30, 1990));
+        assertEquals(0, grid.getLateFrames());
+    }
+
+    @Test
+    public void lateFramesSkipMissedSlots() {
+        TestPatternSource.FrameGrid grid = new TestPatternSource.FrameGrid(10);
+        grid.restart(0, 0);
+        // frame 1 was due at 100, but the first frame took until 250: slots at 100 and 200 are
+        // skipped, and frame 1 is shown at the next slot instead of right away
+        assertEquals(300, grid.next(1, 250));
+        assertEquals(2, grid.getLateFrames());
+        // the grid stays shifted
+        assertEquals(400, grid.next(2, 310));
+        assertEquals(2, grid.getLateFrames());
+    }
+
+    @Test
+    public void nextFrameIsNeverDueInThePast() {
+        float[] rates = { 24, 29.97f, 30, 59.94f, 60, 144 };
+        for (float fps : rates) {
+            TestPatternSource.FrameGrid grid = new TestPatternSource.FrameGrid(fps);
+            grid.restart(0, 0);
+            long now = 0;
+            for (long frame = 1; frame < 1000; frame++) {
+                // every seventh frame takes longer than a few slots
+                now += frame % 7 == 0 ? 97 : 3;
+                long next = grid.next(frame, now);
+                assertTrue(fps + "fps frame " + frame + " due at " + next + " before " + now, next >= now);
+                now = next;
+            }
+        }
+    }
+
+    @Test
+    public void restartKeepsFrameIndex() {
+        TestPatternSource.FrameGrid grid = new TestPatternSource.FrameGrid(20);
+        grid.restart(0, 0);
+        // resumed after a suspension long past frame 10's slot
+        grid.restart(10, 5000);
+        assertEquals(5050, grid.next(11, 5001));
+        assertEquals(0, grid.getLateFrames());
+    }
+
+    @Test
+    public void scrollOffsetWrapsAround() {
+        assertEquals(0f, TestPatternSource.scrollOffset(0), DELTA);
+        assertEquals(0.5f, TestPatternSource.scrollOffset(120), DELTA);
+        assertEquals(0f, TestPatternSource.scrollOffset(240), DELTA);
+        assertEquals(0.25f, TestPatternSource.scrollOffset(240 * 3 + 60), DELTA);
+    }
+
+    private static void assertInvalid(TestPatternSource.Pattern pattern, int width, int height, float fps) {
+        try {
+            new TestPatternSource.Config(pattern, width, height, fps, false);
+            fail("Accepted " + pattern + " " + width + "x" + height + "@" + fps);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package github.ankyl.castscreen;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class ThermalGovernorTest {
+    private static final long COOL_DOWN_MS = 1000;
+    private static final ThermalGovernor.Step[] LADDER = {
+            new ThermalGovernor.Step(1f, 0),
+            new ThermalGovernor.Step(0.75f, 30),
+            new ThermalGovernor.Step(0.5f, 15)
+    };
+
+    private final FakeThermalSource mSource = new FakeThermalSource();
+    private final ArrayList<ThermalGovernor.Step> mApplied = new ArrayList<>();
+    private ThermalGovernor mGovernor;
+
+    @Before
+    public void setUp() {
+        // run the session thread's work on the main looper, whose clock the test controls
+        CastScreenThreads.setSessionHandler(new Handler(Looper.getMainLooper()));
+        mGovernor = new ThermalGovernor(new ThermalGovernor.Target() {
+            @Override
+            public void applyStep(ThermalGovernor.Step step) {
+                mApplied.add(step);
+            }
+        }, mSource, null, LADDER, COOL_DOWN_MS);
+        mGovernor.start();
+    }
+
+    @After
+    public void tearDown() {
+        mGovernor.stop();
+        CastScreenThreads.setSessionHandler(null);
+    }
+
+    @Test
+    public void stepsDownImmediately() {
+        mSource.report(ThermalSource.SEVERITY_LIGHT);
+        assertEquals(1, mGovernor.getStepIndex());
+        mSource.report(ThermalSource.SEVERITY_MODERATE);
+        assertEquals(2, mGovernor.getStepIndex());
+        assertEquals(Arrays.asList(LADDER[1], LADDER[2]), mApplied);
+    }
+
+    @Test
+    public void stepsUpOneStepPerCoolDown() {
+        mSource.report(ThermalSource.SEVERITY_MODERATE);
+        mSource.report(ThermalSource.SEVERITY_NONE);
+        assertEquals(2, mGovernor.getStepIndex());
+
+        advance(COOL_DOWN_MS - 1);
+        assertEquals(2, mGovernor.getStepIndex());
+        advance(1);
+        assertEquals(1, mGovernor.getStepIndex());
+        advance(COOL_DOWN_MS - 1);
+        assertEquals(1, mGovernor.getStepIndex());
+        advance(1);
+        assertEquals(0, mGovernor.getStepIndex());
+        assertEquals(Arrays.asList(LADDER[2], LADDER[1], LADDER[0]), mApplied);
+    }
+
+    @Test
+    public void coolDownStartsWhenSeverityDrops() {
+        mSource.report(ThermalSource.SEVERITY_LIGHT);
+        // a long time at the step does not count towards the cool-down
+        advance(10 * COOL_DOWN_MS);
+        mSource.report(ThermalSource.SEVERITY_NONE);
+        assertEquals(1, mGovernor.getStepIndex());
+        advance(COOL_DOWN_MS);
+        assertEquals(0, mGovernor.getStepIndex());
+    }
+
+    @Test
+    public void doesNotOscillateWhenSeverityFlaps() {
+        mSource.report(ThermalSource.SEVERITY_MODERATE);
+        for (int i = 0; i < 10; i++) {
+            mSource.report(ThermalSource.SEVERITY_NONE);
+            advance(COOL_DOWN_MS / 2);
+            mSource.report(ThermalSource.SEVERITY_MODERATE);
+            advance(COOL_DOWN_MS / 2);
+        }
+        assertEquals(2, mGovernor.getStepIndex());
+        assertEquals(Arrays.asList(LADDER[2]), mApplied);
+    }
+
+    @Test
+    public void severityBeyondLadderUsesLastStep() {
+        mSource.report(ThermalSource.SEVERITY_CRITICAL);
+        assertEquals(LADDER.length - 1, mGovernor.getStepIndex());
+        assertEquals(Arrays.asList(LADDER[LADDER.length - 1]), mApplied);
+    }
+
+    private static void advance(long millis) {
+        ShadowLooper.idleMainLooper(millis);
+    }
+
+    private static class FakeThermalSource implements ThermalSource {
+        private Listener mListener;
+
+        @Override
+        public void start(Listener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void stop() {
+            mListener = null;
+        }
+
+        void report(int severity) {
+            mListener.onSeverityChanged(severity, "test");
+        }
+    }
+
+}